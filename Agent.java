@@ -12,22 +12,10 @@ public abstract class Agent
      * Random number generator used to pick a random column.
      */
     Random r;
-    final String VERTICAL_A = "vertical-a";
-    final String VERTICAL_B = "vertical-b";
-    final String VERTICAL_C = "vertical-c";
-    final String VERTICAL_D = "vertical-d";
-    final String HORIZONTAL_A = "horizontal-a";
-    final String HORIZONTAL_B = "horizontal-b";
-    final String HORIZONTAL_C = "horizontal-c";
-    final String HORIZONTAL_D = "horizontal-d";
-    final String DIAGONAL_DOWN_A = "diagonalDown-a";
-    final String DIAGONAL_DOWN_B = "diagonalDown-b";
-    final String DIAGONAL_DOWN_C = "diagonalDown-c";
-    final String DIAGONAL_DOWN_D = "diagonalDown-d";    
-    final String DIAGONAL_UP_A = "diagonalUp-a";
-    final String DIAGONAL_UP_B = "diagonalUp-b";
-    final String DIAGONAL_UP_C = "diagonalUp-c";
-    final String DIAGONAL_UP_D = "diagonalUp-d";        
+    /**
+     * The answers to worthMoving questions about the current board, kept until it changes.
+     */
+    private ThreatCache threats;
     
     /**
      * Constructs a new agent.
@@ -42,6 +30,7 @@ public abstract class Agent
         this.iAmRed = iAmRed;
         this.name = theName;
         this.r = new Random();
+        this.threats = new ThreatCache();
     }
 
     /**
@@ -71,6 +60,39 @@ public abstract class Agent
         }
     }
 
+    /**
+     * Attaches the agent to another game, so that one agent can play many games without being
+     * constructed again. The agent is reset as well.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed Whether the agent is the red player.
+     */
+    public void rebind(Connect4Game game, boolean iAmRed)
+    {
+        this.myGame = game;
+        this.iAmRed = iAmRed;
+        reset();
+    }
+
+    /**
+     * Gets the agent ready for a new game. Agents that keep state from one move to the next
+     * should override this to clear it, but may keep anything that stays valid between games,
+     * such as caches.
+     */
+    public void reset()
+    {
+    }
+
+    /**
+     * Reseeds the random number generator, so that a reused agent can replay the same games.
+     *
+     * @param seed The new seed.
+     */
+    public void setSeed(long seed)
+    {
+        r.setSeed(seed);
+    }
+
     /**
      * Make a move in the game. At the beginning of this method, the myGame object will be
      * ready for a move. After this method has run, exactly one piece should be added to the
@@ -95,18 +117,72 @@ public abstract class Agent
     }
 
     /**
-     * Returns a random valid column index to move on.
+     * Returns a random valid column index to move on. Every column that is not full is equally
+     * likely, and the cost does not depend on how full the board is. Boards of more than 64
+     * columns, which do not fit in the legal-move mask, are scanned column by column instead.
      * 
-     * @return The index number of a valid random column.
+     * @return The index number of a valid random column; -1 if the board is full.
      */
     public int randomMove()
     {
-        int i = r.nextInt(myGame.getColumnCount());
-        while (getLowestEmptyIndex(myGame.getColumn(i)) == -1)
+        AgentProfiler.HelperEvent event = AgentProfiler.begin(AgentProfiler.RANDOM_MOVE);
+        long legal = legalMoves();
+        int column = -1;
+        if (myGame.getColumnCount() > 64)
+        {
+            column = randomScannedMove();
+        }
+        else if (legal != 0)
+        {
+            int n = r.nextInt(Long.bitCount(legal));
+            for (int i = 0; i < n; i++)
+            {
+                legal &= legal - 1;
+            }
+            column = Long.numberOfTrailingZeros(legal);
+        }
+        event.end(AgentProfiler.RANDOM_MOVE, this, null, 0, column);
+        return column;
+    }
+
+    /**
+     * Picks a random column that is not full by looking at the top slot of every column.
+     * 
+     * @return the column; -1 if the board is full.
+     */
+    private int randomScannedMove()
+    {
+        int open = 0;
+        for (int i = 0; i < myGame.getColumnCount(); i++)
         {
-            i = r.nextInt(myGame.getColumnCount());
+            if (!myGame.getColumn(i).getSlot(0).getIsFilled())
+            {
+                open++;
+            }
+        }
+        if (open == 0)
+        {
+            return -1;
+        }
+        int n = r.nextInt(open);
+        for (int i = 0; ; i++)
+        {
+            if (!myGame.getColumn(i).getSlot(0).getIsFilled() && n-- == 0)
+            {
+                return i;
+            }
         }
-        return i;
+    }
+
+    /**
+     * Returns the columns that are not full, as a bitmask. The game keeps the mask up to date
+     * as tokens are added and cleared, so this costs nothing.
+     * 
+     * @return a mask with bit i set when column i can be played, for boards of up to 64 columns.
+     */
+    public long legalMoves()
+    {
+        return myGame.getLegalMoves();
     }
 
     /**
@@ -141,6 +217,7 @@ public abstract class Agent
      */
     public int canMoveOnEmpty()
     {
+        AgentProfiler.HelperEvent event = AgentProfiler.begin(AgentProfiler.MOVE_ON_EMPTY);
         int colIndex = 0;
         int bottomRow = myGame.getRowCount() - 1;
         boolean columnFound = false;        
@@ -157,10 +234,10 @@ public abstract class Agent
             else 
                 colIndex ++;            
         }
-        if (columnFound)                     
-            return colIndex;        
-        else
-            return -1; 
+        if (!columnFound)
+            colIndex = -1;
+        event.end(AgentProfiler.MOVE_ON_EMPTY, this, null, 0, colIndex);
+        return colIndex;
     }
 
     /**
@@ -178,9 +255,42 @@ public abstract class Agent
         return middleIndex;
     }
 
+    /**
+     * Returns the perfect move for the current position from an endgame tablebase.
+     * 
+     * @param tablebase The tablebase to consult.
+     * @return The index number of the column to move on; -1 if the position is
+     * not in the tablebase.
+     */
+    public int endgameMove(EndgameTablebase tablebase)
+    {
+        return tablebase.bestMove(new BitBoard(myGame));
+    }
+
+    /**
+     * Looks for a forced win for this agent with a proof-number search, which is much faster
+     * than a full search when only a yes or no answer is wanted.
+     * 
+     * @param oracle The search to use, built for this board size; it can be kept for the whole
+     * game.
+     * @param plies The most plies the win may take, counting the winning move itself: 1 for a
+     * win on this move, 3 for a win on the next move whatever the opponent does, and so on.
+     * @return The index number of the first column of a forced win; -1 if there is none
+     * within the limit or the search gave up.
+     */
+    public int forcedWin(ProofNumberSearch oracle, int plies)
+    {
+        BitBoard board = new BitBoard(myGame);
+        if (oracle.solve(board, plies) == ProofNumberSearch.WIN)
+            return oracle.getBestMove();
+        return -1;
+    }
+
     /**
      * Determines whether it is wise to make a move on a column after taking into 
      * consideration the number of moves needed to complete a win after making the move.
+     * The answers for both colours and every threshold are worked out together and kept until
+     * the board changes, so asking again, or asking about the other colour, is cheap.
      * 
      * @param color The color representing the player for which the function is consulted. 
      * @param threshold The threshold used to determine the ... of the move (if 1 is supplied,
@@ -191,78 +301,71 @@ public abstract class Agent
      */
     public int worthMoving(String color, int threshold) 
     {
+        AgentProfiler.HelperEvent event = AgentProfiler.begin(AgentProfiler.WORTH_MOVING);
         int columnIndex = 0;
-        boolean columnFound = false;        
-        while (columnIndex < myGame.getColumnCount() && !columnFound)
-        {    
-            Connect4Column column = myGame.getColumn(columnIndex);
-            int rowIndex = getLowestEmptyIndex(column);
-            if (rowIndex != -1)
-            { 
-                // get a string containing the different possible combinations
-                // and directions of possible wins based on the slot's position 
-                // with respect to the grid
-                String combosToCheck = getCombosToCheck(columnIndex, rowIndex);
-
-                // check each possible combination to see if it meets the supplied threshold
-                if(combosToCheck.contains(VERTICAL_A)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, VERTICAL_A), color) == threshold)                
-                    columnFound = true;                  
-                else if(combosToCheck.contains(VERTICAL_B)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, VERTICAL_B), color) == threshold)                
-                    columnFound = true;  
-                else if(combosToCheck.contains(VERTICAL_C)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, VERTICAL_C), color) == threshold)                
-                    columnFound = true;                  
-                else if(combosToCheck.contains(VERTICAL_D)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, VERTICAL_D), color) == threshold)
-                    columnFound = true;  
-                else if(combosToCheck.contains(HORIZONTAL_A)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, HORIZONTAL_A), color) == threshold)
-                    columnFound = true;
-                else if(combosToCheck.contains(HORIZONTAL_B)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, HORIZONTAL_B), color) == threshold)
-                    columnFound = true;
-                else if(combosToCheck.contains(HORIZONTAL_C)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, HORIZONTAL_C), color) == threshold)
-                    columnFound = true;
-                else if(combosToCheck.contains(HORIZONTAL_D)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, HORIZONTAL_D), color) == threshold)
-                    columnFound = true;
-                else if(combosToCheck.contains(DIAGONAL_DOWN_A)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, DIAGONAL_DOWN_A), color) == threshold)
-                    columnFound = true;
-                else if(combosToCheck.contains(DIAGONAL_DOWN_B)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, DIAGONAL_DOWN_B), color) == threshold)
-                    columnFound = true;
-                else if(combosToCheck.contains(DIAGONAL_DOWN_C)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, DIAGONAL_DOWN_C), color) == threshold)
-                    columnFound = true;
-                else if(combosToCheck.contains(DIAGONAL_DOWN_D)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, DIAGONAL_DOWN_D), color) == threshold)
-                    columnFound = true;
-                else if(combosToCheck.contains(DIAGONAL_UP_A)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, DIAGONAL_UP_A), color) == threshold)
-                    columnFound = true;
-                else if(combosToCheck.contains(DIAGONAL_UP_B)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, DIAGONAL_UP_B), color) == threshold)
-                    columnFound = true;
-                else if(combosToCheck.contains(DIAGONAL_UP_C)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, DIAGONAL_UP_C), color) == threshold)
+        int colorIndex = ThreatCache.colorIndex(color);
+        if (colorIndex != -1)
+            columnIndex = threats.worthMoving(myGame, colorIndex, threshold);
+        else
+        {
+            boolean columnFound = false;        
+            while (columnIndex < myGame.getColumnCount() && !columnFound)
+            {    
+                if (worthMovingOn(columnIndex, color, threshold))
                     columnFound = true;
-                else if(combosToCheck.contains(DIAGONAL_UP_D)
-                && leftToConnect(getSlotsToCheck(columnIndex, rowIndex, DIAGONAL_UP_D), color) == threshold)
-                    columnFound = true;                  
-                else 
+                else
                     columnIndex ++;
             }
-            else             
-                columnIndex ++;              
+            if (!columnFound)
+                columnIndex = -1;
         }
-        if (columnFound)                     
-            return columnIndex;        
-        else
-            return -1;    
+        event.end(AgentProfiler.WORTH_MOVING, this, color, threshold, columnIndex);
+        return columnIndex;
+    }
+
+    /**
+     * Determines whether it is wise to make a move on a particular column after taking into 
+     * consideration the number of moves needed to complete a win after making the move.
+     * 
+     * @param columnIndex The index number of the column to check.
+     * @param color The color representing the player for which the function is consulted. 
+     * @param threshold The number of moves needed to complete a win, as for worthMoving.
+     * @return True if the column is not full and a move on it meets the threshold;
+     * false otherwise.
+     */
+    public boolean worthMovingOn(int columnIndex, String color, int threshold)
+    {
+        AgentProfiler.count(AgentProfiler.WORTH_MOVING_ON);
+        int colorIndex = ThreatCache.colorIndex(color);
+        if (colorIndex != -1)
+            return threats.worthMovingOn(myGame, columnIndex, colorIndex, threshold);
+        return scanWorthMovingOn(columnIndex, color, threshold);
+    }
+
+    /**
+     * Works out worthMovingOn from the board, without the cache.
+     */
+    private boolean scanWorthMovingOn(int columnIndex, String color, int threshold)
+    {
+        boolean columnFound = false;
+        Connect4Column column = myGame.getColumn(columnIndex);
+        int rowIndex = getLowestEmptyIndex(column);
+        if (rowIndex != -1)
+        { 
+            // get the slot's cell in the board's tables, whose lines of four are the different
+            // possible combinations and directions of wins through the slot
+            WinningLines lines = myGame.getWinningLines();
+            int cell = getCombosToCheck(columnIndex, rowIndex);
+
+            // check each possible combination to see if it meets the supplied threshold
+            int end = lines.getLinesThroughEnd(cell);
+            for (int i = lines.getLinesThroughStart(cell); i < end && !columnFound; i++)
+            {
+                if (leftToConnect(getSlotsToCheck(lines.getLineThrough(i), lines.getPositionThrough(i)), color) == threshold)
+                    columnFound = true;
+            }
+        }
+        return columnFound;
     }
 
     /**
@@ -270,169 +373,44 @@ public abstract class Agent
      * lead to a win based on a slot's position within the grid 
      * (the combination can be vertical, horizontal or diagonal
      * and can have a slot missing in position A □●●●, position B ●□●●, 
-     * position C ●●□● or position D ●●●□).
+     * position C ●●□● or position D ●●●□), as the slot's cell in the
+     * board's WinningLines: the combinations are the lines through it.
      * 
-     * @param columnIndex The index number of the column.
-     * @return The string concatenated from substrings representing
-     * each kind of possible combination for the specified column.
+     * @param col The column number of the slot.
+     * @param row The row number of the slot.
+     * @return The cell of the slot, whose lines are listed from
+     * getLinesThroughStart(cell) to getLinesThroughEnd(cell).
      */
-    private String getCombosToCheck(int col, int row)
+    private int getCombosToCheck(int col, int row)
     {
-        String toCheckFor = "";
-        if (row <= myGame.getRowCount() - 4)       
-            toCheckFor += VERTICAL_A;                
-        if (row >= 1 && row <= myGame.getRowCount() - 3)        
-            toCheckFor += VERTICAL_B;                
-        if (row >= 2 && row <= myGame.getRowCount() - 2)        
-            toCheckFor += VERTICAL_C;                
-        if (row >= 3)        
-            toCheckFor += VERTICAL_D;                
-        if (col <= myGame.getColumnCount() - 4)
-        {
-            toCheckFor += HORIZONTAL_A;  
-            if (row <= myGame.getRowCount() - 4)
-                toCheckFor += DIAGONAL_DOWN_A;
-            if (row >= 3)
-                toCheckFor += DIAGONAL_UP_A;
-        }        
-        if (col >= 1 && col <= myGame.getColumnCount() - 3)
-        {
-            toCheckFor += HORIZONTAL_B;
-            if (row >= 1 && row <= myGame.getRowCount() -3)
-                toCheckFor += DIAGONAL_DOWN_B;
-            if (row >= 2 && row <= myGame.getRowCount() -2)
-                toCheckFor += DIAGONAL_UP_B;
-        }
-        if (col >= 2  && col <= myGame.getColumnCount() - 2)
-        {
-            toCheckFor += HORIZONTAL_C;       
-            if (row >= 2 && row <= myGame.getRowCount() - 2)
-                toCheckFor += DIAGONAL_DOWN_C;  
-            if (row >= 1 && row <= myGame.getRowCount() - 3)
-                toCheckFor += DIAGONAL_UP_C;             
-        }
-        if (col >= 3)
-        {
-            toCheckFor += HORIZONTAL_D; 
-            if (row >= 3)
-                toCheckFor += DIAGONAL_DOWN_D;
-            if (row <= myGame.getRowCount() - 4)
-                toCheckFor += DIAGONAL_UP_D;
-        }       
-        return toCheckFor;    
+        AgentProfiler.count(AgentProfiler.COMBOS_TO_CHECK);
+        return myGame.getWinningLines().cell(col, row);
     }
 
     /**
      * Returns the three slots that should be checked when 
      * to determine if a connection can be made from 4 tokens
-     * of the same color taking into consideration whether 
-     * the line is vertical, horizontal or diagonal.
+     * of the same color along a line of the board.
      *
-     * @param col The column number of the slot.
-     * @param row The row number of the slot.
-     * @param combination The type of combination to check with.  
+     * @param line The line of four to check, from the board's WinningLines.
+     * @param position The position of the slot being played in the line, 0 to 3.
      * @return The array of three slots relevant to the formation
-     * of the specified type of line using the provided slot.
+     * of the line using the slot being played.
      */
-    private Connect4Slot[] getSlotsToCheck(int col, int row, String combination)
+    private Connect4Slot[] getSlotsToCheck(int line, int position)
     {        
+        AgentProfiler.count(AgentProfiler.SLOTS_TO_CHECK);
+        WinningLines lines = myGame.getWinningLines();
         Connect4Slot[] slots = new Connect4Slot[3];
-        if (combination.equals(VERTICAL_A))
-        {
-            slots[0] = myGame.getColumn(col).getSlot(row + 1);
-            slots[1] = myGame.getColumn(col).getSlot(row + 2);
-            slots[2] = myGame.getColumn(col).getSlot(row + 3);
-        }
-        else if (combination.equals(VERTICAL_B))
-        {
-            slots[0] = myGame.getColumn(col).getSlot(row - 1);
-            slots[1] = myGame.getColumn(col).getSlot(row + 1);
-            slots[2] = myGame.getColumn(col).getSlot(row + 2);
-        }
-        else if (combination.equals(VERTICAL_C))
-        {
-            slots[0] = myGame.getColumn(col).getSlot(row - 2);
-            slots[1] = myGame.getColumn(col).getSlot(row - 1);
-            slots[2] = myGame.getColumn(col).getSlot(row + 1);
-        }
-        else if (combination.equals(VERTICAL_D))
-        {
-            slots[0] = myGame.getColumn(col).getSlot(row - 3);
-            slots[1] = myGame.getColumn(col).getSlot(row - 2);
-            slots[2] = myGame.getColumn(col).getSlot(row - 1);
-        }
-        else if (combination.equals(HORIZONTAL_A))
-        {
-            slots[0] = myGame.getColumn(col + 1).getSlot(row);
-            slots[1] = myGame.getColumn(col + 2).getSlot(row);
-            slots[2] = myGame.getColumn(col + 3).getSlot(row);
-        }
-        else if (combination.equals(HORIZONTAL_B))
-        {
-            slots[0] = myGame.getColumn(col - 1).getSlot(row);
-            slots[1] = myGame.getColumn(col + 1).getSlot(row);
-            slots[2] = myGame.getColumn(col + 2).getSlot(row);
-        }
-        else if (combination.equals(HORIZONTAL_C))
-        {
-            slots[0] = myGame.getColumn(col - 2).getSlot(row);
-            slots[1] = myGame.getColumn(col - 1).getSlot(row);
-            slots[2] = myGame.getColumn(col + 1).getSlot(row);
-        }
-        else if (combination.equals(HORIZONTAL_D))  
-        {
-            slots[0] = myGame.getColumn(col - 3).getSlot(row);
-            slots[1] = myGame.getColumn(col - 2).getSlot(row);
-            slots[2] = myGame.getColumn(col - 1).getSlot(row);
-        } 
-        else if (combination.equals(DIAGONAL_DOWN_A))
+        int count = 0;
+        for (int k = 0; k < 4; k++)
         {
-            slots[0] = myGame.getColumn(col + 1).getSlot(row + 1);
-            slots[1] = myGame.getColumn(col + 2).getSlot(row + 2);
-            slots[2] = myGame.getColumn(col + 3).getSlot(row + 3);            
-        }
-        else if (combination.equals(DIAGONAL_DOWN_B))
-        {
-            slots[0] = myGame.getColumn(col - 1).getSlot(row - 1);
-            slots[1] = myGame.getColumn(col + 1).getSlot(row + 1);
-            slots[2] = myGame.getColumn(col + 2).getSlot(row + 2);            
-        }
-        else if (combination.equals(DIAGONAL_DOWN_C))
-        {
-            slots[0] = myGame.getColumn(col - 2).getSlot(row - 2);
-            slots[1] = myGame.getColumn(col - 1).getSlot(row - 1);
-            slots[2] = myGame.getColumn(col + 1).getSlot(row + 1);            
-        }
-        else if (combination.equals(DIAGONAL_DOWN_D))
-        {
-            slots[0] = myGame.getColumn(col - 3).getSlot(row - 3);
-            slots[1] = myGame.getColumn(col - 2).getSlot(row - 2);
-            slots[2] = myGame.getColumn(col - 1).getSlot(row - 1);            
-        }
-        else if (combination.equals(DIAGONAL_UP_A))
-        {
-            slots[0] = myGame.getColumn(col + 1).getSlot(row - 1);
-            slots[1] = myGame.getColumn(col + 2).getSlot(row - 2);
-            slots[2] = myGame.getColumn(col + 3).getSlot(row - 3);            
-        }
-        else if (combination.equals(DIAGONAL_UP_B))
-        {
-            slots[0] = myGame.getColumn(col - 1).getSlot(row + 1);
-            slots[1] = myGame.getColumn(col + 1).getSlot(row - 1);
-            slots[2] = myGame.getColumn(col + 2).getSlot(row - 2);            
-        }
-        else if (combination.equals(DIAGONAL_UP_C))
-        {
-            slots[0] = myGame.getColumn(col - 2).getSlot(row + 2);
-            slots[1] = myGame.getColumn(col - 1).getSlot(row + 1);
-            slots[2] = myGame.getColumn(col + 1).getSlot(row - 1);            
+            if (k != position)
+            {
+                int cell = lines.getCell(line, k);
+                slots[count++] = myGame.getColumn(lines.getColumn(cell)).getSlot(lines.getRow(cell));
+            }
         }
-        else if (combination.equals(DIAGONAL_UP_D))
-        {
-            slots[0] = myGame.getColumn(col - 3).getSlot(row + 3);
-            slots[1] = myGame.getColumn(col - 2).getSlot(row + 2);
-            slots[2] = myGame.getColumn(col - 1).getSlot(row + 1);            
-        }        
         return slots;
     }  
 
@@ -447,6 +425,7 @@ public abstract class Agent
      */
     private int leftToConnect(Connect4Slot[] slots, String color)
     {
+        AgentProfiler.count(AgentProfiler.LEFT_TO_CONNECT);
         int countFilled = 0; 
         int countEmpty = 0;
         int leftToConnect = 0;
@@ -467,4 +446,4 @@ public abstract class Agent
             leftToConnect = 1;
         return leftToConnect;
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
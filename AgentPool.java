@@ -0,0 +1,102 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out agents to threads that play many games, so that an agent is built once per thread
+ * instead of once per game.
+ *
+ * Every thread that asks the pool for an agent gets its own red agent and its own yellow agent,
+ * created by the factory the first time the thread asks for that colour and reused after that.
+ * An agent handed out again is rebound to the new game and reset, so it starts the game clean
+ * but keeps anything worth keeping, such as the transposition table of a SearchAgent. Agents
+ * are never shared between threads, so agents that are not thread-safe can be pooled.
+ *
+ * @param <A> The type of agent in the pool.
+ */
+public class AgentPool<A extends Agent>
+{
+    /**
+     * Creates the agents of a pool.
+     *
+     * @param <A> The type of agent created.
+     */
+    public interface Factory<A extends Agent>
+    {
+        /**
+         * Creates an agent.
+         *
+         * @param game The game the agent will be playing first.
+         * @param iAmRed True if the agent is Red, False if the agent is Yellow.
+         * @return the new agent.
+         */
+        A create(Connect4Game game, boolean iAmRed);
+    }
+
+    private final Factory<A> factory;               // builds the agents
+    private final ThreadLocal<Agent[]> agents;      // each thread's red and yellow agent
+    private final AtomicLong created = new AtomicLong();    // agents built so far
+    private final AtomicLong reused = new AtomicLong();     // agents handed out again so far
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param factory Builds an agent the first time a thread asks for one of a colour.
+     */
+    public AgentPool(Factory<A> factory)
+    {
+        this.factory = factory;
+        this.agents = ThreadLocal.withInitial(() -> new Agent[2]);
+    }
+
+    /**
+     * Returns the calling thread's agent of a colour, attached to the given game and reset.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed True for the red agent, False for the yellow agent.
+     * @return the agent.
+     */
+    @SuppressWarnings("unchecked")
+    public A acquire(Connect4Game game, boolean iAmRed)
+    {
+        Agent[] mine = agents.get();
+        int index = iAmRed ? 0 : 1;
+        if (mine[index] == null)
+        {
+            mine[index] = factory.create(game, iAmRed);
+            created.incrementAndGet();
+        }
+        else
+        {
+            mine[index].rebind(game, iAmRed);
+            reused.incrementAndGet();
+        }
+        return (A) mine[index];
+    }
+
+    /**
+     * Drops the calling thread's agents, so that the next acquire() builds new ones.
+     */
+    public void remove()
+    {
+        agents.remove();
+    }
+
+    /**
+     * Get the number of agents the pool has built.
+     *
+     * @return the number of agents created.
+     */
+    public long getCreated()
+    {
+        return created.get();
+    }
+
+    /**
+     * Get the number of times an existing agent was handed out again.
+     *
+     * @return the number of reuses.
+     */
+    public long getReused()
+    {
+        return reused.get();
+    }
+}
@@ -0,0 +1,294 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Reports how often the helper methods of Agent are called, and how long the outer ones take,
+ * as Java Flight Recorder events, so that real games and tournaments can be profiled without
+ * changing or slowing down the agents.
+ *
+ * Two events are defined:
+ * <ul>
+ * <li>connect4.AgentHelper, one per call of worthMoving, randomMove or canMoveOnEmpty, with the
+ * time taken, the agent, the arguments, the result and the stack trace. The stack trace shows
+ * the line of the caller, so, for example, MyAgent's second call to worthMoving with the same
+ * arguments in the argument of moveOnColumn shows up as a separate line from the first call in
+ * the condition;</li>
+ * <li>connect4.AgentHelperCounts, every second, with the number of calls to each helper since the
+ * last one, including the inner helpers worthMovingOn, getCombosToCheck, getSlotsToCheck and
+ * leftToConnect, which are called too often and are too short to time one by one.</li>
+ * </ul>
+ * Both are on by default whenever a recording is running, for example with
+ * -XX:StartFlightRecording:filename=game.jfr, or after jcmd &lt;pid&gt; JFR.start.
+ *
+ * When no recording is running, the helpers pay for a read of a static field to skip counting,
+ * and for a timed event that the JIT compiler removes, so the agents run at full speed. The counts
+ * event is not registered with the flight recorder until the recorder starts.
+ */
+public class AgentProfiler
+{
+    /** The helper index of Agent.worthMoving. */
+    public static final int WORTH_MOVING = 0;
+    /** The helper index of Agent.worthMovingOn. */
+    public static final int WORTH_MOVING_ON = 1;
+    /** The helper index of Agent.getCombosToCheck. */
+    public static final int COMBOS_TO_CHECK = 2;
+    /** The helper index of Agent.getSlotsToCheck. */
+    public static final int SLOTS_TO_CHECK = 3;
+    /** The helper index of Agent.leftToConnect. */
+    public static final int LEFT_TO_CONNECT = 4;
+    /** The helper index of Agent.randomMove. */
+    public static final int RANDOM_MOVE = 5;
+    /** The helper index of Agent.canMoveOnEmpty. */
+    public static final int MOVE_ON_EMPTY = 6;
+    /** The number of helpers. */
+    public static final int HELPER_COUNT = 7;
+
+    private static final String[] NAMES = {"worthMoving", "worthMovingOn", "getCombosToCheck",
+        "getSlotsToCheck", "leftToConnect", "randomMove", "canMoveOnEmpty"};
+    private static final LongAdder[] COUNTS = new LongAdder[HELPER_COUNT];  // calls since the last counts event
+
+    private static volatile boolean counting;   // whether a running recording wants the counts
+
+    static
+    {
+        for (int i = 0; i < HELPER_COUNT; i++)
+        {
+            COUNTS[i] = new LongAdder();
+        }
+        FlightRecorder.addListener(new FlightRecorderListener()
+            {
+                public void recorderInitialized(FlightRecorder recorder)
+                {
+                    FlightRecorder.addPeriodicEvent(HelperCountsEvent.class, AgentProfiler::emitCounts);
+                    // a recording may already be running, if it was started with the JVM
+                    counting = EventType.getEventType(HelperCountsEvent.class).isEnabled();
+                }
+
+                public void recordingStateChanged(Recording recording)
+                {
+                    counting = EventType.getEventType(HelperCountsEvent.class).isEnabled();
+                }
+            });
+    }
+
+    /**
+     * One call of an outer helper method of Agent.
+     */
+    @Name("connect4.AgentHelper")
+    @Label("Agent Helper")
+    @Description("A call of one of the helper methods of Agent")
+    @Category({"Connect 4", "Agent"})
+    @StackTrace(true)
+    static class HelperEvent extends Event
+    {
+        @Label("Helper")
+        String helper;
+
+        @Label("Agent")
+        String agent;
+
+        @Label("Color")
+        @Description("The color asked about, or null if the helper takes none")
+        String color;
+
+        @Label("Threshold")
+        @Description("The moves left to connect asked about, or 0 if the helper takes none")
+        int threshold;
+
+        @Label("Result")
+        @Description("The column returned, or -1 for none")
+        int result;
+
+        /**
+         * Fills in the event and commits it, if the recording wants it.
+         */
+        void end(int helper, Agent agent, String color, int threshold, int result)
+        {
+            if (shouldCommit())
+            {
+                this.helper = NAMES[helper];
+                this.agent = agent.toString();
+                this.color = color;
+                this.threshold = threshold;
+                this.result = result;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * The calls of every helper method of Agent over a period.
+     */
+    @Name("connect4.AgentHelperCounts")
+    @Label("Agent Helper Counts")
+    @Description("The calls of each helper method of Agent since the last event")
+    @Category({"Connect 4", "Agent"})
+    @Period("1 s")
+    @StackTrace(false)
+    static class HelperCountsEvent extends Event
+    {
+        @Label("worthMoving")
+        long worthMoving;
+
+        @Label("worthMovingOn")
+        long worthMovingOn;
+
+        @Label("getCombosToCheck")
+        long combosToCheck;
+
+        @Label("getSlotsToCheck")
+        long slotsToCheck;
+
+        @Label("leftToConnect")
+        long leftToConnect;
+
+        @Label("randomMove")
+        long randomMove;
+
+        @Label("canMoveOnEmpty")
+        long moveOnEmpty;
+    }
+
+    private AgentProfiler()
+    {
+    }
+
+    /**
+     * Counts a call of a helper, if a recording wants the counts.
+     *
+     * @param helper The index of the helper, WORTH_MOVING and so on.
+     */
+    static void count(int helper)
+    {
+        if (counting)
+        {
+            COUNTS[helper].increment();
+        }
+    }
+
+    /**
+     * Starts the timed event of a call of an outer helper, and counts the call.
+     *
+     * @param helper The index of the helper.
+     * @return the event to end when the helper returns.
+     */
+    static HelperEvent begin(int helper)
+    {
+        count(helper);
+        HelperEvent event = new HelperEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commits the counts since the last time, from the flight recorder's periodic thread.
+     */
+    private static void emitCounts()
+    {
+        HelperCountsEvent event = new HelperCountsEvent();
+        event.worthMoving = COUNTS[WORTH_MOVING].sumThenReset();
+        event.worthMovingOn = COUNTS[WORTH_MOVING_ON].sumThenReset();
+        event.combosToCheck = COUNTS[COMBOS_TO_CHECK].sumThenReset();
+        event.slotsToCheck = COUNTS[SLOTS_TO_CHECK].sumThenReset();
+        event.leftToConnect = COUNTS[LEFT_TO_CONNECT].sumThenReset();
+        event.randomMove = COUNTS[RANDOM_MOVE].sumThenReset();
+        event.moveOnEmpty = COUNTS[MOVE_ON_EMPTY].sumThenReset();
+        event.commit();
+    }
+
+    /**
+     * Plays games between two agents, first without a recording and then with one, and prints
+     * the games per second of each and what the recording saw. The counts miss the calls after
+     * the last periodic event.
+     *
+     * Usage: java AgentProfiler [games] [redAgent] [yellowAgent]
+     *
+     * @param args The number of games (default 2000) and the short names of the two agents
+     * (default my and intermediate).
+     * @throws IOException if the recording cannot be written or read.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Connect4Game game = new Connect4Game(7, 6);
+        Match match = new Match(game, Match.createAgent(args.length > 1 ? args[1] : "my", game, true),
+            Match.createAgent(args.length > 2 ? args[2] : "intermediate", game, false));
+        playGames(match, games);    // warms up the JIT compiler
+        System.out.printf("Without a recording: %.0f games/s%n", playGames(match, games));
+        Path file = Files.createTempFile("agent-profile", ".jfr");
+        double rate;
+        try (Recording recording = new Recording())
+        {
+            recording.enable(HelperEvent.class);
+            recording.enable(HelperCountsEvent.class).withPeriod(Duration.ofMillis(100));
+            recording.start();
+            playGames(match, games);    // the JIT compiler starts again on the recorded code
+            rate = playGames(match, games);
+            recording.stop();
+            recording.dump(file);
+        }
+        System.out.printf("With a recording:    %.0f games/s%n", rate);
+        Map<String, long[]> calls = new TreeMap<>();    // calls and total nanoseconds of each outer helper
+        long[] counts = new long[HELPER_COUNT];
+        for (RecordedEvent event : RecordingFile.readAllEvents(file))
+        {
+            if (event.getEventType().getName().equals("connect4.AgentHelper"))
+            {
+                long[] total = calls.computeIfAbsent(event.getString("helper"), k -> new long[2]);
+                total[0]++;
+                total[1] += event.getDuration().toNanos();
+            }
+            else if (event.getEventType().getName().equals("connect4.AgentHelperCounts"))
+            {
+                counts[WORTH_MOVING] += event.getLong("worthMoving");
+                counts[WORTH_MOVING_ON] += event.getLong("worthMovingOn");
+                counts[COMBOS_TO_CHECK] += event.getLong("combosToCheck");
+                counts[SLOTS_TO_CHECK] += event.getLong("slotsToCheck");
+                counts[LEFT_TO_CONNECT] += event.getLong("leftToConnect");
+                counts[RANDOM_MOVE] += event.getLong("randomMove");
+                counts[MOVE_ON_EMPTY] += event.getLong("moveOnEmpty");
+            }
+        }
+        Files.delete(file);
+        for (Map.Entry<String, long[]> entry : calls.entrySet())
+        {
+            long[] total = entry.getValue();
+            System.out.printf("%-16s %10d events %8.0f ns/call%n", entry.getKey(), total[0], (double) total[1] / total[0]);
+        }
+        for (int i = 0; i < HELPER_COUNT; i++)
+        {
+            System.out.printf("%-16s %10d calls %9.1f per game%n", NAMES[i], counts[i], (double) counts[i] / (2 * games));
+        }
+    }
+
+    /**
+     * Plays a number of games and returns the games per second.
+     */
+    private static double playGames(Match match, int games)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < games; i++)
+        {
+            match.play();
+        }
+        return games / ((System.nanoTime() - start) / 1e9);
+    }
+}
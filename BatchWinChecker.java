@@ -0,0 +1,283 @@
+import java.util.Random;
+
+/**
+ * Checks many boards for a winner at once.
+ *
+ * Boards are passed as two arrays of longs, the red tokens and the yellow tokens of each board,
+ * in the BitBoard layout: each column takes getRowCount() + 1 bits from the bottom row up. A
+ * line of four is found with two shifts and two ANDs per direction, the same test as
+ * BitBoard.connected, so a board costs a handful of instructions instead of the nested loops of
+ * Connect4Game.gameWon.
+ *
+ * The results come back as two bitsets, one bit per board for each player, so that a batch of
+ * millions of boards is summarised in a few kilobytes and the vector checker can write the
+ * result of several boards with one store.
+ *
+ * This class checks the boards one at a time. create() returns a VectorWinChecker instead when
+ * it has been compiled and the jdk.incubator.vector module is present, which checks as many
+ * boards per instruction as the CPU has long lanes. Both give the same results.
+ *
+ * VectorWinChecker lives in its own source directory, vector/, so that the rest of the project
+ * still compiles with a plain javac *.java. It is built in a second step, against the classes
+ * of the first:
+ * <pre>
+ * javac -d classes *.java
+ * javac --add-modules jdk.incubator.vector -cp classes -d classes vector/*.java
+ * java --add-modules jdk.incubator.vector -cp classes BatchWinChecker
+ * </pre>
+ * Without the second step create() falls back to the scalar checker.
+ */
+public class BatchWinChecker
+{
+    protected final int columns;    // the number of columns of the boards
+    protected final int rows;       // the number of rows of the boards
+    protected final int height;     // bits per column
+
+    /**
+     * Creates a scalar checker for boards of the given size.
+     *
+     * @param columns The number of columns of the boards.
+     * @param rows The number of rows of the boards.
+     */
+    public BatchWinChecker(int columns, int rows)
+    {
+        if (columns < 1 || rows < 1 || columns * (rows + 1) > 64)
+        {
+            throw new IllegalArgumentException("A " + columns + "x" + rows + " board does not fit in a bitboard.");
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.height = rows + 1;
+    }
+
+    /**
+     * Creates the fastest checker available: a VectorWinChecker if the Vector API can be
+     * loaded, and a scalar checker otherwise.
+     *
+     * @param columns The number of columns of the boards.
+     * @param rows The number of rows of the boards.
+     * @return the checker.
+     */
+    public static BatchWinChecker create(int columns, int rows)
+    {
+        try
+        {
+            // loaded by name so that this class still loads when the module is missing
+            return (BatchWinChecker) Class.forName("VectorWinChecker").getConstructor(int.class, int.class)
+                .newInstance(columns, rows);
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            return new BatchWinChecker(columns, rows);
+        }
+    }
+
+    /**
+     * Check whether this checker uses the Vector API.
+     *
+     * @return true if boards are checked several at a time.
+     */
+    public boolean isVectorized()
+    {
+        return false;
+    }
+
+    /**
+     * Checks a batch of boards for a winner.
+     *
+     * @param red The red tokens of each board.
+     * @param yellow The yellow tokens of each board.
+     * @param count The number of boards to check, from index 0.
+     * @param redWins Receives bit i % 64 of word i / 64 set when red has four in a row on
+     * board i; needs (count + 63) / 64 words.
+     * @param yellowWins The same for yellow.
+     * @return the number of boards with a winner.
+     */
+    public int check(long[] red, long[] yellow, int count, long[] redWins, long[] yellowWins)
+    {
+        clear(redWins, yellowWins, count);
+        return checkRange(red, yellow, 0, count, redWins, yellowWins);
+    }
+
+    /**
+     * Clears the result words used by a batch.
+     */
+    protected static void clear(long[] redWins, long[] yellowWins, int count)
+    {
+        for (int i = 0; i < (count + 63) >>> 6; i++)
+        {
+            redWins[i] = 0;
+            yellowWins[i] = 0;
+        }
+    }
+
+    /**
+     * Checks boards one at a time, setting bits in result words that are already cleared.
+     *
+     * @return the number of boards with a winner.
+     */
+    protected int checkRange(long[] red, long[] yellow, int from, int to, long[] redWins, long[] yellowWins)
+    {
+        int won = 0;
+        for (int i = from; i < to; i++)
+        {
+            long redBit = connected(red[i]) ? 1L : 0L;
+            long yellowBit = connected(yellow[i]) ? 1L : 0L;
+            redWins[i >>> 6] |= redBit << i;
+            yellowWins[i >>> 6] |= yellowBit << i;
+            won += (int) (redBit | yellowBit);
+        }
+        return won;
+    }
+
+    /**
+     * Returns the winner of board i of a checked batch.
+     *
+     * @param redWins The red results of the batch.
+     * @param yellowWins The yellow results of the batch.
+     * @param i The board.
+     * @return 'R' if red has four in a row, 'Y' if yellow has, 'N' if neither has.
+     */
+    public static char winnerOf(long[] redWins, long[] yellowWins, int i)
+    {
+        if ((redWins[i >>> 6] >>> i & 1) != 0)
+        {
+            return 'R';
+        }
+        return (yellowWins[i >>> 6] >>> i & 1) != 0 ? 'Y' : 'N';
+    }
+
+    /**
+     * Checks one board for a winner.
+     *
+     * @param red The red tokens.
+     * @param yellow The yellow tokens.
+     * @return 'R' if red has four in a row, 'Y' if yellow has, 'N' if neither has.
+     */
+    public char winner(long red, long yellow)
+    {
+        if (connected(red))
+        {
+            return 'R';
+        }
+        return connected(yellow) ? 'Y' : 'N';
+    }
+
+    /**
+     * Check whether a set of tokens contains four in a row in any direction.
+     */
+    private boolean connected(long tokens)
+    {
+        // no early exit: about half the boards of a batch may be won, and a branch per
+        // direction costs more than the shifts it saves
+        return (aligned(tokens, 1) | aligned(tokens, height) | aligned(tokens, height - 1) | aligned(tokens, height + 1)) != 0;
+    }
+
+    /**
+     * Returns the first slot of every line of four tokens along one direction.
+     */
+    private static long aligned(long tokens, int shift)
+    {
+        long pairs = tokens & (tokens >>> shift);
+        return pairs & (pairs >>> (2 * shift));
+    }
+
+    /**
+     * Stores the red and yellow tokens of a board in the packed arrays.
+     *
+     * @param board The board.
+     * @param red The red tokens of each board.
+     * @param yellow The yellow tokens of each board.
+     * @param index Where to store the board.
+     */
+    public static void pack(BitBoard board, long[] red, long[] yellow, int index)
+    {
+        red[index] = board.isRedToMove() ? board.getCurrent() : board.getOpponent();
+        yellow[index] = board.isRedToMove() ? board.getOpponent() : board.getCurrent();
+    }
+
+    /**
+     * Compares the batch checkers with Connect4Game.gameWon on random 7x6 positions.
+     *
+     * Usage: java --add-modules jdk.incubator.vector BatchWinChecker [boards], after building
+     * vector/ as described above; otherwise only the scalar checker is compared.
+     *
+     * @param args The number of boards to check (default 1000000).
+     */
+    public static void main(String[] args)
+    {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        long[] red = new long[count];
+        long[] yellow = new long[count];
+        Random random = new Random(1);
+        BitBoard board = new BitBoard(7, 6);
+        for (int i = 0; i < count; i++)
+        {
+            // play random moves up to and including a win, and stop at a random length
+            board.set(0, 0, random.nextBoolean());
+            int length = random.nextInt(43);
+            while (board.getMoveCount() < length && !board.lastMoveWon())
+            {
+                board.play(board.randomMove(random));
+            }
+            pack(board, red, yellow, i);
+        }
+
+        // Connect4Game is far slower, so it only gets a sample of the boards
+        int sample = Math.min(count, 100000);
+        Connect4Game[] games = new Connect4Game[sample];
+        for (int i = 0; i < sample; i++)
+        {
+            games[i] = new Connect4Game(7, 6);
+            for (int col = 0; col < 7; col++)
+            {
+                for (int row = 0; row < 6; row++)
+                {
+                    long bit = board.bit(col, row);
+                    if ((red[i] & bit) != 0)
+                    {
+                        games[i].getColumn(col).getSlot(row).addRed();
+                    }
+                    else if ((yellow[i] & bit) != 0)
+                    {
+                        games[i].getColumn(col).getSlot(row).addYellow();
+                    }
+                }
+            }
+        }
+        char[] expected = new char[sample];
+        long start = System.nanoTime();
+        for (int i = 0; i < sample; i++)
+        {
+            expected[i] = games[i].gameWon();
+        }
+        double gameWonNanos = (double) (System.nanoTime() - start) / sample;
+        System.out.printf("Connect4Game.gameWon: %.1f ns per board%n", gameWonNanos);
+
+        BatchWinChecker[] checkers = {new BatchWinChecker(7, 6), create(7, 6)};
+        long[] redWins = new long[(count + 63) / 64];
+        long[] yellowWins = new long[redWins.length];
+        for (BatchWinChecker checker : checkers)
+        {
+            int won = 0;
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < 50; run++)
+            {
+                start = System.nanoTime();
+                won = checker.check(red, yellow, count, redWins, yellowWins);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            int mismatches = 0;
+            for (int i = 0; i < sample; i++)
+            {
+                if (winnerOf(redWins, yellowWins, i) != expected[i])
+                {
+                    mismatches++;
+                }
+            }
+            System.out.printf("%s: %.2f ns per board, %d of %d won, %d mismatches with gameWon%n",
+                checker.isVectorized() ? "VectorWinChecker" : "BatchWinChecker (scalar)",
+                (double) best / count, won, count, mismatches);
+        }
+    }
+}
@@ -0,0 +1,556 @@
+import java.util.Random;
+
+/**
+ * A compact bitboard form of a Connect 4 position, used by the search and analysis code.
+ *
+ * Each column takes getRowCount() + 1 bits, starting from the bottom row, with one spare bit
+ * on top so that moves and lines never carry into the next column. The position itself is two
+ * longs: the tokens of the player to move and a mask of every occupied slot. Because tokens are
+ * stored relative to the player to move, the key of a position does not depend on which colour
+ * holds which tokens, which is exactly what caches, books and datasets want.
+ *
+ * Connect 4 is symmetric about the middle column, so a position and its horizontal mirror have
+ * the same value. Every cache should be keyed by canonicalKey(), which picks the lesser of the
+ * two keys, so that mirrored positions share one entry.
+ *
+ * The board also keeps a bitmask of the columns that are not full, updated by play() and
+ * undo(), so that generating moves or picking a uniformly random legal move never has to scan
+ * the columns or retry.
+ *
+ * A board fits as long as getColumnCount() * (getRowCount() + 1) is at most 64; the standard
+ * 7x6 board uses 49 bits.
+ */
+public class BitBoard
+{
+    private final int columns;      // the number of columns on the board
+    private final int rows;         // the number of rows on the board
+    private final int height;       // bits used per column: rows plus the spare bit on top
+    private final long bottomMask;  // the bottom bit of every column
+    private final long boardMask;   // every playable bit of every column
+    private long current;   // tokens of the player to move
+    private long mask;      // every occupied slot
+    private int moves;      // the number of tokens on the board
+    private boolean redToMove;  // whether red is the player to move
+    private int legal;      // bit i is set when column i is not full
+
+    /**
+     * Creates an empty board of the given size with red to move.
+     *
+     * @param numCols The number of columns on the board.
+     * @param numRows The number of rows on the board.
+     */
+    public BitBoard(int numCols, int numRows)
+    {
+        if (numCols < 1 || numRows < 1 || numCols * (numRows + 1) > 64)
+        {
+            throw new IllegalArgumentException("A " + numCols + "x" + numRows + " board does not fit in a bitboard.");
+        }
+        this.columns = numCols;
+        this.rows = numRows;
+        this.height = numRows + 1;
+        long bottom = 0;
+        for (int i = 0; i < numCols; i++)
+        {
+            bottom |= 1L << (i * height);
+        }
+        this.bottomMask = bottom;
+        this.boardMask = bottom * ((1L << numRows) - 1);
+        this.redToMove = true;
+        this.legal = (int) ((1L << numCols) - 1);
+    }
+
+    /**
+     * Copies an existing board.
+     *
+     * @param board The board to copy.
+     */
+    public BitBoard(BitBoard board)
+    {
+        this.columns = board.columns;
+        this.rows = board.rows;
+        this.height = board.height;
+        this.bottomMask = board.bottomMask;
+        this.boardMask = board.boardMask;
+        this.current = board.current;
+        this.mask = board.mask;
+        this.moves = board.moves;
+        this.redToMove = board.redToMove;
+        this.legal = board.legal;
+    }
+
+    /**
+     * Creates the bitboard form of a game. The player to move is worked out from the token
+     * counts and, when they are equal, from which player went first.
+     *
+     * @param game The game to convert.
+     */
+    public BitBoard(Connect4Game game)
+    {
+        this(game.getColumnCount(), game.getRowCount());
+        load(game);
+    }
+
+    /**
+     * Replaces the position on this board with the position of a game of the same size.
+     *
+     * @param game The game to read.
+     */
+    public void load(Connect4Game game)
+    {
+        long red = 0, yellow = 0;
+        int redCount = 0, yellowCount = 0;
+        for (int i = 0; i < columns; i++)
+        {
+            Connect4Column column = game.getColumn(i);
+            for (int j = 0; j < rows; j++)
+            {
+                Connect4Slot slot = column.getSlot(j);
+                if (slot.getIsFilled())
+                {
+                    long bit = bit(i, j);
+                    if (slot.getIsRed())
+                    {
+                        red |= bit;
+                        redCount++;
+                    }
+                    else
+                    {
+                        yellow |= bit;
+                        yellowCount++;
+                    }
+                }
+            }
+        }
+        if (redCount == yellowCount)
+        {
+            redToMove = game.getRedPlayedFirst();
+        }
+        else
+        {
+            redToMove = redCount < yellowCount;
+        }
+        mask = red | yellow;
+        current = redToMove ? red : yellow;
+        moves = redCount + yellowCount;
+        legal = computeLegalMoves();
+    }
+
+    /**
+     * Writes the position on this board onto a game of the same size, replacing every token
+     * on it. Whether red played first is left as it is on the game.
+     *
+     * @param game The game to write to.
+     */
+    public void store(Connect4Game game)
+    {
+        game.clearBoard();
+        long red = redToMove ? current : current ^ mask;
+        for (int i = 0; i < columns; i++)
+        {
+            Connect4Column column = game.getColumn(i);
+            for (int j = 0; j < rows; j++)
+            {
+                long bit = bit(i, j);
+                if ((mask & bit) != 0)
+                {
+                    if ((red & bit) != 0)
+                    {
+                        column.getSlot(j).addRed();
+                    }
+                    else
+                    {
+                        column.getSlot(j).addYellow();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the position on this board with the given tokens.
+     *
+     * @param current The tokens of the player to move.
+     * @param mask Every occupied slot; it must be filled from the bottom of each column.
+     * @param redToMove Whether red is the player to move.
+     */
+    public void set(long current, long mask, boolean redToMove)
+    {
+        this.current = current;
+        this.mask = mask;
+        this.moves = Long.bitCount(mask);
+        this.redToMove = redToMove;
+        this.legal = computeLegalMoves();
+    }
+
+    /**
+     * Returns the bit of a slot, using the same row numbering as Connect4Column (row 0 is
+     * the top of the column).
+     *
+     * @param col The column of the slot.
+     * @param row The row of the slot, counted from the top.
+     * @return the bit representing that slot.
+     */
+    public long bit(int col, int row)
+    {
+        return 1L << (col * height + (rows - 1 - row));
+    }
+
+    /**
+     * Get the number of columns on the board.
+     *
+     * @return the number of columns.
+     */
+    public int getColumnCount()
+    {
+        return columns;
+    }
+
+    /**
+     * Get the number of rows on the board.
+     *
+     * @return the number of rows.
+     */
+    public int getRowCount()
+    {
+        return rows;
+    }
+
+    /**
+     * Get the number of tokens played so far.
+     *
+     * @return the number of tokens on the board.
+     */
+    public int getMoveCount()
+    {
+        return moves;
+    }
+
+    /**
+     * Check whether red is the player to move.
+     *
+     * @return true if red moves next, false if yellow does.
+     */
+    public boolean isRedToMove()
+    {
+        return redToMove;
+    }
+
+    /**
+     * Get the tokens of the player to move.
+     *
+     * @return the bitboard of the player to move.
+     */
+    public long getCurrent()
+    {
+        return current;
+    }
+
+    /**
+     * Get the tokens of the player who moved last.
+     *
+     * @return the bitboard of the opponent of the player to move.
+     */
+    public long getOpponent()
+    {
+        return current ^ mask;
+    }
+
+    /**
+     * Get every occupied slot.
+     *
+     * @return the bitboard of all tokens.
+     */
+    public long getMask()
+    {
+        return mask;
+    }
+
+    /**
+     * Get the bottom bit of every column.
+     *
+     * @return the bottom row mask.
+     */
+    public long getBottomMask()
+    {
+        return bottomMask;
+    }
+
+    /**
+     * Get every playable bit of the board, leaving out the spare bit on top of each column.
+     *
+     * @return the mask of the whole board.
+     */
+    public long getBoardMask()
+    {
+        return boardMask;
+    }
+
+    /**
+     * Get the columns that are not full.
+     *
+     * @return a mask with bit i set when column i can be played.
+     */
+    public int legalMoves()
+    {
+        return legal;
+    }
+
+    /**
+     * Picks a column uniformly at random from the columns that are not full.
+     *
+     * @param random The random number generator to draw from.
+     * @return the column; -1 if the board is full.
+     */
+    public int randomMove(Random random)
+    {
+        if (legal == 0)
+        {
+            return -1;
+        }
+        return nthSetBit(legal, random.nextInt(Integer.bitCount(legal)));
+    }
+
+    /**
+     * Returns the position of the nth lowest set bit of a mask.
+     *
+     * @param bits The mask.
+     * @param n Which set bit to find, from 0 for the lowest; less than Integer.bitCount(bits).
+     * @return the bit position.
+     */
+    public static int nthSetBit(int bits, int n)
+    {
+        for (int i = 0; i < n; i++)
+        {
+            bits &= bits - 1;
+        }
+        return Integer.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Returns the bits used by one column.
+     *
+     * @param col The column.
+     * @return the mask of every playable slot in the column.
+     */
+    public long columnMask(int col)
+    {
+        return ((1L << rows) - 1) << (col * height);
+    }
+
+    /**
+     * Check whether a token can be dropped into a column.
+     *
+     * @param col The column to check.
+     * @return true if the column exists and is not full, false otherwise.
+     */
+    public boolean canPlay(int col)
+    {
+        return col >= 0 && col < columns && (legal & (1 << col)) != 0;
+    }
+
+    /**
+     * Drops a token of the player to move into a column and passes the turn. The column must
+     * be playable.
+     *
+     * @param col The column to play.
+     */
+    public void play(int col)
+    {
+        current ^= mask;
+        mask |= mask + bottomMask(col);
+        moves++;
+        redToMove = !redToMove;
+        if ((mask & topMask(col)) != 0)
+        {
+            legal &= ~(1 << col);
+        }
+    }
+
+    /**
+     * Takes back the top token of a column and passes the turn back. The column must hold the
+     * token of the last move.
+     *
+     * @param col The column to take back.
+     */
+    public void undo(int col)
+    {
+        long top = Long.highestOneBit(mask & columnMask(col));
+        mask ^= top;
+        current ^= mask;
+        moves--;
+        redToMove = !redToMove;
+        legal |= 1 << col;
+    }
+
+    /**
+     * Check whether playing a column would win the game for the player to move.
+     *
+     * @param col The column to check, which must be playable.
+     * @return true if the move connects four.
+     */
+    public boolean isWinningMove(int col)
+    {
+        long after = current | ((mask + bottomMask(col)) & columnMask(col));
+        return connected(after);
+    }
+
+    /**
+     * Check whether the player who moved last has connected four.
+     *
+     * @return true if the last move won the game.
+     */
+    public boolean lastMoveWon()
+    {
+        return connected(current ^ mask);
+    }
+
+    /**
+     * Check whether every slot is filled.
+     *
+     * @return true if the board is full.
+     */
+    public boolean isFull()
+    {
+        return moves == columns * rows;
+    }
+
+    /**
+     * Check whether a set of tokens contains four in a row in any direction.
+     *
+     * @param tokens The tokens of one player.
+     * @return true if four of them are connected.
+     */
+    public boolean connected(long tokens)
+    {
+        return aligned(tokens, 1) || aligned(tokens, height) || aligned(tokens, height - 1) || aligned(tokens, height + 1);
+    }
+
+    /**
+     * Check for four tokens in a row along one direction, given as the bit distance between
+     * neighbouring slots.
+     */
+    private static boolean aligned(long tokens, int shift)
+    {
+        long pairs = tokens & (tokens >>> shift);
+        return (pairs & (pairs >>> (2 * shift))) != 0;
+    }
+
+    /**
+     * Returns a key that uniquely identifies this position from the point of view of the
+     * player to move. The key is the tokens of the player to move plus a marker bit just above
+     * the top token of each column.
+     *
+     * @return the position key.
+     */
+    public long key()
+    {
+        return current + mask + bottomMask;
+    }
+
+    /**
+     * Returns the key of the horizontal mirror of this position.
+     *
+     * @return the mirrored position key.
+     */
+    public long mirrorKey()
+    {
+        return mirror(key());
+    }
+
+    /**
+     * Returns the lesser of the key of this position and the key of its mirror, so that a
+     * position and its mirror share a single entry in any cache, book or dataset.
+     *
+     * @return the canonical position key.
+     */
+    public long canonicalKey()
+    {
+        long key = key();
+        long mirrored = mirror(key);
+        return Long.compareUnsigned(key, mirrored) <= 0 ? key : mirrored;
+    }
+
+    /**
+     * Check whether canonicalKey() is the key of the mirrored position. Moves stored against a
+     * canonical key have to be passed through mirrorColumn() when this is true.
+     *
+     * @return true if the canonical key is the mirror's key.
+     */
+    public boolean isCanonicalMirrored()
+    {
+        long key = key();
+        return Long.compareUnsigned(mirror(key), key) < 0;
+    }
+
+    /**
+     * Reverses the order of the columns in a bitboard or key built for this board size.
+     *
+     * @param bits The bits to mirror.
+     * @return the mirrored bits.
+     */
+    public long mirror(long bits)
+    {
+        long columnBits = (1L << height) - 1;
+        long mirrored = 0;
+        for (int i = 0; i < columns; i++)
+        {
+            mirrored |= ((bits >>> (i * height)) & columnBits) << ((columns - 1 - i) * height);
+        }
+        return mirrored;
+    }
+
+    /**
+     * Returns the column that a column maps to under the horizontal mirror.
+     *
+     * @param col The column to mirror.
+     * @return the mirrored column.
+     */
+    public int mirrorColumn(int col)
+    {
+        return columns - 1 - col;
+    }
+
+    /**
+     * Check whether two boards hold the same position with the same player to move.
+     *
+     * @param other The board to compare with.
+     * @return true if the positions are identical.
+     */
+    public boolean samePosition(BitBoard other)
+    {
+        return other != null && other.columns == columns && other.rows == rows && other.current == current
+            && other.mask == mask && other.redToMove == redToMove;
+    }
+
+    /**
+     * Works out which columns are not full from the mask.
+     */
+    private int computeLegalMoves()
+    {
+        int result = 0;
+        for (int i = 0; i < columns; i++)
+        {
+            if ((mask & topMask(i)) == 0)
+            {
+                result |= 1 << i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the bottom bit of a column.
+     */
+    long bottomMask(int col)
+    {
+        return 1L << (col * height);
+    }
+
+    /**
+     * Returns the top playable bit of a column.
+     */
+    long topMask(int col)
+    {
+        return 1L << (rows - 1 + col * height);
+    }
+}
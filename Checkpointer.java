@@ -0,0 +1,243 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * Saves the state of a long-running job to a file now and then, so that the job can pick up
+ * where it left off after a crash.
+ *
+ * The job copies its state into a buffer and hands it to submit(), which returns at once; a
+ * background thread writes the buffer to a temporary file, forces it to disk and renames it over
+ * the checkpoint, so the checkpoint file is always either the old state or the new one, never
+ * half of each. If the job submits again before the last write has started, only the newest
+ * state is written. A checksum in the header catches a file damaged some other way.
+ *
+ * File layout (big-endian): magic, version, payload length and the CRC-32 of the payload as
+ * ints, then the payload.
+ */
+public class Checkpointer implements Closeable
+{
+    static final int MAGIC = 0x43344350;    // "C4CP"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4 * 4;
+
+    /**
+     * The default time between checkpoints, in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 60000;
+
+    private final Path file;        // the checkpoint
+    private final Path temp;        // where the next checkpoint is written before the rename
+    private final ExecutorService writer;   // writes checkpoints in the background
+    private final AtomicReference<ByteBuffer> pending = new AtomicReference<>();    // the newest unwritten state
+    private volatile IOException failure;   // the first write that failed, or null
+    private volatile long written;  // the number of checkpoints written
+    private long interval;          // milliseconds between checkpoints
+    private long lastSubmit;        // System.nanoTime() of the last submit()
+
+    /**
+     * Creates a checkpointer for a file. Nothing is written until the first submit().
+     *
+     * @param file The checkpoint file.
+     */
+    public Checkpointer(Path file)
+    {
+        this.file = file;
+        this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "checkpoint-" + file.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.interval = DEFAULT_INTERVAL_MILLIS;
+        this.lastSubmit = System.nanoTime();
+    }
+
+    /**
+     * Sets how often isDue() asks for a checkpoint.
+     *
+     * @param millis The time between checkpoints in milliseconds.
+     */
+    public void setInterval(long millis)
+    {
+        this.interval = millis;
+    }
+
+    /**
+     * Check whether it is time for another checkpoint. This is cheap enough to call after
+     * every unit of work.
+     *
+     * @return true if the interval has passed since the last submit().
+     */
+    public boolean isDue()
+    {
+        return System.nanoTime() - lastSubmit >= interval * 1000000;
+    }
+
+    /**
+     * Get the number of checkpoints written so far.
+     *
+     * @return the number of completed writes.
+     */
+    public long getWritten()
+    {
+        return written;
+    }
+
+    /**
+     * Reads the last checkpoint.
+     *
+     * @return the saved state, or null if there is no checkpoint.
+     * @throws IOException if the checkpoint cannot be read or is damaged.
+     */
+    public ByteBuffer load() throws IOException
+    {
+        if (!Files.exists(file))
+        {
+            return null;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.BIG_ENDIAN);
+        if (data.remaining() < HEADER_BYTES || data.getInt() != MAGIC || data.getInt() != VERSION)
+        {
+            throw new IOException(file + " is not a version " + VERSION + " checkpoint.");
+        }
+        int length = data.getInt();
+        int checksum = data.getInt();
+        if (data.remaining() != length)
+        {
+            throw new IOException(file + " is truncated.");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        if ((int) crc.getValue() != checksum)
+        {
+            throw new IOException(file + " is damaged.");
+        }
+        return data.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Hands a state to the background thread to be written, and returns without waiting.
+     *
+     * @param state The state to save, from its position to its limit. The caller must not
+     * change it afterwards.
+     * @throws IOException if an earlier checkpoint could not be written.
+     */
+    public void submit(ByteBuffer state) throws IOException
+    {
+        rethrow();
+        lastSubmit = System.nanoTime();
+        if (pending.getAndSet(state) == null)
+        {
+            writer.execute(this::writePending);
+        }
+    }
+
+    /**
+     * Waits until every submitted state has been written.
+     *
+     * @throws IOException if a checkpoint could not be written.
+     */
+    public void await() throws IOException
+    {
+        try
+        {
+            writer.submit(() -> { }).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a checkpoint.", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("The checkpoint thread failed.", e.getCause());
+        }
+        rethrow();
+    }
+
+    /**
+     * Removes the checkpoint once the job has finished, after waiting for any write in progress.
+     *
+     * @throws IOException if the file cannot be removed.
+     */
+    public void delete() throws IOException
+    {
+        await();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(temp);
+    }
+
+    /**
+     * Waits for the last checkpoint to be written and stops the background thread.
+     *
+     * @throws IOException if a checkpoint could not be written.
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            await();
+        }
+        finally
+        {
+            writer.shutdown();
+        }
+    }
+
+    /**
+     * Writes the newest submitted state, if it has not been written already.
+     */
+    private void writePending()
+    {
+        ByteBuffer state = pending.getAndSet(null);
+        if (state == null || failure != null)
+        {
+            return;
+        }
+        try
+        {
+            CRC32 crc = new CRC32();
+            crc.update(state.duplicate());
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.BIG_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(state.remaining()).putInt((int) crc.getValue()).flip();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                while (header.hasRemaining() || state.hasRemaining())
+                {
+                    channel.write(new ByteBuffer[] {header, state});
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            written++;
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+    }
+
+    /**
+     * Throws the failure of an earlier write, if there was one.
+     */
+    private void rethrow() throws IOException
+    {
+        if (failure != null)
+        {
+            throw new IOException("Could not write the checkpoint " + file + ".", failure);
+        }
+    }
+}
@@ -15,11 +15,23 @@ public class Connect4Column
      * @param height the height of the column.
      */
     public Connect4Column(int height)
+    {
+        this(height, null);
+    }
+    /**
+     * Creates a new Connect4Column of a game with a given height.
+     * 
+     * Your agent will not need to use this method.
+     * 
+     * @param height the height of the column.
+     * @param owner the game whose version changes whenever a slot of the column changes, or null.
+     */
+    public Connect4Column(int height, Connect4Game owner)
     {
         slots = new Connect4Slot[height];
         for (int i = 0; i < height; i++)
         {
-            slots[i] = new Connect4Slot();
+            slots[i] = new Connect4Slot(owner);
         }
     }
     /**
@@ -30,11 +42,23 @@ public class Connect4Column
      * @param column the column to copy.
      */
     public Connect4Column(Connect4Column column)
+    {
+        this(column, null);
+    }
+    /**
+     * Creates a copy of the given Connect4Column in a game.
+     * 
+     * Your agent will not need to use this method.
+     * 
+     * @param column the column to copy.
+     * @param owner the game whose version changes whenever a slot of the column changes, or null.
+     */
+    public Connect4Column(Connect4Column column, Connect4Game owner)
     {
         this.slots = new Connect4Slot[column.getRowCount()];
         for (int i = 0; i < column.getRowCount(); i++)
         {
-            slots[i] = new Connect4Slot(column.getSlot(i));
+            slots[i] = new Connect4Slot(column.getSlot(i), owner);
         }
     }
     /**
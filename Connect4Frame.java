@@ -16,6 +16,9 @@ public class Connect4Frame extends JFrame
     Agent redPlayer, yellowPlayer;   // the two players playing the game
     boolean redPlayerturn, gameActive;  // booleans controlling whose turn it is and whether a game is ongoing
     JButton newGameButton, nextMoveButton, playToEndButton;   // the buttons controlling the game
+    JButton undoButton, redoButton; // the buttons stepping back and forward through the moves played
+    MoveHistory history;    // the moves of every game played in this window
+    int viewPly;    // the number of moves of the current game on the board
     JLabel updateLabel; // the status label describing the events of the game
     Random r;   // a random number generator to randomly decide who plays first
 
@@ -37,6 +40,7 @@ public class Connect4Frame extends JFrame
         this.yellowPlayer = yellowPlayer; //stores the yellow player
         gameActive = false;   // initially sets that no game is active
         r = new Random();   // creates the random number generator
+        history = new MoveHistory(game.getColumnCount(), game.getRowCount());  // creates the empty move history
 
         myPanel = new Connect4Panel(game);  // creates the panel for displaying the game
 
@@ -69,6 +73,26 @@ public class Connect4Frame extends JFrame
                 }
             });
 
+        undoButton = new JButton("Undo");   // creates the button for taking back a move
+        undoButton.setEnabled(false);   // disables the button until a move is played
+        undoButton.setAlignmentX(Component.CENTER_ALIGNMENT);   // centers the button
+        undoButton.addActionListener(new ActionListener() { // connects the undo button to its buttonPressed method
+                public void actionPerformed(ActionEvent e)
+                {
+                    undoButtonPressed();
+                }
+            });
+
+        redoButton = new JButton("Redo");   // creates the button for playing a taken back move again
+        redoButton.setEnabled(false);   // disables the button until a move is taken back
+        redoButton.setAlignmentX(Component.CENTER_ALIGNMENT);   // centers the button
+        redoButton.addActionListener(new ActionListener() { // connects the redo button to its buttonPressed method
+                public void actionPerformed(ActionEvent e)
+                {
+                    redoButtonPressed();
+                }
+            });
+
         updateLabel = new JLabel(redPlayer.toString() + " vs. " + yellowPlayer.toString()); // creates the status label
         updateLabel.setAlignmentX(Component.CENTER_ALIGNMENT);  // centers the status label
 
@@ -81,6 +105,10 @@ public class Connect4Frame extends JFrame
         buttonPane.add(nextMoveButton);
         buttonPane.add(Box.createRigidArea(new Dimension(10,0)));
         buttonPane.add(playToEndButton);
+        buttonPane.add(Box.createRigidArea(new Dimension(10,0)));
+        buttonPane.add(undoButton);
+        buttonPane.add(Box.createRigidArea(new Dimension(10,0)));
+        buttonPane.add(redoButton);
         buttonPane.add(Box.createHorizontalGlue());
 
         setLayout(new BoxLayout(getContentPane(),BoxLayout.Y_AXIS));    // sets the overall pane to be vertically oriented
@@ -114,6 +142,7 @@ public class Connect4Frame extends JFrame
     private void nextMove()
     {
         Connect4Game oldBoard = new Connect4Game(myGame);   // store the old board for validation
+        long moveStart = System.nanoTime(); // time the move so the first one can be reported
         if(redPlayerturn) // if it's the red player's turn, run their move
         {
             redPlayer.move();
@@ -124,6 +153,7 @@ public class Connect4Frame extends JFrame
             yellowPlayer.move();
             alert(redPlayer.toString() + " plays next...");
         }
+        WarmStart.firstMove(redPlayerturn ? redPlayer : yellowPlayer, System.nanoTime() - moveStart);
         String validateResult = oldBoard.validate(myGame); // check and make sure this is a valid next move for this board
         if(validateResult.length() > 0) // if there was a validation error, show it and cancel the game
         {
@@ -131,6 +161,16 @@ public class Connect4Frame extends JFrame
             disableButtons();   // stop the game
             gameActive = false;
         }
+        else    // record the move, dropping any moves that were taken back
+        {
+            if (viewPly < history.getLength(history.getGameCount() - 1))
+            {
+                history.truncate(viewPly);
+            }
+            history.add(Match.playedColumn(oldBoard, myGame));
+            viewPly++;
+        }
+        updateHistoryButtons();
         redPlayerturn = !redPlayerturn;   // switch whose turn it is
         char won = myGame.gameWon();    // check if the game has been won
         if (won != 'N') // if the game has been won...
@@ -176,6 +216,48 @@ public class Connect4Frame extends JFrame
             alert(yellowPlayer.toString() + " plays first!");
             myGame.setRedPlayedFirst(false);
         }
+        history.startGame(redPlayerturn);   // start recording the moves of the new game
+        viewPly = 0;
+        updateHistoryButtons();
+        this.repaint();
+    }
+
+    /**
+     * Puts the board back to a given move of the current game, so that play can go on from
+     * there. Both players are reset, as the position may not follow from their last move.
+     * 
+     * Your agent will not need to use this method.
+     * 
+     * @param ply the number of moves to show.
+     */
+    private void showPly(int ply)
+    {
+        int game = history.getGameCount() - 1;
+        viewPly = ply;
+        history.position(game, ply, myGame);   // rebuild the board from the nearest checkpoint
+        redPlayerturn = history.getRedPlayedFirst(game) == (ply % 2 == 0);
+        redPlayer.reset();
+        yellowPlayer.reset();
+        char won = myGame.gameWon();
+        if (won == 'R' || won == 'Y')   // the last move of the game was played again
+        {
+            disableButtons();
+            gameActive = false;
+            alert((won == 'R' ? redPlayer : yellowPlayer).toString() + " wins!");
+        }
+        else if (myGame.boardFull())
+        {
+            disableButtons();
+            gameActive = false;
+            alert("The game ended in a draw!");
+        }
+        else
+        {
+            enableButtons();
+            gameActive = true;
+            alert((redPlayerturn ? redPlayer : yellowPlayer).toString() + " plays next...");
+        }
+        updateHistoryButtons();
         this.repaint();
     }
 
@@ -234,6 +316,32 @@ public class Connect4Frame extends JFrame
         nextMove();
     }
 
+    /**
+     * Reacts to the undo button being pressed.
+     * 
+     * Your agent will not need to use this method.
+     */
+    public void undoButtonPressed()
+    {
+        if (viewPly > 0)
+        {
+            showPly(viewPly - 1);
+        }
+    }
+
+    /**
+     * Reacts to the redo button being pressed.
+     * 
+     * Your agent will not need to use this method.
+     */
+    public void redoButtonPressed()
+    {
+        if (viewPly < history.getLength(history.getGameCount() - 1))
+        {
+            showPly(viewPly + 1);
+        }
+    }
+
     /**
      * Reacts to the play to end button being pressed.
      * 
@@ -255,6 +363,18 @@ public class Connect4Frame extends JFrame
         playToEndButton.setEnabled(false);
     }
 
+    /**
+     * Enables the undo and redo buttons when there is a move to step over.
+     * 
+     * Your agent will not need to use this method.
+     */
+    private void updateHistoryButtons()
+    {
+        boolean started = history.getGameCount() > 0;
+        undoButton.setEnabled(started && viewPly > 0);
+        redoButton.setEnabled(started && viewPly < history.getLength(history.getGameCount() - 1));
+    }
+
     /**
      * Enables the buttons.
      * 
@@ -10,6 +10,9 @@ public class Connect4Game
 {
     private Connect4Column[] columns;
     private boolean redPlayedFirst;
+    private long version;   // counts the tokens added to and cleared from the board
+    private WinningLines lines; // the lines of four on a board of this size
+    private long legal;     // bit i set while column i has room, for the first 64 columns
 
     /**
      * Construct a new Connect 4 game with the given size.
@@ -24,8 +27,10 @@ public class Connect4Game
         columns=new Connect4Column[numCols];
         for(int i = 0; i < numCols; i++)
         {
-            columns[i] = new Connect4Column(numRows);
+            columns[i] = new Connect4Column(numRows, this);
         }
+        lines = WinningLines.forSize(numCols, numRows);
+        watchColumns();
     }
 
     /**
@@ -40,7 +45,27 @@ public class Connect4Game
         columns = new Connect4Column[game.getColumnCount()];
         for (int i = 0; i < game.getColumnCount(); i++)
         {
-            columns[i] = new Connect4Column(game.getColumn(i));
+            columns[i] = new Connect4Column(game.getColumn(i), this);
+        }
+        lines = game.lines;
+        watchColumns();
+    }
+
+    /**
+     * Has the top slot of each column report when the column fills up or has room again, and
+     * works out which columns have room now.
+     */
+    private void watchColumns()
+    {
+        legal = 0;
+        for (int i = 0; i < Math.min(columns.length, 64); i++)
+        {
+            Connect4Slot top = columns[i].getSlot(0);
+            top.setTopOf(i);
+            if (!top.getIsFilled())
+            {
+                legal |= 1L << i;
+            }
         }
     }
 
@@ -64,6 +89,67 @@ public class Connect4Game
         }
     }
 
+    /**
+     * Get the version of the board, which changes every time a token is added to or cleared
+     * from any slot, so that anything worked out from the board can be kept until it changes.
+     * 
+     * Your agent will not need to use this method.
+     * 
+     * @return the version of the board.
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Get the lines of four on the board, which are shared by every game of the same size.
+     * 
+     * Your agent may use this method to look at every line through a slot.
+     * 
+     * @return the winning-line tables of the board.
+     */
+    public WinningLines getWinningLines()
+    {
+        return lines;
+    }
+
+    /**
+     * Get the columns that are not full, as a bitmask kept up to date as tokens are added and
+     * cleared, so that it costs nothing to read.
+     * 
+     * Your agent may use this method instead of checking every column.
+     * 
+     * @return a mask with bit i set when column i can be played, for the first 64 columns.
+     */
+    public long getLegalMoves()
+    {
+        return legal;
+    }
+
+    /**
+     * Updates the mask of columns with room. Called by the top slot of a column.
+     */
+    void columnChanged(int column, boolean full)
+    {
+        if (full)
+        {
+            legal &= ~(1L << column);
+        }
+        else
+        {
+            legal |= 1L << column;
+        }
+    }
+
+    /**
+     * Moves the board to a new version. Called by the slots of the game.
+     */
+    void slotChanged()
+    {
+        version++;
+    }
+
     /**
      * Get the total number of columns in the game board.
      * 
@@ -170,65 +256,42 @@ public class Connect4Game
      */
     public char gameWon()
     {
-        char[][] board = getBoardMatrix();
-
-        for (int i = 0; i < getColumnCount(); i++)
+        // the lines are in the order of the slot they start from, column by column, so when
+        // there are several the same one is highlighted as by a scan of the board slot by slot
+        for (int line = 0; line < lines.getLineCount(); line++)
         {
-            for (int j = 0; j < getRowCount(); j++)
+            Connect4Slot first = slotAt(lines.getCell(line, 0));
+            if (first.getIsFilled())
             {
-                if(board[j][i] != 'B')
+                boolean red = first.getIsRed();
+                boolean complete = true;
+                for (int k = 1; k < 4 && complete; k++)
                 {
-                    if (j + 3 < getRowCount())
-                    {
-                        if(board[j][i] == board[j + 1][i] && board[j][i] == board[j + 2][i] && board[j][i] == board[j + 3][i])
-                        {
-                            highlightSlot(j, i);
-                            highlightSlot(j + 1, i);
-                            highlightSlot(j + 2, i);
-                            highlightSlot(j + 3, i);
-                            return board[j][i];
-                        }
-                    }
-                    if (i + 3 < getColumnCount())
-                    {
-                        if (board[j][i] == board[j][i + 1] && board[j][i] == board[j][i + 2] && board[j][i] == board[j][i + 3])
-                        {
-                            highlightSlot(j, i);
-                            highlightSlot(j, i + 1);
-                            highlightSlot(j, i + 2);
-                            highlightSlot(j, i + 3);
-                            return board[j][i];
-                        }
-                    }
-                    if (i + 3 < getColumnCount() && j + 3 < getRowCount())
-                    {
-                        if(board[j][i] == board[j + 1][i + 1] && board[j][i] == board[j + 2][i + 2] && board[j][i] == board[j + 3][i + 3])
-                        {
-                            highlightSlot(j, i);
-                            highlightSlot(j + 1, i + 1);
-                            highlightSlot(j + 2, i + 2);
-                            highlightSlot(j + 3,i + 3);
-                            return board[j][i];
-                        }
-                    }
-                    if (i > 2 && j + 3 < getRowCount())
+                    Connect4Slot slot = slotAt(lines.getCell(line, k));
+                    complete = slot.getIsFilled() && slot.getIsRed() == red;
+                }
+                if (complete)
+                {
+                    for (int k = 0; k < 4; k++)
                     {
-                        if (board[j][i] == board[j + 1][i - 1] && board[j][i] == board[j + 2][i - 2] && board[j][i] == board[j + 3][i - 3])
-                        {
-                            highlightSlot(j, i);
-                            highlightSlot(j + 1, i - 1);
-                            highlightSlot(j + 2, i - 2);
-                            highlightSlot(j + 3, i - 3);
-                            return board[j][i];
-                        }
+                        int cell = lines.getCell(line, k);
+                        highlightSlot(lines.getRow(cell), lines.getColumn(cell));
                     }
+                    return red ? 'R' : 'Y';
                 }
             }
         }
-
         return 'N';
     }
 
+    /**
+     * Returns the slot of a cell of the winning-line tables.
+     */
+    private Connect4Slot slotAt(int cell)
+    {
+        return columns[lines.getColumn(cell)].getSlot(lines.getRow(cell));
+    }
+
     /**
      * Validate that the given board is a valid next state following this board.
      * 
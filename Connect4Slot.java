@@ -9,6 +9,8 @@ public class Connect4Slot
     private boolean isFilled;
     private boolean isRed;
     private boolean isHighlighted;
+    private Connect4Game owner;     // the game told about every change to the slot, or null
+    private int topOf = -1;         // the column of the owner this slot is the top of, or -1
     
     /**
      * Creates a new Connect4Slot, initially unfilled.
@@ -16,9 +18,22 @@ public class Connect4Slot
      * Your agent will not need to use this method.
      */
     public Connect4Slot()
+    {
+        this((Connect4Game) null);
+    }
+    /**
+     * Creates a new Connect4Slot of a game, initially unfilled.
+     * 
+     * Your agent will not need to use this method.
+     * 
+     * @param owner the game whose version changes whenever a token is added to or cleared
+     * from the slot, or null.
+     */
+    public Connect4Slot(Connect4Game owner)
     {
         this.isFilled = false;
         this.isRed = false;
+        this.owner = owner;
     }
     /**
      * Copies the given slot.
@@ -28,9 +43,23 @@ public class Connect4Slot
      * @param slot the slot to copy.
      */
     public Connect4Slot(Connect4Slot slot)
+    {
+        this(slot, null);
+    }
+    /**
+     * Copies the given slot into a game.
+     * 
+     * Your agent will not need to use this method.
+     * 
+     * @param slot the slot to copy.
+     * @param owner the game whose version changes whenever a token is added to or cleared
+     * from the slot, or null.
+     */
+    public Connect4Slot(Connect4Slot slot, Connect4Game owner)
     {
         this.isFilled = slot.getIsFilled();
         this.isRed = slot.getIsRed();
+        this.owner = owner;
     }
     /**
      * Checks if the slot is currently filled.
@@ -68,6 +97,7 @@ public class Connect4Slot
         {
             this.isFilled = true;
             this.isRed = true;
+            changed();
         }
     }
     /**
@@ -81,6 +111,7 @@ public class Connect4Slot
         {
             this.isFilled = true;
             this.isRed = false;
+            changed();
         }
     }
     
@@ -111,8 +142,39 @@ public class Connect4Slot
      */
     public void clear()
     {
+        boolean wasFilled = isFilled;
         this.isFilled = false;
         this.isRed = false;
         this.isHighlighted = false;
+        if (wasFilled)
+        {
+            changed();
+        }
+    }
+
+    /**
+     * Makes the slot tell its owning game when the column it tops fills up or has room again.
+     * Called by the game.
+     * 
+     * @param column the index of the column in the game.
+     */
+    void setTopOf(int column)
+    {
+        this.topOf = column;
+    }
+
+    /**
+     * Tells the owning game that a token was added or removed.
+     */
+    private void changed()
+    {
+        if (owner != null)
+        {
+            owner.slotChanged();
+            if (topOf >= 0)
+            {
+                owner.columnChanged(topOf, isFilled);
+            }
+        }
     }
 }
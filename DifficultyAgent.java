@@ -0,0 +1,284 @@
+import java.util.Random;
+
+/**
+ * An agent whose strength and cost per move are set by numbers rather than by code: a search
+ * depth cap, a node budget and a time budget, plus a chance of playing a random move instead of
+ * the move it found.
+ *
+ * The node budget is the one to use when many games share a server, because it bounds the work
+ * of every move whatever the machine or the load: the search stops as soon as it has visited
+ * that many positions and plays the move of the deepest iteration that finished. The agent
+ * keeps the nodes and time of every move, so the cost of a level can be measured before it is
+ * served; main prints them for every level.
+ *
+ * atLevel() gives ten preset levels, from one that looks three moves ahead on a small budget
+ * and blunders almost half the time, to one that searches twelve moves ahead and never blunders.
+ */
+public class DifficultyAgent extends Agent
+{
+    /**
+     * The number of transposition table entries of each agent; small, since the budgets are.
+     */
+    public static final int TABLE_ENTRIES = 1 << 14;
+
+    private final SerialSearch search;  // the search, reused for every move
+    private final BitBoard position;    // the current position, reloaded for every move
+    private final Random errors;        // decides when to play a random move
+    private int depth;                  // the deepest the search may look
+    private long timeBudget;            // milliseconds the search may take per move, or 0 for no limit
+    private double errorRate;           // the chance of playing a random move
+    private long lastNodes;             // positions visited for the last move
+    private long lastNanos;             // time taken by the last move
+    private long moves;                 // moves made since the statistics were cleared
+    private long totalNodes;            // positions visited over those moves
+    private long totalNanos;            // time taken over those moves
+    private long maxNodes;              // the most positions visited for one move
+    private long maxNanos;              // the longest time taken for one move
+    private long randomMoves;           // moves that were deliberate errors
+
+    /**
+     * Constructs a new agent with the given budgets.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed True if the agent is Red, False if the agent is Yellow.
+     * @param theName The name of the agent.
+     * @param depth The deepest the search may look, in moves.
+     * @param nodeBudget The positions the search may visit per move, or 0 for no limit.
+     * @param timeBudget The milliseconds the search may take per move, or 0 for no limit.
+     * @param errorRate The chance, from 0 to 1, of playing a random column instead.
+     */
+    public DifficultyAgent(Connect4Game game, boolean iAmRed, String theName, int depth, long nodeBudget,
+        long timeBudget, double errorRate)
+    {
+        super(game, iAmRed, theName);
+        this.position = new BitBoard(game.getColumnCount(), game.getRowCount());
+        this.search = new SerialSearch(position, new WindowEvaluator(position), new TranspositionTable(TABLE_ENTRIES));
+        this.errors = new Random();
+        setBudget(depth, nodeBudget, timeBudget);
+        setErrorRate(errorRate);
+    }
+
+    /**
+     * Constructs an agent at one of ten preset levels. Level n searches n + 2 moves deep within
+     * 1000 * 2^(n - 1) nodes and plays a random column (10 - n) * 5% of the time.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed True if the agent is Red, False if the agent is Yellow.
+     * @param theName The name of the agent.
+     * @param level The level, from 1 (weakest) to 10 (strongest).
+     * @return the agent.
+     */
+    public static DifficultyAgent atLevel(Connect4Game game, boolean iAmRed, String theName, int level)
+    {
+        if (level < 1 || level > 10)
+        {
+            throw new IllegalArgumentException("Levels go from 1 to 10, not " + level + ".");
+        }
+        return new DifficultyAgent(game, iAmRed, theName, level + 2, 1000L << (level - 1), 0, (10 - level) * 0.05);
+    }
+
+    /**
+     * Changes the budgets of the search.
+     *
+     * @param depth The deepest the search may look, in moves.
+     * @param nodeBudget The positions the search may visit per move, or 0 for no limit. The
+     * search may go a few dozen nodes over while it unwinds.
+     * @param timeBudget The milliseconds the search may take per move, or 0 for no limit.
+     */
+    public void setBudget(int depth, long nodeBudget, long timeBudget)
+    {
+        if (depth < 1)
+        {
+            throw new IllegalArgumentException("The search must look at least one move ahead.");
+        }
+        this.depth = depth;
+        this.timeBudget = timeBudget;
+        search.getSearcher().setNodeLimit(nodeBudget);
+    }
+
+    /**
+     * Changes the chance of playing a random column instead of the best one found.
+     *
+     * @param errorRate The chance, from 0 to 1.
+     */
+    public void setErrorRate(double errorRate)
+    {
+        if (errorRate < 0 || errorRate > 1)
+        {
+            throw new IllegalArgumentException("The error rate must be between 0 and 1.");
+        }
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Reseeds the random number generators, so that a reused agent can replay the same games.
+     *
+     * @param seed The new seed.
+     */
+    public void setSeed(long seed)
+    {
+        super.setSeed(seed);
+        errors.setSeed(seed);
+    }
+
+    /**
+     * Attaches the agent to another game of the same size.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed Whether the agent is the red player.
+     * @throws IllegalArgumentException if the game is not the size the search was built for.
+     */
+    public void rebind(Connect4Game game, boolean iAmRed)
+    {
+        if (game.getColumnCount() != myGame.getColumnCount() || game.getRowCount() != myGame.getRowCount())
+        {
+            throw new IllegalArgumentException("A difficulty agent can only be moved to a game of the same size.");
+        }
+        super.rebind(game, iAmRed);
+    }
+
+    /**
+     * Searches the current position within the budgets and plays the column found, or
+     * sometimes a random column.
+     */
+    public void move()
+    {
+        long start = System.nanoTime();
+        position.load(myGame);
+        int col;
+        long nodes = 0;
+        if (errorRate > 0 && errors.nextDouble() < errorRate)
+        {
+            col = position.randomMove(errors);
+            randomMoves++;
+        }
+        else
+        {
+            col = search.bestMove(position, depth, timeBudget);
+            nodes = search.getLastNodes();
+            if (col == -1)
+            {
+                col = randomMove();
+            }
+        }
+        moveOnColumn(col);
+        lastNanos = System.nanoTime() - start;
+        lastNodes = nodes;
+        moves++;
+        totalNodes += nodes;
+        totalNanos += lastNanos;
+        maxNodes = Math.max(maxNodes, nodes);
+        maxNanos = Math.max(maxNanos, lastNanos);
+    }
+
+    /**
+     * Get the number of positions searched for the last move.
+     *
+     * @return the node count of the last move; 0 if it was a random move.
+     */
+    public long getLastNodes()
+    {
+        return lastNodes;
+    }
+
+    /**
+     * Get the time taken by the last move, including loading the board and playing the move.
+     *
+     * @return the time in nanoseconds.
+     */
+    public long getLastNanos()
+    {
+        return lastNanos;
+    }
+
+    /**
+     * Get the number of moves made since the statistics were cleared.
+     *
+     * @return the move count.
+     */
+    public long getMoves()
+    {
+        return moves;
+    }
+
+    /**
+     * Get the most positions searched for one move since the statistics were cleared.
+     *
+     * @return the largest node count of a move.
+     */
+    public long getMaxNodes()
+    {
+        return maxNodes;
+    }
+
+    /**
+     * Get the longest time taken by one move since the statistics were cleared.
+     *
+     * @return the time in nanoseconds.
+     */
+    public long getMaxNanos()
+    {
+        return maxNanos;
+    }
+
+    /**
+     * Sets every move statistic back to zero.
+     */
+    public void clearStats()
+    {
+        moves = 0;
+        totalNodes = 0;
+        totalNanos = 0;
+        maxNodes = 0;
+        maxNanos = 0;
+        randomMoves = 0;
+    }
+
+    /**
+     * Appends a one-line summary of the move statistics: moves, random moves, and the mean and
+     * largest nodes and time per move.
+     *
+     * @param out The builder to append to.
+     */
+    public void appendStats(StringBuilder out)
+    {
+        long searched = Math.max(1, moves - randomMoves);
+        out.append(moves).append(" moves (").append(randomMoves).append(" random), ")
+            .append(totalNodes / searched).append(" nodes/move (max ").append(maxNodes).append("), ")
+            .append(totalNanos / Math.max(1, moves) / 1000).append(" us/move (max ").append(maxNanos / 1000).append(" us)");
+    }
+
+    /**
+     * Plays every level against the level below it and prints the results and the cost per
+     * move of each level, for capacity planning.
+     *
+     * Usage: java DifficultyAgent [games]
+     *
+     * @param args The number of games per pair of levels (default 100).
+     */
+    public static void main(String[] args)
+    {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        Connect4Game game = new Connect4Game(7, 6);
+        // warm up the search so that the first level is not charged for compiling it
+        WarmStart.warmUp(7, 6, 1000);
+        for (int level = 1; level <= 10; level++)
+        {
+            DifficultyAgent agent = atLevel(game, true, "Level " + level, level);
+            Agent opponent = level == 1 ? new RandomAgent(game, false, "Random") : atLevel(game, false, "Level " + (level - 1), level - 1);
+            Match match = new Match(game, agent, opponent);
+            int wins = 0, draws = 0;
+            for (int i = 0; i < games; i++)
+            {
+                char result = match.play();
+                wins += result == 'R' ? 1 : 0;
+                draws += result == 'D' ? 1 : 0;
+            }
+            StringBuilder line = new StringBuilder();
+            line.append("Level ").append(level).append(" vs ").append(level == 1 ? "random" : "level " + (level - 1))
+                .append(": ").append(wins).append(" won, ").append(draws).append(" drawn of ").append(games).append("; ");
+            agent.appendStats(line);
+            System.out.println(line);
+        }
+    }
+}
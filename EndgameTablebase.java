@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only win/draw/loss table for late-game positions, memory mapped from a file written by
+ * TablebaseGenerator.
+ *
+ * Positions are found through a minimal perfect hash of their canonical keys in the BBHash
+ * style: each level is a bit array that the keys are hashed into, a key that lands on a bit no
+ * other key of its level landed on is placed there, and the keys that collided move on to the
+ * next, smaller level. A key's index is the number of placed bits before its own, counted with
+ * a rank per 512 bits. Each index holds the value in 2 bits and a fingerprint of the key, so
+ * the whole table takes about 3 bits of hash, 2 of value and fingerprintBits per position
+ * instead of a full key.
+ *
+ * The hash maps every key to some index, so a position that is not stored is told apart only
+ * by its fingerprint: with 8 bits, 1 lookup in 256 of a position that is not stored returns
+ * the value of another. Looking up a position is a hash per level tried, a popcount of a few
+ * words and two byte reads, so an agent can play any stored position at constant cost per move.
+ * The values are from the point of view of the player to move.
+ *
+ * File layout (big-endian): magic, version, column count, row count, largest empty slot count,
+ * entry count, fingerprint bits and level count as ints, then the number of longs of each
+ * level as ints, then the level bit arrays as longs, then the rank before every 8 longs as
+ * ints, then the values packed 4 to a byte, then the fingerprints packed from the low bits of
+ * each byte up, followed by one byte of padding.
+ */
+public class EndgameTablebase
+{
+    /** The position is not in the tablebase. */
+    public static final int UNKNOWN = 0;
+    /** The player to move loses with best play. */
+    public static final int LOSS = 1;
+    /** The position is a draw with best play. */
+    public static final int DRAW = 2;
+    /** The player to move wins with best play. */
+    public static final int WIN = 3;
+
+    static final int MAGIC = 0x43345442;    // "C4TB"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 8 * 4;
+    static final int MAX_LEVELS = 64;       // levels a hash may have; the keys run out long before
+
+    private final ByteBuffer data;  // the mapped file
+    private final int columns;      // the board size the table was built for
+    private final int rows;
+    private final int maxEmpty;     // positions with at most this many empty slots are stored
+    private final int entries;      // the number of stored positions
+    private final int fingerprintBits;  // bits of each key's fingerprint, 0 to 8
+    private final int[] levelStarts;    // the first long of each level, and the total after the last
+    private final int wordsOffset;      // where the level bit arrays start
+    private final int ranksOffset;      // where the ranks start
+    private final int valuesOffset;     // where the packed values start
+    private final int fingerprintsOffset;   // where the packed fingerprints start
+
+    /**
+     * Wraps the contents of a tablebase file, or of one being built.
+     *
+     * @throws IllegalArgumentException if the contents are not a tablebase or are cut short.
+     */
+    EndgameTablebase(ByteBuffer data)
+    {
+        this.data = data;
+        if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION)
+        {
+            throw new IllegalArgumentException("Not a version " + VERSION + " Connect 4 tablebase.");
+        }
+        this.columns = data.getInt(8);
+        this.rows = data.getInt(12);
+        this.maxEmpty = data.getInt(16);
+        this.entries = data.getInt(20);
+        this.fingerprintBits = data.getInt(24);
+        int levels = data.getInt(28);
+        if (entries < 0 || fingerprintBits < 0 || fingerprintBits > 8 || levels < 0 || levels > MAX_LEVELS)
+        {
+            throw new IllegalArgumentException("The tablebase header is corrupt.");
+        }
+        this.levelStarts = new int[levels + 1];
+        long words = 0;
+        for (int level = 0; level < levels; level++)
+        {
+            words += data.getInt(HEADER_BYTES + level * 4);
+            if (words > Integer.MAX_VALUE)
+            {
+                throw new IllegalArgumentException("The tablebase header is corrupt.");
+            }
+            levelStarts[level + 1] = (int) words;
+        }
+        long[] offsets = offsets(levels, words, entries, fingerprintBits);
+        if (offsets[4] > data.limit())
+        {
+            throw new IllegalArgumentException("The tablebase file is cut short.");
+        }
+        this.wordsOffset = (int) offsets[0];
+        this.ranksOffset = (int) offsets[1];
+        this.valuesOffset = (int) offsets[2];
+        this.fingerprintsOffset = (int) offsets[3];
+    }
+
+    /**
+     * Works out where each part of a tablebase file starts, in long arithmetic so that tables
+     * too big for one mapping are caught rather than wrapped around.
+     *
+     * @return the offsets of the level bit arrays, the ranks, the values and the fingerprints,
+     * and the size of the whole file.
+     */
+    static long[] offsets(int levels, long words, long entries, int fingerprintBits)
+    {
+        long wordsAt = HEADER_BYTES + 4L * levels;
+        long ranksAt = wordsAt + 8 * words;
+        long valuesAt = ranksAt + 4 * ((words + 7) / 8);
+        long fingerprintsAt = valuesAt + (entries + 3) / 4;
+        long size = fingerprintsAt + (entries * fingerprintBits + 7) / 8 + 1;
+        return new long[] {wordsAt, ranksAt, valuesAt, fingerprintsAt, size};
+    }
+
+    /**
+     * Memory maps a tablebase file.
+     *
+     * @param file The file written by TablebaseGenerator.
+     * @return the tablebase.
+     * @throws IOException if the file cannot be read, or is too big for one mapping.
+     */
+    public static EndgameTablebase load(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException(file + " is " + channel.size() + " bytes, more than one mapping can hold.");
+            }
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new EndgameTablebase(data.order(ByteOrder.BIG_ENDIAN));
+        }
+    }
+
+    /**
+     * Get the largest number of empty slots of the stored positions.
+     *
+     * @return the empty slot limit the table was generated with.
+     */
+    public int getMaxEmpty()
+    {
+        return maxEmpty;
+    }
+
+    /**
+     * Get the number of stored positions.
+     *
+     * @return the number of positions in the table.
+     */
+    public int size()
+    {
+        return entries;
+    }
+
+    /**
+     * Looks up the value of a position for the player to move.
+     *
+     * @param board The position to look up.
+     * @return WIN, DRAW or LOSS; UNKNOWN if the position is not stored.
+     */
+    public int lookup(BitBoard board)
+    {
+        if (board.getColumnCount() != columns || board.getRowCount() != rows
+            || columns * rows - board.getMoveCount() > maxEmpty)
+        {
+            return UNKNOWN;
+        }
+        long key = board.canonicalKey();
+        int index = index(key);
+        if (index < 0 || storedFingerprint(index) != fingerprint(key, fingerprintBits))
+        {
+            return UNKNOWN;
+        }
+        return (data.get(valuesOffset + (index >>> 2)) >>> ((index & 3) * 2)) & 3;
+    }
+
+    /**
+     * Returns the index the hash gives a key: the stored key's index if the key is stored,
+     * otherwise some index or -1.
+     */
+    int index(long key)
+    {
+        for (int level = 0; level + 1 < levelStarts.length; level++)
+        {
+            long bits = (long) (levelStarts[level + 1] - levelStarts[level]) * 64;
+            long bit = position(key, level, bits);
+            int word = levelStarts[level] + (int) (bit >>> 6);
+            long value = data.getLong(wordsOffset + word * 8);
+            if ((value & (1L << bit)) != 0)
+            {
+                int rank = data.getInt(ranksOffset + (word >>> 3) * 4);
+                for (int w = word & ~7; w < word; w++)
+                {
+                    rank += Long.bitCount(data.getLong(wordsOffset + w * 8));
+                }
+                return rank + Long.bitCount(value & ((1L << bit) - 1));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the value and fingerprint of a key at its index, while the table is being built.
+     */
+    void put(int index, long key, int value)
+    {
+        int at = valuesOffset + (index >>> 2);
+        data.put(at, (byte) (data.get(at) | value << ((index & 3) * 2)));
+        if (fingerprintBits == 0)
+        {
+            return;
+        }
+        long bit = (long) index * fingerprintBits;
+        at = fingerprintsOffset + (int) (bit >>> 3);
+        int packed = fingerprint(key, fingerprintBits) << (int) (bit & 7);
+        data.put(at, (byte) (data.get(at) | packed));
+        data.put(at + 1, (byte) (data.get(at + 1) | packed >>> 8));
+    }
+
+    /**
+     * Reads the fingerprint stored at an index.
+     */
+    private int storedFingerprint(int index)
+    {
+        if (fingerprintBits == 0)
+        {
+            return 0;
+        }
+        long bit = (long) index * fingerprintBits;
+        int at = fingerprintsOffset + (int) (bit >>> 3);
+        int packed = (data.get(at) & 0xff) | (data.get(at + 1) & 0xff) << 8;
+        return packed >>> (int) (bit & 7) & ((1 << fingerprintBits) - 1);
+    }
+
+    /**
+     * Returns the bit a key hashes to in one level of the hash.
+     *
+     * @param key The canonical key.
+     * @param level The level, from 0.
+     * @param bits The number of bits of the level.
+     * @return the bit, from 0 to bits - 1.
+     */
+    static long position(long key, int level, long bits)
+    {
+        return (mix(key + (level + 1) * 0x9e3779b97f4a7c15L) >>> 1) % bits;
+    }
+
+    /**
+     * Returns the fingerprint of a key.
+     *
+     * @param key The canonical key.
+     * @param bits The number of bits of fingerprint, 0 to 8.
+     * @return the top bits of the hashed key.
+     */
+    static int fingerprint(long key, int bits)
+    {
+        return bits == 0 ? 0 : (int) (mix(key) >>> (64 - bits));
+    }
+
+    /**
+     * Picks the best column to play in a stored position: a move that wins at once, otherwise
+     * the move that leaves the opponent in the worst stored position.
+     *
+     * @param board The position to move in; it is left unchanged.
+     * @return the column to play; -1 if the position is not stored, or its moves do not agree
+     * with its stored value.
+     */
+    public int bestMove(BitBoard board)
+    {
+        int stored = lookup(board);
+        if (stored == UNKNOWN)
+        {
+            // a known loss among the moves may be worse than a move that is not stored
+            return -1;
+        }
+        int best = -1;
+        int bestValue = UNKNOWN;
+        for (int col = 0; col < board.getColumnCount(); col++)
+        {
+            if (board.canPlay(col))
+            {
+                if (board.isWinningMove(col))
+                {
+                    return col;
+                }
+                board.play(col);
+                int reply = board.isFull() ? DRAW : lookup(board);
+                board.undo(col);
+                // the position is stored, and the generator stops looking at a won position's
+                // moves once it finds the winning one, so moves that are not stored are never
+                // better than one that is
+                int value = reply == UNKNOWN ? UNKNOWN : WIN + LOSS - reply;  // the opponent's loss is our win
+                if (value > bestValue)
+                {
+                    best = col;
+                    bestValue = value;
+                }
+            }
+        }
+        // a stored position is worth its best move; when it is not, the position only matched
+        // the fingerprint of another
+        return bestValue == stored ? best : -1;
+    }
+
+    /**
+     * Spreads the bits of a key across the whole long so that the low bits can be used as the
+     * slot index.
+     *
+     * @param key The key to hash.
+     * @return the hashed key.
+     */
+    static long mix(long key)
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Scores a Connect 4 position for a search.
+ *
+ * Search agents call an Evaluator at the leaves of their search instead of hard-coding their
+ * own rules, so evaluators can be swapped between agents and timed on their own.
+ */
+public interface Evaluator
+{
+    /**
+     * Scores a position from the point of view of the player to move.
+     *
+     * @param board The position to score.
+     * @return a score that is positive when the player to move is better off, negative when
+     * the opponent is, and 0 when the position looks even.
+     */
+    int evaluate(BitBoard board);
+}
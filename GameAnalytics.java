@@ -0,0 +1,324 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * Statistics over match records written by Match: first-player advantage, game length, how
+ * often each column is played at each ply, and results by opening move.
+ *
+ * Everything is kept in primitive counters whose size depends only on the board size, so any
+ * number of games can be streamed through in constant memory. analyze() splits a record file
+ * into chunks, maps each chunk and counts it on its own thread, then merges the counters.
+ *
+ * A game's result follows Connect4Frame: the first player is the colour on the left of the
+ * record, and 'R' or 'Y' is the colour that won.
+ */
+public class GameAnalytics
+{
+    private static final int CHUNK_BYTES = 64 << 20;
+    private static final int MAX_LINE_BYTES = 256;
+
+    private final int columns;          // the board size of the games
+    private final int maxPly;           // the most moves a game can have
+    private long games;                 // games counted, including invalid ones
+    private long firstWins;             // games won by the player who went first
+    private long secondWins;            // games won by the player who went second
+    private long draws;                 // games that filled the board
+    private long errors;                // games ended by an invalid move
+    private long totalMoves;            // moves over all valid games
+    private final long[] lengths;       // valid games by number of moves
+    private final long[] columnByPly;   // moves by ply and column, ply * columns + column
+    private final long[] openings;      // results by first column: first win, draw, second win
+
+    /**
+     * Creates empty statistics for games on a board of the given size.
+     *
+     * @param numCols The number of columns on the board.
+     * @param numRows The number of rows on the board.
+     */
+    public GameAnalytics(int numCols, int numRows)
+    {
+        this.columns = numCols;
+        this.maxPly = numCols * numRows;
+        this.lengths = new long[maxPly + 1];
+        this.columnByPly = new long[maxPly * numCols];
+        this.openings = new long[numCols * 3];
+    }
+
+    /**
+     * Counts one game record. A blank line is skipped without being counted, and a line that
+     * does not start with a colour and a space is counted as an invalid game.
+     *
+     * @param record The buffer holding the record.
+     * @param start The index of the first character of the record.
+     * @param limit The index past which the buffer ends.
+     * @return the index after the record's line break, or limit if there is none.
+     */
+    public int add(ByteBuffer record, int start, int limit)
+    {
+        byte first = record.get(start);
+        if (first == '\n' || first == '\r')
+        {
+            return start + 1;
+        }
+        boolean wellFormed = start + 1 < limit && record.get(start + 1) == ' ';
+        int at = wellFormed ? start + 2 : start + 1;
+        int ply = 0;
+        int opening = -1;
+        int col;
+        while (wellFormed && at < limit && (col = PositionCodec.column(record.get(at))) >= 0)
+        {
+            if (ply < maxPly && col < columns)
+            {
+                columnByPly[ply * columns + col]++;
+            }
+            if (ply == 0)
+            {
+                opening = col;
+            }
+            ply++;
+            at++;
+        }
+        byte result = wellFormed && at + 1 < limit ? record.get(at + 1) : (byte) 'E';
+
+        games++;
+        if (result == 'E' || ply > maxPly)
+        {
+            errors++;
+        }
+        else
+        {
+            int outcome;    // 0 first player won, 1 draw, 2 second player won
+            if (result == 'D')
+            {
+                draws++;
+                outcome = 1;
+            }
+            else if (result == first)
+            {
+                firstWins++;
+                outcome = 0;
+            }
+            else
+            {
+                secondWins++;
+                outcome = 2;
+            }
+            totalMoves += ply;
+            lengths[ply]++;
+            if (opening >= 0 && opening < columns)
+            {
+                openings[opening * 3 + outcome]++;
+            }
+        }
+        while (at < limit && record.get(at) != '\n')
+        {
+            at++;
+        }
+        return Math.min(at + 1, limit);
+    }
+
+    /**
+     * Adds the counters of other statistics for the same board size to these.
+     *
+     * @param other The statistics to add.
+     * @return these statistics.
+     */
+    public GameAnalytics merge(GameAnalytics other)
+    {
+        games += other.games;
+        firstWins += other.firstWins;
+        secondWins += other.secondWins;
+        draws += other.draws;
+        errors += other.errors;
+        totalMoves += other.totalMoves;
+        for (int i = 0; i < lengths.length; i++)
+        {
+            lengths[i] += other.lengths[i];
+        }
+        for (int i = 0; i < columnByPly.length; i++)
+        {
+            columnByPly[i] += other.columnByPly[i];
+        }
+        for (int i = 0; i < openings.length; i++)
+        {
+            openings[i] += other.openings[i];
+        }
+        return this;
+    }
+
+    /**
+     * Get the number of games counted, including invalid ones.
+     *
+     * @return the game count.
+     */
+    public long getGames()
+    {
+        return games;
+    }
+
+    /**
+     * Get the share of valid games won by the player who went first.
+     *
+     * @return the first player's win rate, from 0 to 1.
+     */
+    public double getFirstPlayerWinRate()
+    {
+        long valid = games - errors;
+        return valid == 0 ? 0 : (double) firstWins / valid;
+    }
+
+    /**
+     * Get the average number of moves in a valid game.
+     *
+     * @return the average game length.
+     */
+    public double getAverageLength()
+    {
+        long valid = games - errors;
+        return valid == 0 ? 0 : (double) totalMoves / valid;
+    }
+
+    /**
+     * Get how often a column was played at a ply.
+     *
+     * @param ply The move number, counted from 0.
+     * @param col The column.
+     * @return the number of times the column was played at that ply.
+     */
+    public long getColumnCount(int ply, int col)
+    {
+        return columnByPly[ply * columns + col];
+    }
+
+    /**
+     * Writes a readable report of the statistics.
+     *
+     * @param out The builder to append to.
+     * @param plies The number of plies to show column popularity for.
+     */
+    public void report(StringBuilder out, int plies)
+    {
+        long valid = games - errors;
+        out.append(String.format("Games: %d (%d invalid)%n", games, errors));
+        out.append(String.format("First player wins: %.2f%%, second player wins: %.2f%%, draws: %.2f%%%n",
+            percent(firstWins, valid), percent(secondWins, valid), percent(draws, valid)));
+        out.append(String.format("Average length: %.2f moves%n", getAverageLength()));
+        out.append("Column popularity by ply (%):\n");
+        for (int ply = 0; ply < Math.min(plies, maxPly); ply++)
+        {
+            long total = 0;
+            for (int col = 0; col < columns; col++)
+            {
+                total += getColumnCount(ply, col);
+            }
+            out.append(String.format("  ply %2d:", ply + 1));
+            for (int col = 0; col < columns; col++)
+            {
+                out.append(String.format(" %5.1f", percent(getColumnCount(ply, col), total)));
+            }
+            out.append('\n');
+        }
+        out.append("Results by opening column (first win / draw / second win %):\n");
+        for (int col = 0; col < columns; col++)
+        {
+            long opened = openings[col * 3] + openings[col * 3 + 1] + openings[col * 3 + 2];
+            if (opened > 0)
+            {
+                out.append(String.format("  %c: %5.1f / %5.1f / %5.1f (%d games)%n", PositionCodec.moveChar(col),
+                    percent(openings[col * 3], opened), percent(openings[col * 3 + 1], opened),
+                    percent(openings[col * 3 + 2], opened), opened));
+            }
+        }
+    }
+
+    /**
+     * Counts every record in a file, reading chunks of it in parallel.
+     *
+     * @param file The record file written by Match.
+     * @param numCols The number of columns of the games' board.
+     * @param numRows The number of rows of the games' board.
+     * @return the statistics of every game in the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static GameAnalytics analyze(Path file, int numCols, int numRows) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            int chunks = (int) ((size + CHUNK_BYTES - 1) / CHUNK_BYTES);
+            return IntStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> analyzeChunk(channel, size, chunk, numCols, numRows))
+                .reduce(GameAnalytics::merge)
+                .orElseGet(() -> new GameAnalytics(numCols, numRows));
+        }
+    }
+
+    /**
+     * Counts the records that start inside one chunk of a file.
+     */
+    private static GameAnalytics analyzeChunk(FileChannel channel, long size, int chunk, int numCols, int numRows)
+    {
+        GameAnalytics stats = new GameAnalytics(numCols, numRows);
+        long start = (long) chunk * CHUNK_BYTES;
+        long end = Math.min(start + CHUNK_BYTES, size);
+        long mapStart = Math.max(0, start - 1);
+        try
+        {
+            // map one byte before the chunk to see whether it starts mid-record, and enough
+            // after it to finish the last record that starts inside it
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, mapStart,
+                Math.min(size, end + MAX_LINE_BYTES) - mapStart);
+            int at = (int) (start - mapStart);
+            int stop = (int) (end - mapStart);
+            int limit = data.limit();
+            if (start > 0)
+            {
+                while (at < limit && data.get(at - 1) != '\n')
+                {
+                    at++;
+                }
+            }
+            while (at < stop)
+            {
+                at = stats.add(data, at, limit);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Could not read " + chunk + ". chunk of the record file.", e);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns a count as a percentage of a total.
+     */
+    private static double percent(long count, long total)
+    {
+        return total == 0 ? 0 : 100.0 * count / total;
+    }
+
+    /**
+     * Prints a report of a record file of 7x6 games.
+     *
+     * Usage: java GameAnalytics file [plies]
+     *
+     * @param args The record file and the number of plies to show column popularity for.
+     * @throws IOException if the file cannot be read.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        long start = System.nanoTime();
+        GameAnalytics stats = analyze(Paths.get(args[0]), 7, 6);
+        StringBuilder out = new StringBuilder();
+        stats.report(out, args.length > 1 ? Integer.parseInt(args[1]) : 8);
+        System.out.print(out);
+        System.out.println("Analyzed in " + (System.nanoTime() - start) / 1000000 + " ms.");
+    }
+}
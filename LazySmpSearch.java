@@ -0,0 +1,220 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches one position on several threads in the Lazy SMP style.
+ *
+ * Every thread runs its own iterative deepening search of the same root, with its own move
+ * ordering, and all of them share one TranspositionTable. Helper threads skip depths in
+ * different patterns from a skip table, so that they run ahead of the main thread and of each
+ * other and fill the table with results the main thread finds when it gets there, and cutoffs
+ * one thread discovers speed up the others. The move of the main thread's deepest
+ * finished search is played.
+ *
+ * The evaluator is shared by every thread, so it must not keep per-position state; both
+ * WindowEvaluator and ThreatAnalyzer qualify.
+ */
+public class LazySmpSearch implements SearchStrategy
+{
+    // helper i skips a depth d when ((d + SKIP_PHASE[j]) / SKIP_SIZE[j]) is odd, j = (i - 1) % 20,
+    // so the helpers spread over blocks of one to four depths with different offsets
+    private static final int[] SKIP_SIZE = {1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4};
+    private static final int[] SKIP_PHASE = {0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7};
+
+    private final TranspositionTable table;     // the table shared by every thread
+    private final Searcher[] searchers;         // the main searcher first, then the helpers
+    private final ExecutorService helpers;      // runs the helper searches
+    private long lastNodes;                     // positions visited by all threads during the last search
+    private int lastDepth;                      // the deepest search the main thread finished
+    private boolean lastStopped;                // whether the main thread's last search was cut short
+    private final SearchGenerations generations = new SearchGenerations();  // numbers the searches for stop(long)
+
+    /**
+     * Creates a parallel search for boards of the same size as the given board.
+     *
+     * @param board A board of the size to search.
+     * @param evaluator The evaluator to score the leaves with, shared by every thread.
+     * @param threads The total number of search threads, including the calling thread.
+     * @param table The table shared by every thread.
+     */
+    public LazySmpSearch(BitBoard board, Evaluator evaluator, int threads, TranspositionTable table)
+    {
+        this.table = table;
+        this.searchers = new Searcher[Math.max(1, threads)];
+        for (int i = 0; i < searchers.length; i++)
+        {
+            searchers[i] = new Searcher(board, evaluator, new MoveOrdering(board));
+            searchers[i].setTranspositionTable(table);
+        }
+        this.helpers = Executors.newFixedThreadPool(Math.max(1, searchers.length - 1), runnable -> {
+                Thread thread = new Thread(runnable, "lazy-smp-helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /**
+     * Get the table shared by the search threads.
+     *
+     * @return the transposition table.
+     */
+    public TranspositionTable getTranspositionTable()
+    {
+        return table;
+    }
+
+    /**
+     * Get the number of positions visited by all threads during the last search.
+     *
+     * @return the total node count.
+     */
+    public long getLastNodes()
+    {
+        return lastNodes;
+    }
+
+    /**
+     * Get the depth of the deepest search the main thread finished last time.
+     *
+     * @return the completed depth.
+     */
+    public int getLastDepth()
+    {
+        return lastDepth;
+    }
+
+    /**
+     * Check whether the main thread's last search was cut short by stop() or its time budget.
+     *
+     * @return true if the main thread did not run to the end.
+     */
+    public boolean wasStopped()
+    {
+        return lastStopped;
+    }
+
+    /**
+     * Finds the best column for the player to move, searching until the main thread finishes
+     * the given depth or the time runs out.
+     *
+     * @param board The position to search; it is left unchanged.
+     * @param maxDepth The deepest search to run.
+     * @param timeMillis The time budget in milliseconds, or 0 for none.
+     * @return the best column found; -1 if there is no playable column.
+     */
+    public int bestMove(BitBoard board, int maxDepth, long timeMillis)
+    {
+        long deadline = timeMillis > 0 ? System.nanoTime() + timeMillis * 1000000 : 0;
+        for (Searcher searcher : searchers)
+        {
+            searcher.resetNodes();
+            searcher.resume();
+            searcher.setDeadline(deadline);
+        }
+        if (generations.isStopped(generations.begin()))
+        {
+            stopSearchers();    // stopped before it started
+        }
+
+        Future<?>[] running = new Future<?>[searchers.length];
+        for (int i = 1; i < searchers.length; i++)
+        {
+            Searcher helper = searchers[i];
+            BitBoard copy = new BitBoard(board);
+            int size = SKIP_SIZE[(i - 1) % SKIP_SIZE.length];
+            int phase = SKIP_PHASE[(i - 1) % SKIP_PHASE.length];
+            running[i] = helpers.submit(() -> {
+                    for (int d = 1; d <= maxDepth && !helper.isStopped(); d++)
+                    {
+                        if ((d + phase) / size % 2 == 0 || d == maxDepth)
+                        {
+                            helper.searchRoot(copy, d, -1);
+                        }
+                    }
+                });
+        }
+
+        Searcher main = searchers[0];
+        int best = -1;
+        lastDepth = 0;
+        for (int d = 1; d <= maxDepth && (d == 1 || !main.isStopped()); d++)
+        {
+            int move = main.searchRoot(board, d, best);
+            if (!main.isStopped())
+            {
+                best = move;
+                lastDepth = d;
+            }
+            else if (best == -1)
+            {
+                best = move;    // a cut-short first iteration still gives a playable column
+            }
+        }
+        lastStopped = main.isStopped();
+
+        lastNodes = 0;
+        for (int i = 0; i < searchers.length; i++)
+        {
+            searchers[i].stop();
+            if (running[i] != null)
+            {
+                try
+                {
+                    running[i].get();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException e)
+                {
+                    throw new IllegalStateException("A helper search failed.", e.getCause());
+                }
+            }
+            lastNodes += searchers[i].getNodes();
+        }
+        return best;
+    }
+
+    /**
+     * Makes a bestMove() call running on another thread return as soon as possible.
+     */
+    public void stop()
+    {
+        stop(generations.current());
+    }
+
+    public long getNextGeneration()
+    {
+        return generations.next();
+    }
+
+    public void stop(long generation)
+    {
+        if (generations.stop(generation))
+        {
+            stopSearchers();
+        }
+    }
+
+    /**
+     * Stops the main searcher and every helper.
+     */
+    private void stopSearchers()
+    {
+        for (Searcher searcher : searchers)
+        {
+            searcher.stop();
+        }
+    }
+
+    /**
+     * Stops the helper threads. The search cannot be used afterwards.
+     */
+    public void shutdown()
+    {
+        helpers.shutdownNow();
+    }
+}
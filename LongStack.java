@@ -0,0 +1,132 @@
+/**
+ * A fixed-capacity stack of longs, for position keys, bitboards and other per-game values on
+ * the hot path of agents and searches.
+ *
+ * Unlike a java.util collection it never boxes its values and never grows: the capacity is
+ * fixed when the stack is built, normally to the number of slots on the board, and pushing past
+ * it is a bug in the caller.
+ */
+public class LongStack
+{
+    private final long[] values;    // the values, bottom first
+    private int size;               // the number of values on the stack
+
+    /**
+     * Creates an empty stack.
+     *
+     * @param capacity The most values the stack will ever hold.
+     */
+    public LongStack(int capacity)
+    {
+        this.values = new long[capacity];
+    }
+
+    /**
+     * Pushes a value.
+     *
+     * @param value The value to push.
+     * @throws IllegalStateException if the stack is full.
+     */
+    public void push(long value)
+    {
+        if (size == values.length)
+        {
+            throw new IllegalStateException("The stack is full (" + values.length + " values).");
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Removes and returns the top value.
+     *
+     * @return the value that was on top.
+     * @throws IllegalStateException if the stack is empty.
+     */
+    public long pop()
+    {
+        if (size == 0)
+        {
+            throw new IllegalStateException("The stack is empty.");
+        }
+        return values[--size];
+    }
+
+    /**
+     * Returns the top value without removing it.
+     *
+     * @return the value on top.
+     * @throws IllegalStateException if the stack is empty.
+     */
+    public long peek()
+    {
+        if (size == 0)
+        {
+            throw new IllegalStateException("The stack is empty.");
+        }
+        return values[size - 1];
+    }
+
+    /**
+     * Returns a value by its position from the bottom of the stack.
+     *
+     * @param index The position, from 0 for the bottom value to size() - 1 for the top.
+     * @return the value.
+     */
+    public long get(int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " of a stack of " + size + ".");
+        }
+        return values[index];
+    }
+
+    /**
+     * Get the number of values on the stack.
+     *
+     * @return the size of the stack.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Check whether the stack is empty.
+     *
+     * @return true if there are no values on the stack.
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Get the most values the stack can hold.
+     *
+     * @return the capacity.
+     */
+    public int capacity()
+    {
+        return values.length;
+    }
+
+    /**
+     * Removes every value.
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * Returns the array backing the stack, bottom value first, for code that reads the values
+     * in bulk. Only the first size() entries are in use; the array must not be changed.
+     *
+     * @return the backing array.
+     */
+    public long[] array()
+    {
+        return values;
+    }
+}
@@ -1,16 +1,50 @@
+import java.nio.file.Paths;
+
 /**
  * The main driver of the program. This file will create the game, create the two agents,
  * and create the window for the game. After that, Connect4Frame runs everything.
+ *
+ * Options:
+ *   --warm             warm up the search engine in the background while the window opens
+ *   --tablebase FILE   let search agents play from an endgame tablebase, opened on first use
+ *   --train            play every agent headless and exit, for recording an AppCDS archive
+ *                      (see WarmStart)
  */
 public class Main
 {
     public static void main(String[] args)
     {
+        boolean warm = false;
+        String tablebase = null;
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--warm"))
+            {
+                warm = true;
+            }
+            else if (args[i].equals("--tablebase") && i + 1 < args.length)
+            {
+                tablebase = args[++i];
+            }
+            else if (args[i].equals("--train"))
+            {
+                WarmStart.train(7, 6);
+                return;
+            }
+        }
+
         Connect4Game game = new Connect4Game(7, 6); 
+        if (warm)
+        {
+            WarmStart.begin(game.getColumnCount(), game.getRowCount(), WarmStart.DEFAULT_WARMUP_MILLIS);
+        }
    
         //Agent redPlayer = new MyAgent(game, true, "Norman Natural");       
         //Agent yellowPlayer = new MyAgent(game, false, "Norman Natural");       
         
+        //Agent redPlayer = new SearchAgent(game, true, "Sam Search");
+        //Agent yellowPlayer = new SearchAgent(game, false, "Sam Search");
+
         Agent redPlayer = new IntermediateAgent(game, true, "Irvine Intermediate"); 
         //Agent yellowPlayer = new IntermediateAgent(game, false, "Irvine Intermediate"); 
         
@@ -19,6 +53,14 @@ public class Main
         
         //Agent redPlayer = new RandomAgent(game, true, "Ronaldo Random");
         Agent yellowPlayer = new RandomAgent(game, false, "Ronaldo Random");
+
+        for (Agent player : new Agent[] {redPlayer, yellowPlayer})
+        {
+            if (tablebase != null && player instanceof SearchAgent)
+            {
+                ((SearchAgent) player).setTablebase(Paths.get(tablebase));
+            }
+        }
         
         Connect4Frame mainframe = new Connect4Frame(game, redPlayer, yellowPlayer);  
     }
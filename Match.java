@@ -0,0 +1,321 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Plays games between two agents without a window, following the same rules as
+ * Connect4Frame: a random player goes first, every move is validated, and the game ends when
+ * gameWon() finds a winner or the board is full.
+ *
+ * Each game can be written as one line of a match record: the colour that played first, the
+ * move sequence in PositionCodec notation and the result, for example "R 4453... Y". The
+ * result is 'R' or 'Y' for the winner, 'D' for a draw, or 'E' if a player made an invalid
+ * move.
+ */
+public class Match
+{
+    private static final char[] RESULTS = {'R', 'Y', 'D', 'E'};  // every result play() can return
+
+    private Connect4Game game;      // the board both agents play on
+    private Agent redPlayer;        // the agent playing the red tokens
+    private Agent yellowPlayer;     // the agent playing the yellow tokens
+    private Random r;               // decides who plays first
+    private IntStack moves;         // the columns played in the last game
+    private boolean redPlayedFirst; // whether red played first in the last game
+    private String error;           // the validation error of the last game, or null
+
+    /**
+     * Creates a match between two agents that were constructed with the given game.
+     *
+     * @param game The game both agents play on.
+     * @param redPlayer The agent playing the red tokens.
+     * @param yellowPlayer The agent playing the yellow tokens.
+     */
+    public Match(Connect4Game game, Agent redPlayer, Agent yellowPlayer)
+    {
+        this.game = game;
+        this.redPlayer = redPlayer;
+        this.yellowPlayer = yellowPlayer;
+        this.r = new Random();
+        this.moves = new IntStack(game.getColumnCount() * game.getRowCount());
+    }
+
+    /**
+     * Get the game the agents play on.
+     *
+     * @return the game of the match.
+     */
+    public Connect4Game getGame()
+    {
+        return game;
+    }
+
+    /**
+     * Replaces the agents of the match. The agents must have been constructed with, or rebound
+     * to, the game of the match with the matching colours.
+     *
+     * @param redPlayer The agent playing the red tokens.
+     * @param yellowPlayer The agent playing the yellow tokens.
+     */
+    public void setPlayers(Agent redPlayer, Agent yellowPlayer)
+    {
+        this.redPlayer = redPlayer;
+        this.yellowPlayer = yellowPlayer;
+    }
+
+    /**
+     * Plays one game, with a random player going first.
+     *
+     * @return 'R' or 'Y' for the winner, 'D' for a draw, 'E' for an invalid move.
+     */
+    public char play()
+    {
+        return play(r.nextBoolean());
+    }
+
+    /**
+     * Plays one game.
+     *
+     * @param redFirst Whether red plays first.
+     * @return 'R' or 'Y' for the winner, 'D' for a draw, 'E' for an invalid move.
+     */
+    public char play(boolean redFirst)
+    {
+        game.clearBoard();
+        game.setRedPlayedFirst(redFirst);
+        redPlayer.reset();
+        yellowPlayer.reset();
+        redPlayedFirst = redFirst;
+        moves.clear();
+        error = null;
+        boolean redTurn = redFirst;
+        while (true)
+        {
+            Connect4Game oldBoard = new Connect4Game(game);
+            if (redTurn)
+            {
+                redPlayer.move();
+            }
+            else
+            {
+                yellowPlayer.move();
+            }
+            String validateResult = oldBoard.validate(game);
+            if (validateResult.length() > 0)
+            {
+                error = validateResult;
+                return 'E';
+            }
+            moves.push(playedColumn(oldBoard, game));
+            redTurn = !redTurn;
+            char won = game.gameWon();
+            if (won != 'N')
+            {
+                return won;
+            }
+            if (game.boardFull())
+            {
+                return 'D';
+            }
+        }
+    }
+
+    /**
+     * Get the columns played in the last game.
+     *
+     * @return the moves; only the first getMoveCount() entries are used.
+     */
+    public int[] getMoves()
+    {
+        return moves.array();
+    }
+
+    /**
+     * Get the number of moves in the last game.
+     *
+     * @return the move count.
+     */
+    public int getMoveCount()
+    {
+        return moves.size();
+    }
+
+    /**
+     * Check whether red played first in the last game.
+     *
+     * @return true if red played first.
+     */
+    public boolean getRedPlayedFirst()
+    {
+        return redPlayedFirst;
+    }
+
+    /**
+     * Get the reason the last game ended with an invalid move.
+     *
+     * @return the validation error, or null if the game ended normally.
+     */
+    public String getError()
+    {
+        return error;
+    }
+
+    /**
+     * Appends the record line of the last game, without a line break.
+     *
+     * @param result The result returned by play().
+     * @param out The builder to append to.
+     */
+    public void appendRecord(char result, StringBuilder out)
+    {
+        out.append(redPlayedFirst ? 'R' : 'Y').append(' ');
+        PositionCodec.formatMoves(moves.array(), moves.size(), out);
+        out.append(' ').append(result);
+    }
+
+    /**
+     * Finds the column that gained a token since an earlier copy of a game.
+     *
+     * @param before The copy of the game before the move.
+     * @param after The game after the move.
+     * @return the column played, or -1 if no slot was filled.
+     */
+    public static int playedColumn(Connect4Game before, Connect4Game after)
+    {
+        int top = after.getRowCount() - 1;
+        for (int i = 0; i < after.getColumnCount(); i++)
+        {
+            for (int j = top; j >= 0; j--)
+            {
+                if (after.getColumn(i).getSlot(j).getIsFilled() != before.getColumn(i).getSlot(j).getIsFilled())
+                {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates one of the project's agents by its short name: random, beginner, intermediate,
+     * my, search, or level1 to level10 for a DifficultyAgent.
+     *
+     * @param kind The short name of the agent.
+     * @param game The game the agent will be playing.
+     * @param iAmRed True if the agent is Red, False if the agent is Yellow.
+     * @return the agent.
+     */
+    public static Agent createAgent(String kind, Connect4Game game, boolean iAmRed)
+    {
+        switch (kind)
+        {
+            case "random":
+                return new RandomAgent(game, iAmRed, "Ronaldo Random");
+            case "beginner":
+                return new BeginnerAgent(game, iAmRed, "Benjamin Beginner");
+            case "intermediate":
+                return new IntermediateAgent(game, iAmRed, "Irvine Intermediate");
+            case "my":
+                return new MyAgent(game, iAmRed, "Norman Natural");
+            case "search":
+                return new SearchAgent(game, iAmRed, "Sam Search", 6);
+            default:
+                if (kind.startsWith("level"))
+                {
+                    return DifficultyAgent.atLevel(game, iAmRed, "Dana Difficulty", Integer.parseInt(kind.substring(5)));
+                }
+                throw new IllegalArgumentException("Unknown agent: " + kind);
+        }
+    }
+
+    /**
+     * Plays a number of games between two agents, writes their records to a file and prints
+     * the results.
+     *
+     * The number of games played, the length of the record file and the results so far are
+     * checkpointed to file.checkpoint every minute, or as often as given. A run started again with a checkpoint
+     * present cuts the record file back to the checkpointed length and plays the remaining
+     * games; the checkpoint is removed when all the games are done.
+     *
+     * Usage: java Match games file [redAgent] [yellowAgent] [checkpointSeconds]
+     *
+     * @param args The number of games, the record file, the short names of the two agents
+     * (default intermediate and random) and the time between checkpoints in seconds (default 60).
+     * @throws IOException if the file or the checkpoint cannot be written.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int games = Integer.parseInt(args[0]);
+        Path file = Paths.get(args[1]);
+        Connect4Game game = new Connect4Game(7, 6);
+        Match match = new Match(game, createAgent(args.length > 2 ? args[2] : "intermediate", game, true),
+            createAgent(args.length > 3 ? args[3] : "random", game, false));
+        Checkpointer checkpoints = new Checkpointer(Paths.get(args[1] + ".checkpoint"));
+        if (args.length > 4)
+        {
+            checkpoints.setInterval(Long.parseLong(args[4]) * 1000);
+        }
+        int played = 0;
+        long bytes = 0;
+        long[] results = new long[128];     // indexed by result character
+        ByteBuffer saved = checkpoints.load();
+        if (saved != null)
+        {
+            played = saved.getInt();
+            bytes = saved.getLong();
+            for (char result : RESULTS)
+            {
+                results[result] = saved.getLong();
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+            {
+                if (channel.size() < bytes)
+                {
+                    throw new IOException(file + " is shorter than its checkpoint.");
+                }
+                channel.truncate(bytes);
+            }
+            System.out.println("Resuming after " + played + " games.");
+        }
+        StringBuilder line = new StringBuilder();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                saved != null ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+            BufferedWriter out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.US_ASCII)))
+        {
+            for (; played < games; played++)
+            {
+                char result = match.play();
+                results[result]++;
+                line.setLength(0);
+                match.appendRecord(result, line);
+                out.append(line).append('\n');
+                bytes += line.length() + 1;
+                if (checkpoints.isDue())
+                {
+                    // the records must reach the disk before a checkpoint counts them, or a crash
+                    // could leave a checkpoint pointing past the end of the file
+                    out.flush();
+                    channel.force(false);
+                    ByteBuffer state = ByteBuffer.allocate(4 + 8 + 8 * RESULTS.length);
+                    state.putInt(played + 1).putLong(bytes);
+                    for (char r : RESULTS)
+                    {
+                        state.putLong(results[r]);
+                    }
+                    checkpoints.submit(state.flip());
+                }
+            }
+        }
+        checkpoints.delete();
+        checkpoints.close();
+        System.out.println("Red " + results['R'] + ", yellow " + results['Y'] + ", drawn " + results['D']
+            + ", invalid " + results['E'] + ".");
+    }
+}
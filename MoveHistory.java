@@ -0,0 +1,407 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Keeps the moves of any number of games in a few bits each, and rebuilds the position after
+ * any ply of any game in near-constant time.
+ *
+ * Moves are packed into longs, 3 bits each on boards of up to 8 columns and 4 bits on boards of
+ * up to 16, so a full 7x6 game takes 16 bytes. Every CHECKPOINT_INTERVAL plies the position
+ * is also saved as its BitBoard.key(), one long, so rebuilding a position starts from the
+ * nearest checkpoint at or before it and replays fewer than CHECKPOINT_INTERVAL moves, however
+ * long the game or however many games are stored.
+ *
+ * Games are added one after the other, and only the last one can be played on or cut back, as
+ * when a player takes back moves and plays differently; earlier games are read-only. The key
+ * after every ply of the last game is kept on a LongStack, so cutting it back pops the stack
+ * instead of replaying moves. A history belongs to a single thread.
+ */
+public class MoveHistory
+{
+    /** The plies between full-board checkpoints. */
+    public static final int CHECKPOINT_INTERVAL = 16;
+
+    private final int columns;          // the number of columns on the board
+    private final int rows;             // the number of rows on the board
+    private final int bits;             // bits per move
+    private final int perWord;          // moves per long
+    private final int moveMask;         // the low bits of a move
+    private long[] moves;               // every move of every game, perWord to a long
+    private long moveCount;             // moves stored in all games
+    private long[] checkpoints;         // the key after every CHECKPOINT_INTERVAL plies of every game
+    private int checkpointCount;        // checkpoints stored in all games
+    private long[] gameStarts;          // the index of the first move of each game
+    private int[] checkpointStarts;     // the index of the first checkpoint of each game
+    private boolean[] redFirst;         // whether red played first in each game
+    private int games;                  // the number of games
+    private final BitBoard tail;        // the position at the end of the last game
+    private final LongStack tailKeys;   // the key after each ply of the last game, from the empty board
+
+    /**
+     * Creates an empty history for boards of a given size.
+     *
+     * @param numCols The number of columns on the board, at most 16.
+     * @param numRows The number of rows on the board.
+     */
+    public MoveHistory(int numCols, int numRows)
+    {
+        if (numCols > 16)
+        {
+            throw new IllegalArgumentException("Moves on " + numCols + " columns do not fit in 4 bits.");
+        }
+        this.columns = numCols;
+        this.rows = numRows;
+        this.bits = numCols <= 8 ? 3 : 4;
+        this.perWord = 64 / bits;
+        this.moveMask = (1 << bits) - 1;
+        this.moves = new long[16];
+        this.checkpoints = new long[16];
+        this.gameStarts = new long[16];
+        this.checkpointStarts = new int[16];
+        this.redFirst = new boolean[16];
+        this.tail = new BitBoard(numCols, numRows);
+        this.tailKeys = new LongStack(numCols * numRows + 1);
+    }
+
+    /**
+     * Get the number of games in the history.
+     *
+     * @return the game count.
+     */
+    public int getGameCount()
+    {
+        return games;
+    }
+
+    /**
+     * Get the number of moves in a game.
+     *
+     * @param game The index of the game.
+     * @return the number of plies played.
+     */
+    public int getLength(int game)
+    {
+        checkGame(game);
+        return (int) ((game + 1 < games ? gameStarts[game + 1] : moveCount) - gameStarts[game]);
+    }
+
+    /**
+     * Check whether red played first in a game.
+     *
+     * @param game The index of the game.
+     * @return true if red played first.
+     */
+    public boolean getRedPlayedFirst(int game)
+    {
+        checkGame(game);
+        return redFirst[game];
+    }
+
+    /**
+     * Returns one move of a game.
+     *
+     * @param game The index of the game.
+     * @param ply The number of moves before it, from 0.
+     * @return the column played.
+     */
+    public int getMove(int game, int ply)
+    {
+        if (ply < 0 || ply >= getLength(game))
+        {
+            throw new IndexOutOfBoundsException("Ply " + ply + " of a game of " + getLength(game) + " moves.");
+        }
+        return move(gameStarts[game] + ply);
+    }
+
+    /**
+     * Starts a new game at the end of the history, which becomes the game that add() and
+     * truncate() work on.
+     *
+     * @param redPlayedFirst Whether red plays first.
+     * @return the index of the game.
+     */
+    public int startGame(boolean redPlayedFirst)
+    {
+        if (games == gameStarts.length)
+        {
+            gameStarts = Arrays.copyOf(gameStarts, games * 2);
+            checkpointStarts = Arrays.copyOf(checkpointStarts, games * 2);
+            redFirst = Arrays.copyOf(redFirst, games * 2);
+        }
+        gameStarts[games] = moveCount;
+        checkpointStarts[games] = checkpointCount;
+        redFirst[games] = redPlayedFirst;
+        tail.set(0, 0, redPlayedFirst);
+        tailKeys.clear();
+        tailKeys.push(tail.key());
+        return games++;
+    }
+
+    /**
+     * Adds a move to the last game.
+     *
+     * @param col The column played, which must be playable.
+     * @throws IllegalStateException if no game has been started.
+     * @throws IllegalArgumentException if the column cannot be played.
+     */
+    public void add(int col)
+    {
+        if (games == 0)
+        {
+            throw new IllegalStateException("No game has been started.");
+        }
+        if (!tail.canPlay(col))
+        {
+            throw new IllegalArgumentException("Column " + col + " cannot be played.");
+        }
+        long index = moveCount;
+        int word = (int) (index / perWord);
+        if (word == moves.length)
+        {
+            moves = Arrays.copyOf(moves, word * 2);
+        }
+        int shift = (int) (index % perWord) * bits;
+        moves[word] = moves[word] & ~((long) moveMask << shift) | (long) col << shift;
+        moveCount++;
+        tail.play(col);
+        tailKeys.push(tail.key());
+        if (tail.getMoveCount() % CHECKPOINT_INTERVAL == 0)
+        {
+            if (checkpointCount == checkpoints.length)
+            {
+                checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+            }
+            checkpoints[checkpointCount++] = tailKeys.peek();
+        }
+    }
+
+    /**
+     * Cuts the last game back to its first moves, so that play can go on from there.
+     *
+     * @param length The number of moves to keep.
+     */
+    public void truncate(int length)
+    {
+        int game = games - 1;
+        if (length < 0 || length > getLength(game))
+        {
+            throw new IndexOutOfBoundsException("Cannot cut a game of " + getLength(game) + " moves to " + length + ".");
+        }
+        moveCount = gameStarts[game] + length;
+        checkpointCount = checkpointStarts[game] + length / CHECKPOINT_INTERVAL;
+        while (tailKeys.size() > length + 1)
+        {
+            tailKeys.pop();
+        }
+        PositionCodec.decodeKey(tailKeys.peek(), tail, redFirst[game] == (length % 2 == 0));
+    }
+
+    /**
+     * Sets a board to the position of a game after a number of moves. The board must be the
+     * size of the history.
+     *
+     * @param game The index of the game.
+     * @param ply The number of moves played, from 0 for the empty board to getLength(game).
+     * @param board The board to set.
+     */
+    public void position(int game, int ply, BitBoard board)
+    {
+        if (ply < 0 || ply > getLength(game))
+        {
+            throw new IndexOutOfBoundsException("Ply " + ply + " of a game of " + getLength(game) + " moves.");
+        }
+        int checkpoint = ply / CHECKPOINT_INTERVAL;
+        int start = checkpoint * CHECKPOINT_INTERVAL;
+        boolean redToMove = redFirst[game] == (start % 2 == 0);
+        if (checkpoint == 0)
+        {
+            board.set(0, 0, redToMove);
+        }
+        else
+        {
+            PositionCodec.decodeKey(checkpoints[checkpointStarts[game] + checkpoint - 1], board, redToMove);
+        }
+        long index = gameStarts[game];
+        for (int i = start; i < ply; i++)
+        {
+            board.play(move(index + i));
+        }
+    }
+
+    /**
+     * Sets a game to the position of a game in the history after a number of moves, including
+     * who played first.
+     *
+     * @param game The index of the game.
+     * @param ply The number of moves played, from 0 for the empty board to getLength(game).
+     * @param board The game to set, of the size of the history.
+     */
+    public void position(int game, int ply, Connect4Game board)
+    {
+        BitBoard bitBoard = new BitBoard(columns, rows);
+        position(game, ply, bitBoard);
+        bitBoard.store(board);
+        board.setRedPlayedFirst(redFirst[game]);
+    }
+
+    /**
+     * Returns roughly how much memory the stored games use.
+     *
+     * @return the bytes used by moves, checkpoints and per-game data.
+     */
+    public long getBytesUsed()
+    {
+        return (moveCount + perWord - 1) / perWord * 8 + checkpointCount * 8L + games * (8L + 4 + 1);
+    }
+
+    /**
+     * Reads a move by its index among all stored moves.
+     */
+    private int move(long index)
+    {
+        return (int) (moves[(int) (index / perWord)] >>> (int) (index % perWord) * bits) & moveMask;
+    }
+
+    /**
+     * Checks that a game exists.
+     */
+    private void checkGame(int game)
+    {
+        if (game < 0 || game >= games)
+        {
+            throw new IndexOutOfBoundsException("Game " + game + " of " + games + ".");
+        }
+    }
+
+    /**
+     * Stores random games, checks that every position rebuilt from the history matches the
+     * game as it was played, and prints the memory used and the time to rebuild positions at
+     * random and to replay every game.
+     *
+     * Usage: java MoveHistory [games]
+     *
+     * @param args The number of games (default 1000000).
+     */
+    public static void main(String[] args)
+    {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        MoveHistory history = new MoveHistory(7, 6);
+        BitBoard board = new BitBoard(7, 6);
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (int g = 0; g < count; g++)
+        {
+            boolean redFirst = random.nextBoolean();
+            history.startGame(redFirst);
+            board.set(0, 0, redFirst);
+            while (!board.isFull())
+            {
+                int col = board.randomMove(random);
+                history.add(col);
+                if (board.isWinningMove(col))
+                {
+                    break;
+                }
+                board.play(col);
+            }
+        }
+        long storeNanos = System.nanoTime() - start;
+        long plies = history.moveCount;
+        System.out.printf("%,d games, %,d moves in %,d bytes (%.1f bytes/game), stored in %.0f ns/game%n", count, plies,
+            history.getBytesUsed(), (double) history.getBytesUsed() / count, (double) storeNanos / count);
+
+        // check a sample of games position by position against a replay from the empty board
+        BitBoard replay = new BitBoard(7, 6);
+        int checked = 0;
+        for (int g = 0; g < count; g += Math.max(1, count / 10000))
+        {
+            replay.set(0, 0, history.getRedPlayedFirst(g));
+            for (int ply = 0; ply <= history.getLength(g); ply++)
+            {
+                history.position(g, ply, board);
+                if (!board.samePosition(replay) || board.isRedToMove() != replay.isRedToMove())
+                {
+                    throw new IllegalStateException("Game " + g + " differs at ply " + ply + ".");
+                }
+                if (ply < history.getLength(g))
+                {
+                    replay.play(history.getMove(g, ply));
+                }
+                checked++;
+            }
+        }
+        System.out.printf("%,d positions checked%n", checked);
+
+        // take back moves of a last game and play on, then check every position against a replay
+        int taken = 0;
+        for (int g = 0; g < 1000; g++)
+        {
+            int game = history.startGame(random.nextBoolean());
+            board.set(0, 0, history.getRedPlayedFirst(game));
+            int takebacks = 0;
+            while (!board.isFull())
+            {
+                int length = history.getLength(game);
+                if (takebacks < 5 && length > 0 && random.nextInt(4) == 0)
+                {
+                    length = random.nextInt(length + 1);
+                    history.truncate(length);
+                    history.position(game, length, board);
+                    takebacks++;
+                    continue;
+                }
+                int col = board.randomMove(random);
+                if (board.isWinningMove(col))
+                {
+                    break;
+                }
+                history.add(col);
+                board.play(col);
+            }
+            taken += takebacks;
+            replay.set(0, 0, history.getRedPlayedFirst(game));
+            for (int ply = 0; ply <= history.getLength(game); ply++)
+            {
+                history.position(game, ply, board);
+                if (!board.samePosition(replay) || board.isRedToMove() != replay.isRedToMove())
+                {
+                    throw new IllegalStateException("Game " + game + " differs at ply " + ply + " after moves were taken back.");
+                }
+                if (ply < history.getLength(game))
+                {
+                    replay.play(history.getMove(game, ply));
+                }
+            }
+        }
+        System.out.printf("%,d takebacks checked%n", taken);
+
+        int lookups = 5000000;
+        long sum = 0;
+        for (int round = 0; round < 2; round++)
+        {
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++)
+            {
+                int g = random.nextInt(count);
+                history.position(g, random.nextInt(history.getLength(g) + 1), board);
+                sum += board.getMask();
+            }
+            if (round == 1)
+            {
+                System.out.printf("Random positions: %.0f ns each%n", (double) (System.nanoTime() - start) / lookups);
+            }
+        }
+
+        start = System.nanoTime();
+        for (int g = 0; g < count; g++)
+        {
+            board.set(0, 0, history.getRedPlayedFirst(g));
+            for (int ply = 0, length = history.getLength(g); ply < length; ply++)
+            {
+                board.play(history.getMove(g, ply));
+            }
+            sum += board.getMask();
+        }
+        System.out.printf("Full replay: %.1f ns/move (checksum %x)%n", (double) (System.nanoTime() - start) / plies, sum);
+    }
+}
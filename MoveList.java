@@ -0,0 +1,148 @@
+/**
+ * A fixed-capacity list of columns, sized to the number of columns on the board, for the
+ * candidate moves of one position.
+ *
+ * The list never boxes and never grows. Searches keep one list per ply and refill it at every
+ * node, so generating and ordering moves allocates nothing.
+ */
+public class MoveList
+{
+    private final int[] moves;  // the columns, in the order they will be tried
+    private int size;           // the number of columns in the list
+
+    /**
+     * Creates an empty list with room for every column of a board.
+     *
+     * @param columns The number of columns on the board.
+     */
+    public MoveList(int columns)
+    {
+        this.moves = new int[columns];
+    }
+
+    /**
+     * Replaces the contents of the list with every playable column of a position, left to right.
+     *
+     * @param board The position.
+     * @return the number of playable columns.
+     */
+    public int generate(BitBoard board)
+    {
+        size = 0;
+        for (int legal = board.legalMoves(); legal != 0; legal &= legal - 1)
+        {
+            moves[size++] = Integer.numberOfTrailingZeros(legal);
+        }
+        return size;
+    }
+
+    /**
+     * Adds a column to the end of the list.
+     *
+     * @param col The column to add.
+     * @throws IllegalStateException if the list is full.
+     */
+    public void add(int col)
+    {
+        if (size == moves.length)
+        {
+            throw new IllegalStateException("The move list is full (" + moves.length + " moves).");
+        }
+        moves[size++] = col;
+    }
+
+    /**
+     * Returns a column by its position in the list.
+     *
+     * @param index The position in the list.
+     * @return the column.
+     */
+    public int get(int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " of a move list of " + size + ".");
+        }
+        return moves[index];
+    }
+
+    /**
+     * Check whether a column is in the list.
+     *
+     * @param col The column to look for.
+     * @return true if the column is in the list.
+     */
+    public boolean contains(int col)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            if (moves[i] == col)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves a column to the front of the list, keeping the order of the others. Does nothing if
+     * the column is not in the list.
+     *
+     * @param col The column to try first.
+     */
+    public void moveToFront(int col)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            if (moves[i] == col)
+            {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = col;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the number of columns in the list.
+     *
+     * @return the size of the list.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Sets the number of columns in use, after the backing array was filled directly.
+     *
+     * @param size The new size, at most the number of columns on the board.
+     */
+    public void setSize(int size)
+    {
+        if (size < 0 || size > moves.length)
+        {
+            throw new IllegalArgumentException("A move list of " + moves.length + " columns cannot hold " + size + " moves.");
+        }
+        this.size = size;
+    }
+
+    /**
+     * Removes every column.
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * Returns the array backing the list, for code such as MoveOrdering that fills or sorts
+     * moves in bulk. Only the first size() entries are in use.
+     *
+     * @return the backing array.
+     */
+    public int[] array()
+    {
+        return moves;
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.Arrays;
+
+/**
+ * Decides the order in which a search tries the columns of a position.
+ *
+ * Alpha-beta search cuts off soonest when the best move is tried first. This class combines
+ * three cheap ways of guessing it: a move suggested by the caller (for example from a
+ * transposition table), two killer moves per ply (recent moves that caused a cutoff at the same
+ * depth of the tree), and a history table of how often each column caused a cutoff for each
+ * side. Columns the heuristics know nothing about are tried from the middle outwards, since
+ * middle columns take part in the most lines.
+ *
+ * An instance belongs to a single search thread.
+ */
+public class MoveOrdering
+{
+    private final int columns;          // the number of columns on the board
+    private final int[] centerOrder;    // the columns from the middle outwards
+    private final int[][] killers;      // two killer moves per ply, -1 when unset
+    private final int[][] history;      // cutoff scores by side to move and column
+
+    /**
+     * Creates the move ordering for boards of the same size as the given board.
+     *
+     * @param board A board of the size to search.
+     */
+    public MoveOrdering(BitBoard board)
+    {
+        this.columns = board.getColumnCount();
+        this.centerOrder = new int[columns];
+        for (int i = 0; i < columns; i++)
+        {
+            // 3, 2, 4, 1, 5, 0, 6 on a 7 column board
+            int offset = (i + 1) / 2;
+            centerOrder[i] = (columns - 1) / 2 + (i % 2 == 0 ? offset : -offset);
+        }
+        int maxPly = columns * board.getRowCount() + 1;
+        this.killers = new int[maxPly][2];
+        this.history = new int[2][columns];
+        clear();
+    }
+
+    /**
+     * Returns the columns from the middle outwards.
+     *
+     * @return the static move order; the array must not be changed.
+     */
+    public int[] getCenterOrder()
+    {
+        return centerOrder;
+    }
+
+    /**
+     * Forgets all killer moves and history scores.
+     */
+    public void clear()
+    {
+        for (int[] slots : killers)
+        {
+            slots[0] = -1;
+            slots[1] = -1;
+        }
+        for (int[] scores : history)
+        {
+            Arrays.fill(scores, 0);
+        }
+    }
+
+    /**
+     * Halves every history score, so that a new search favours what it learns itself while
+     * keeping some of what earlier searches learned.
+     */
+    public void age()
+    {
+        for (int[] scores : history)
+        {
+            for (int i = 0; i < columns; i++)
+            {
+                scores[i] >>= 1;
+            }
+        }
+    }
+
+    /**
+     * Writes the playable columns of a position into an array, most promising first.
+     *
+     * @param board The position being searched.
+     * @param ply The distance from the root of the search.
+     * @param hintMove A column to try first, or -1 for none.
+     * @param moves The array to fill; it must hold getColumnCount() columns.
+     * @return the number of playable columns written.
+     */
+    public int order(BitBoard board, int ply, int hintMove, int[] moves)
+    {
+        int[] sideHistory = history[board.getMoveCount() & 1];
+        int[] plyKillers = killers[ply];
+        int count = 0;
+        if (board.canPlay(hintMove))
+        {
+            moves[count++] = hintMove;
+        }
+        for (int k = 0; k < 2; k++)
+        {
+            int killer = plyKillers[k];
+            if (killer != hintMove && board.canPlay(killer))
+            {
+                moves[count++] = killer;
+            }
+        }
+        int sortFrom = count;
+        for (int col : centerOrder)
+        {
+            if (board.canPlay(col) && col != hintMove && col != plyKillers[0] && col != plyKillers[1])
+            {
+                // insertion sort by history score; the stable sort keeps the middle-out order on ties
+                int score = sideHistory[col];
+                int i = count++;
+                while (i > sortFrom && sideHistory[moves[i - 1]] < score)
+                {
+                    moves[i] = moves[i - 1];
+                    i--;
+                }
+                moves[i] = col;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Records that a move caused a beta cutoff, making it a killer move for its ply and raising
+     * its history score.
+     *
+     * @param board The position in which the move was played.
+     * @param ply The distance from the root of the search.
+     * @param col The column that caused the cutoff.
+     * @param depth The remaining search depth, which deeper cutoffs are weighted by.
+     */
+    public void recordCutoff(BitBoard board, int ply, int col, int depth)
+    {
+        int[] plyKillers = killers[ply];
+        if (plyKillers[0] != col)
+        {
+            plyKillers[1] = plyKillers[0];
+            plyKillers[0] = col;
+        }
+        int[] sideHistory = history[board.getMoveCount() & 1];
+        sideHistory[col] += depth * depth;
+        if (sideHistory[col] > (1 << 24))
+        {
+            age();
+        }
+    }
+}
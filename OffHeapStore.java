@@ -0,0 +1,463 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An open-addressed hash map from position key to a long value, held outside the Java heap so
+ * that it can grow to billions of entries without garbage collection cost.
+ *
+ * Entries are 16 bytes, a key and a value, in direct or memory-mapped byte buffers of up to
+ * 2^26 entries each, so the store is not limited to the 2 GB of a single buffer. Collisions are
+ * resolved by linear probing from the hashed key. Any number of threads may read and insert at
+ * once without locks: a thread claims an empty slot by compare-and-set on its key, first to a
+ * reserved marker, then writes the value, then publishes the real key, so a reader never sees a
+ * key without its value. Entries cannot be removed.
+ *
+ * A store opened on a file keeps its entries there: they are written back by the operating
+ * system, or at once by force(), and the store can be reopened later. The file starts with a
+ * 32-byte header (big-endian): magic, version, capacity, entry count and an open flag, the count
+ * being written by force() and close(). The flag is set while the store is open and cleared by
+ * close(). A file still flagged open when it is opened again was not closed, for example because
+ * the process was killed, so its entry count may be stale and an insert may have stopped between
+ * claiming a slot and publishing its key. Such a file is scanned once on opening: slots left
+ * claimed are emptied again, losing only the inserts that never finished, and the entries are
+ * counted afresh.
+ *
+ * A store in memory counts against the JVM's direct memory limit (-XX:MaxDirectMemorySize,
+ * which defaults to the heap size); a store on a file does not, and can be larger than RAM.
+ *
+ * Keys 0 and -1 are reserved; position keys from BitBoard are never either.
+ */
+public class OffHeapStore implements Closeable
+{
+    static final int MAGIC = 0x43344f48;    // "C4OH"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int OPEN_FLAG_OFFSET = 24;    // where the header's open flag is
+
+    private static final int ENTRY_BYTES = 16;
+    private static final int SEGMENT_SHIFT = 26;    // 2^26 entries, 1 GB per segment
+    private static final long EMPTY = 0;            // the key of an unused slot
+    private static final long CLAIMED = -1;         // the key of a slot whose value is being written
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final ByteBuffer[] segments;    // the entries, 2^SEGMENT_SHIFT per segment
+    private final long mask;                // the capacity minus one
+    private final LongAdder size = new LongAdder();    // the number of keys stored
+    private final FileChannel channel;      // the backing file, or null for memory only
+    private final MappedByteBuffer header;  // the file header, or null
+
+    /**
+     * Creates an empty store in memory.
+     *
+     * @param capacity The number of entries, rounded up to a power of two. Probing slows down as
+     * the store fills, so allow a good margin over the number of keys to be stored.
+     */
+    public OffHeapStore(long capacity)
+    {
+        long entries = roundUp(capacity);
+        this.mask = entries - 1;
+        this.segments = new ByteBuffer[segmentCount(entries)];
+        for (int i = 0; i < segments.length; i++)
+        {
+            segments[i] = ByteBuffer.allocateDirect(segmentBytes(entries, i));
+        }
+        this.channel = null;
+        this.header = null;
+    }
+
+    /**
+     * Maps the entries of a file, recovering it if it was not closed, and flags it open.
+     */
+    private OffHeapStore(FileChannel channel, long entries, long stored) throws IOException
+    {
+        this.channel = channel;
+        this.mask = entries - 1;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        this.segments = new ByteBuffer[segmentCount(entries)];
+        long offset = HEADER_BYTES;
+        for (int i = 0; i < segments.length; i++)
+        {
+            int bytes = segmentBytes(entries, i);
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset, bytes);
+            offset += bytes;
+        }
+        if (header.getInt(OPEN_FLAG_OFFSET) != 0)
+        {
+            stored = recover();
+        }
+        size.add(stored);
+        header.putInt(OPEN_FLAG_OFFSET, 1);
+        header.force();
+    }
+
+    /**
+     * Empties every slot left claimed by an insert that never finished, and counts the keys.
+     */
+    private long recover()
+    {
+        long stored = 0;
+        for (ByteBuffer segment : segments)
+        {
+            for (int offset = 0; offset < segment.capacity(); offset += ENTRY_BYTES)
+            {
+                long key = segment.getLong(offset);
+                if (key == CLAIMED)
+                {
+                    segment.putLong(offset + 8, 0);
+                    segment.putLong(offset, EMPTY);
+                }
+                else if (key != EMPTY)
+                {
+                    stored++;
+                }
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Opens a store kept in a file, creating the file if it does not exist.
+     *
+     * @param file The file to keep the entries in.
+     * @param capacity The number of entries of a new store, rounded up to a power of two; an
+     * existing file keeps its own capacity.
+     * @return the store.
+     * @throws IOException if the file cannot be opened or is not a store.
+     */
+    public static OffHeapStore open(Path file, long capacity) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try
+        {
+            if (channel.size() == 0)
+            {
+                long entries = roundUp(capacity);
+                ByteBuffer start = ByteBuffer.allocate(HEADER_BYTES);
+                start.putInt(MAGIC).putInt(VERSION).putLong(entries).putLong(0).flip();
+                channel.write(start, 0);
+                // extend the file to its full size; the gap reads as zeros, which is empty
+                channel.write(ByteBuffer.allocate(1), HEADER_BYTES + entries * ENTRY_BYTES - 1);
+                return new OffHeapStore(channel, entries, 0);
+            }
+            ByteBuffer start = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(start, 0);
+            start.flip();
+            if (start.remaining() < HEADER_BYTES || start.getInt() != MAGIC || start.getInt() != VERSION)
+            {
+                throw new IOException(file + " is not a version " + VERSION + " position store.");
+            }
+            long entries = start.getLong();
+            long stored = start.getLong();
+            if (Long.bitCount(entries) != 1 || channel.size() < HEADER_BYTES + entries * ENTRY_BYTES)
+            {
+                throw new IOException(file + " is truncated.");
+            }
+            return new OffHeapStore(channel, entries, stored);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up a key.
+     *
+     * @param key The position key.
+     * @param missing The value to return if the key is not stored.
+     * @return the value stored for the key, or missing.
+     */
+    public long get(long key, long missing)
+    {
+        checkKey(key);
+        for (long slot = EndgameTablebase.mix(key) & mask, probes = 0; probes <= mask; slot = (slot + 1) & mask, probes++)
+        {
+            ByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+            int offset = offset(slot);
+            long stored = waitForKey(segment, offset);
+            if (stored == key)
+            {
+                return (long) LONGS.getVolatile(segment, offset + 8);
+            }
+            if (stored == EMPTY)
+            {
+                return missing;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Stores a value for a key, replacing any value already stored.
+     *
+     * @param key The position key.
+     * @param value The value.
+     * @return true if the key was new.
+     * @throws IllegalStateException if the key is new and the store is full.
+     */
+    public boolean put(long key, long value)
+    {
+        return insert(key, value, true);
+    }
+
+    /**
+     * Stores a value for a key unless the key is already stored.
+     *
+     * @param key The position key.
+     * @param value The value.
+     * @return true if the value was stored, false if the key was already there.
+     * @throws IllegalStateException if the key is new and the store is full.
+     */
+    public boolean putIfAbsent(long key, long value)
+    {
+        return insert(key, value, false);
+    }
+
+    /**
+     * Finds the slot of a key, claiming an empty one if the key is new, and stores the value.
+     */
+    private boolean insert(long key, long value, boolean replace)
+    {
+        checkKey(key);
+        for (long slot = EndgameTablebase.mix(key) & mask, probes = 0; probes <= mask; slot = (slot + 1) & mask, probes++)
+        {
+            ByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+            int offset = offset(slot);
+            long stored = waitForKey(segment, offset);
+            if (stored == EMPTY)
+            {
+                if (LONGS.compareAndSet(segment, offset, EMPTY, CLAIMED))
+                {
+                    LONGS.setVolatile(segment, offset + 8, value);
+                    LONGS.setVolatile(segment, offset, key);
+                    size.increment();
+                    return true;
+                }
+                // another thread took the slot first; it may have been for this key
+                stored = waitForKey(segment, offset);
+            }
+            if (stored == key)
+            {
+                if (replace)
+                {
+                    LONGS.setVolatile(segment, offset + 8, value);
+                }
+                return false;
+            }
+        }
+        throw new IllegalStateException("The store is full (" + capacity() + " entries).");
+    }
+
+    /**
+     * Reads the key of a slot, waiting while another thread is still writing its value.
+     */
+    private static long waitForKey(ByteBuffer segment, int offset)
+    {
+        long stored = (long) LONGS.getVolatile(segment, offset);
+        while (stored == CLAIMED)
+        {
+            Thread.onSpinWait();
+            stored = (long) LONGS.getVolatile(segment, offset);
+        }
+        return stored;
+    }
+
+    /**
+     * Get the number of keys stored.
+     *
+     * @return the number of entries in use.
+     */
+    public long size()
+    {
+        return size.sum();
+    }
+
+    /**
+     * Get the number of entries the store can hold.
+     *
+     * @return the capacity.
+     */
+    public long capacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Writes every entry and the entry count to the file. Does nothing for a store in memory.
+     * This must not run while other threads are inserting if the count is to be exact.
+     */
+    public void force()
+    {
+        if (header == null)
+        {
+            return;
+        }
+        header.putLong(16, size());
+        header.force();
+        for (ByteBuffer segment : segments)
+        {
+            ((MappedByteBuffer) segment).force();
+        }
+    }
+
+    /**
+     * Writes the store to its file, if it has one, and closes the file. The store must not be
+     * used afterwards.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    public void close() throws IOException
+    {
+        if (channel != null)
+        {
+            force();
+            header.putInt(OPEN_FLAG_OFFSET, 0);
+            header.force();
+            channel.close();
+        }
+    }
+
+    /**
+     * Rejects the reserved keys.
+     */
+    private static void checkKey(long key)
+    {
+        if (key == EMPTY || key == CLAIMED)
+        {
+            throw new IllegalArgumentException("Key " + key + " is reserved.");
+        }
+    }
+
+    /**
+     * Returns the byte offset of a slot within its segment.
+     */
+    private static int offset(long slot)
+    {
+        return (int) (slot & ((1L << SEGMENT_SHIFT) - 1)) * ENTRY_BYTES;
+    }
+
+    /**
+     * Rounds a capacity up to a power of two, and at least 64.
+     */
+    private static long roundUp(long capacity)
+    {
+        if (capacity > 1L << 40)
+        {
+            throw new IllegalArgumentException("A capacity of " + capacity + " entries is too large.");
+        }
+        return Math.max(64, Long.highestOneBit(Math.max(1, capacity - 1)) << 1);
+    }
+
+    /**
+     * Returns the number of segments holding the given number of entries.
+     */
+    private static int segmentCount(long entries)
+    {
+        return (int) ((entries + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT);
+    }
+
+    /**
+     * Returns the size in bytes of one segment.
+     */
+    private static int segmentBytes(long entries, int segment)
+    {
+        long first = (long) segment << SEGMENT_SHIFT;
+        return (int) (Math.min(entries - first, 1L << SEGMENT_SHIFT) * ENTRY_BYTES);
+    }
+
+    /**
+     * Fills a store with the keys of random positions from several threads, reads them back,
+     * and, if a file is given, closes and reopens it to check that the entries were kept.
+     *
+     * Usage: java OffHeapStore [positions] [threads] [file]
+     *
+     * @param args The number of positions (default 10000000), threads (default: every core)
+     * and an optional file to keep the store in.
+     * @throws Exception if a thread fails or the file cannot be used.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Path file = args.length > 2 ? Path.of(args[2]) : null;
+        long capacity = positions * 2L;
+        OffHeapStore store = file != null ? open(file, capacity) : new OffHeapStore(capacity);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        long start = System.nanoTime();
+        Future<?>[] tasks = new Future<?>[threads];
+        for (int t = 0; t < threads; t++)
+        {
+            int thread = t;
+            tasks[t] = pool.submit(() -> {
+                    // every thread plays the same random games, so most keys are inserted by
+                    // several threads at once
+                    Random random = new Random(1);
+                    Random overlap = new Random(thread);
+                    BitBoard board = new BitBoard(7, 6);
+                    for (int i = 0; i < positions; i++)
+                    {
+                        if (board.isFull() || board.lastMoveWon())
+                        {
+                            board.set(0, 0, true);
+                        }
+                        board.play(board.randomMove(random));
+                        if (i % threads == thread || overlap.nextInt(4) == 0)
+                        {
+                            store.putIfAbsent(board.canonicalKey(), board.getMoveCount());
+                        }
+                    }
+                });
+        }
+        for (Future<?> task : tasks)
+        {
+            task.get();
+        }
+        long inserted = System.nanoTime() - start;
+        pool.shutdown();
+
+        start = System.nanoTime();
+        Random random = new Random(1);
+        BitBoard board = new BitBoard(7, 6);
+        long wrong = 0;
+        for (int i = 0; i < positions; i++)
+        {
+            if (board.isFull() || board.lastMoveWon())
+            {
+                board.set(0, 0, true);
+            }
+            board.play(board.randomMove(random));
+            if (store.get(board.canonicalKey(), -1) != board.getMoveCount())
+            {
+                wrong++;
+            }
+        }
+        long read = System.nanoTime() - start;
+        System.out.printf("%d distinct positions from %d threads: %.1f ns per insert, %.1f ns per read, %d wrong%n",
+            store.size(), threads, (double) inserted / positions, (double) read / positions, wrong);
+
+        if (file != null)
+        {
+            long stored = store.size();
+            store.close();
+            OffHeapStore reopened = open(file, capacity);
+            System.out.println("Reopened " + file + " with " + reopened.size() + " of " + stored + " positions.");
+            reopened.close();
+        }
+    }
+}
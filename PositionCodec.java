@@ -0,0 +1,250 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads and writes positions in compact text and binary forms without creating intermediate
+ * objects, so that large corpora of positions can be loaded quickly.
+ *
+ * Three encodings are supported:
+ * <ul>
+ * <li>a move sequence, one character per move giving the column from 1 (the usual notation,
+ * "4453" is the middle column twice, then the column to its right, then the one to its left);
+ * columns past 9 are written 'A', 'B', and so on;</li>
+ * <li>the 64-bit position key of BitBoard.key(), which describes the position from the point of
+ * view of the player to move;</li>
+ * <li>that key in URL-safe base64, which is always 11 characters.</li>
+ * </ul>
+ * Move sequences can also be stored in a ByteBuffer two moves to a byte.
+ */
+public class PositionCodec
+{
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static
+    {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        for (int i = 0; i < BASE64.length; i++)
+        {
+            BASE64_VALUES[BASE64[i]] = (byte) i;
+        }
+    }
+
+    /**
+     * Returns the column a move character stands for.
+     *
+     * @param c The move character.
+     * @return the column, counted from 0; -1 if the character is not a move.
+     */
+    public static int column(int c)
+    {
+        if (c >= '1' && c <= '9')
+        {
+            return c - '1';
+        }
+        if (c >= 'A' && c <= 'Z')
+        {
+            return c - 'A' + 9;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the character that stands for a move in a column.
+     *
+     * @param col The column, counted from 0.
+     * @return the move character.
+     */
+    public static char moveChar(int col)
+    {
+        return (char) (col < 9 ? '1' + col : 'A' + col - 9);
+    }
+
+    /**
+     * Plays a move sequence on an empty board.
+     *
+     * @param moves The text holding the moves.
+     * @param start The index of the first move.
+     * @param end The index after the last move.
+     * @param board The board to play on; it is emptied first and red moves first.
+     * @return the number of moves played.
+     * @throws IllegalArgumentException if a character is not a move or a move cannot be played.
+     */
+    public static int parseMoves(CharSequence moves, int start, int end, BitBoard board)
+    {
+        board.set(0, 0, true);
+        for (int i = start; i < end; i++)
+        {
+            play(board, column(moves.charAt(i)), i);
+        }
+        return end - start;
+    }
+
+    /**
+     * Plays a move sequence written as text in a buffer, such as a line of a memory mapped log
+     * file, on an empty board. Reading stops at the first character that is not a move.
+     *
+     * @param text The buffer, positioned at the first move; its position is left after the last.
+     * @param board The board to play on; it is emptied first and red moves first.
+     * @return the number of moves played.
+     * @throws IllegalArgumentException if a move cannot be played.
+     */
+    public static int parseMoves(ByteBuffer text, BitBoard board)
+    {
+        board.set(0, 0, true);
+        int count = 0;
+        while (text.hasRemaining())
+        {
+            int col = column(text.get(text.position()));
+            if (col < 0)
+            {
+                break;
+            }
+            play(board, col, text.position());
+            text.position(text.position() + 1);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Appends a move sequence as text.
+     *
+     * @param moves The columns played, counted from 0.
+     * @param count The number of moves.
+     * @param out The builder to append to.
+     */
+    public static void formatMoves(int[] moves, int count, StringBuilder out)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            out.append(moveChar(moves[i]));
+        }
+    }
+
+    /**
+     * Writes a move sequence to a buffer as a move count followed by two moves to a byte.
+     *
+     * @param moves The columns played, counted from 0; each must be below 15.
+     * @param count The number of moves, at most 255.
+     * @param out The buffer to write into.
+     */
+    public static void writeMoves(int[] moves, int count, ByteBuffer out)
+    {
+        out.put((byte) count);
+        for (int i = 0; i < count; i += 2)
+        {
+            int high = i + 1 < count ? moves[i + 1] + 1 : 0;
+            out.put((byte) ((moves[i] + 1) | high << 4));
+        }
+    }
+
+    /**
+     * Plays a move sequence written by writeMoves on an empty board.
+     *
+     * @param in The buffer to read from; its position is left after the sequence.
+     * @param board The board to play on; it is emptied first and red moves first.
+     * @return the number of moves played.
+     * @throws IllegalArgumentException if a move cannot be played.
+     */
+    public static int readMoves(ByteBuffer in, BitBoard board)
+    {
+        board.set(0, 0, true);
+        int count = in.get() & 0xff;
+        for (int i = 0; i < count; i += 2)
+        {
+            int pair = in.get() & 0xff;
+            play(board, (pair & 0xf) - 1, i);
+            if (i + 1 < count)
+            {
+                play(board, (pair >>> 4) - 1, i + 1);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sets a board to the position of a key from BitBoard.key().
+     *
+     * @param key The position key.
+     * @param board A board of the size the key was made for.
+     * @param redToMove Whether red is the player to move, which the key does not record.
+     * @throws IllegalArgumentException if the key is not a valid key for the board size.
+     */
+    public static void decodeKey(long key, BitBoard board, boolean redToMove)
+    {
+        int height = board.getRowCount() + 1;
+        long columnBits = (1L << height) - 1;
+        long current = 0;
+        long mask = 0;
+        for (int i = 0; i < board.getColumnCount(); i++)
+        {
+            int shift = i * height;
+            long column = (key >>> shift) & columnBits;
+            long marker = Long.highestOneBit(column);   // the bit just above the top token
+            if (column == 0)
+            {
+                throw new IllegalArgumentException("Not a position key: " + Long.toHexString(key));
+            }
+            current |= (column ^ marker) << shift;
+            mask |= (marker - 1) << shift;
+        }
+        board.set(current, mask, redToMove);
+    }
+
+    /**
+     * Appends a key in URL-safe base64, most significant bits first.
+     *
+     * @param key The key to write.
+     * @param out The builder to append to.
+     */
+    public static void appendBase64(long key, StringBuilder out)
+    {
+        out.append(BASE64[(int) (key >>> 60)]);
+        for (int shift = 54; shift >= 0; shift -= 6)
+        {
+            out.append(BASE64[(int) (key >>> shift) & 63]);
+        }
+    }
+
+    /**
+     * Reads a key written by appendBase64.
+     *
+     * @param text The text holding the key.
+     * @param start The index of its first character; 11 characters are read.
+     * @return the key.
+     * @throws IllegalArgumentException if a character is not base64, or the first one holds
+     * more than the 4 bits appendBase64 writes there.
+     */
+    public static long parseBase64(CharSequence text, int start)
+    {
+        long key = 0;
+        for (int i = start; i < start + 11; i++)
+        {
+            char c = text.charAt(i);
+            int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0)
+            {
+                throw new IllegalArgumentException("Not base64 at index " + i + ".");
+            }
+            if (i == start && value > 15)
+            {
+                throw new IllegalArgumentException("Key out of range at index " + i + ".");
+            }
+            key = key << 6 | value;
+        }
+        return key;
+    }
+
+    /**
+     * Plays one move of a sequence, checking that it is legal.
+     */
+    private static void play(BitBoard board, int col, int index)
+    {
+        if (!board.canPlay(col))
+        {
+            throw new IllegalArgumentException("Illegal move at index " + index + ".");
+        }
+        board.play(col);
+    }
+}
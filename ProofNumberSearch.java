@@ -0,0 +1,649 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Answers whether the player to move can force a win within a number of plies, using
+ * depth-first proof-number search (df-pn).
+ *
+ * Unlike alpha-beta, proof-number search does not score positions. Every position carries a
+ * proof number, the least number of positions that would have to be shown to be wins to prove
+ * that the attacker (the player to move at the root) wins, and a disproof number, the least
+ * number that would have to be shown not to be to disprove it. The search always expands the
+ * position that is cheapest to decide, so a forced win, or the lack of one, is usually found
+ * after looking at a small fraction of the tree alpha-beta would search. Positions are judged
+ * with ThreatAnalyzer as soon as they are generated: a player with a playable win takes it, a
+ * player facing a playable win must block it, and moves directly below an opponent's threat are
+ * never tried. With four plies or fewer left, the attacker's position is decided from the
+ * threats each of its moves would make, without looking further.
+ *
+ * Memory is bounded by a fixed-size table of proof and disproof numbers, created with the
+ * search and reused by every call. Each entry records whether the player to move was the
+ * attacker, as the numbers mean something else for the other side, so the table stays valid
+ * between calls whichever side is to move at the root. When two positions compete for an entry, the one that took
+ * more work to reach its numbers is kept. A position that has been decided stays decided for
+ * other depths where that still holds: a win within n plies is also a win within more, and the
+ * lack of one is also a lack of one within fewer.
+ *
+ * A search belongs to a single thread and works on boards of one size.
+ */
+public class ProofNumberSearch
+{
+    /** The search ran out of nodes before deciding the position. */
+    public static final int UNKNOWN = 0;
+    /** The player to move can force a win within the given plies. */
+    public static final int WIN = 1;
+    /** The player to move cannot force a win within the given plies. */
+    public static final int NO_WIN = 2;
+
+    static final int INFINITY = (1 << 30) - 1;  // the proof number of a position that cannot be proved
+    private static final int GOAL = -1;         // expand(): the player to move reaches its goal
+    private static final int NO_GOAL = -2;      // expand(): the player to move cannot reach its goal
+
+    private final ThreatAnalyzer threats;   // finds the threats of each position
+    private final int columns;              // the number of columns on the board
+    private final long[] columnMasks;       // the playable bits of each column
+    private final int[] centerOrder;        // the columns from the middle outwards
+    private final long[] keys;              // the canonical key of each entry, or 0 if it is empty
+    private final boolean[] attackers;      // whether the player to move in each entry was the attacker
+    private final int[] proofs;             // the proof number of each entry
+    private final int[] disproofs;          // the disproof number of each entry
+    private final byte[] depths;            // the plies each entry's numbers were worked out for
+    private final int[] work;               // the nodes spent on each entry, to choose what to replace
+    private final int indexMask;            // the number of entries minus one
+    private final MoveList[] moveLists;     // the moves of each ply
+    private final int[][] phis;             // the numbers of the moves of each ply, see mid()
+    private final int[][] deltas;
+    private long nodes;                     // positions visited since the last reset
+    private long nodeLimit = Long.MAX_VALUE;    // the node count at which to give up
+    private boolean stopped;                // set when the node limit is reached
+    private int bestMove;                   // the winning column found by the last search, or -1
+
+    /**
+     * Creates a search for boards of the same size as the given board.
+     *
+     * @param board A board of the size to search.
+     * @param entries The number of positions the table can hold, rounded up to a power of two;
+     * each takes 22 bytes.
+     */
+    public ProofNumberSearch(BitBoard board, int entries)
+    {
+        this.threats = new ThreatAnalyzer(board);
+        this.columns = board.getColumnCount();
+        this.columnMasks = new long[columns];
+        this.centerOrder = new int[columns];
+        for (int i = 0; i < columns; i++)
+        {
+            columnMasks[i] = board.columnMask(i);
+            int offset = (i + 1) / 2;
+            centerOrder[i] = (columns - 1) / 2 + (i % 2 == 0 ? offset : -offset);
+        }
+        int size = 2;
+        while (size < entries && size < (1 << 28))
+        {
+            size <<= 1;
+        }
+        this.keys = new long[size];
+        this.attackers = new boolean[size];
+        this.proofs = new int[size];
+        this.disproofs = new int[size];
+        this.depths = new byte[size];
+        this.work = new int[size];
+        this.indexMask = size - 1;
+        int maxPly = columns * board.getRowCount() + 2;
+        this.moveLists = new MoveList[maxPly];
+        this.phis = new int[maxPly][columns];
+        this.deltas = new int[maxPly][columns];
+        for (int i = 0; i < maxPly; i++)
+        {
+            moveLists[i] = new MoveList(columns);
+        }
+        this.bestMove = -1;
+    }
+
+    /**
+     * Get the number of positions visited since the counter was last reset.
+     *
+     * @return the node count.
+     */
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Resets the node counter to zero.
+     */
+    public void resetNodes()
+    {
+        nodes = 0;
+    }
+
+    /**
+     * Limits the positions each call of solve() may visit, after which it returns UNKNOWN.
+     *
+     * @param limit The node limit, or 0 for no limit.
+     */
+    public void setNodeLimit(long limit)
+    {
+        this.nodeLimit = limit > 0 ? limit : Long.MAX_VALUE;
+    }
+
+    /**
+     * Get the number of positions the table can hold.
+     *
+     * @return the number of entries.
+     */
+    public int capacity()
+    {
+        return indexMask + 1;
+    }
+
+    /**
+     * Empties the table.
+     */
+    public void clear()
+    {
+        Arrays.fill(keys, 0);
+    }
+
+    /**
+     * Get the column that wins, after solve() returned WIN.
+     *
+     * @return the first column of a forced win; -1 if the last search did not find one.
+     */
+    public int getBestMove()
+    {
+        return bestMove;
+    }
+
+    /**
+     * Works out whether the player to move can force a win within a number of plies, counting
+     * its own winning move.
+     *
+     * @param board The position to solve; it is left unchanged.
+     * @param plies The most plies the win may take: 1 for a win on this move, 3 for a win on the
+     * next move whatever the opponent does, and so on.
+     * @return WIN, NO_WIN, or UNKNOWN if the node limit was reached first.
+     */
+    public int solve(BitBoard board, int plies)
+    {
+        bestMove = -1;
+        stopped = false;
+        long limit = nodeLimit;
+        if (limit != Long.MAX_VALUE)
+        {
+            nodeLimit = nodes + limit;
+        }
+        try
+        {
+            if (plies >= 1)
+            {
+                for (int col : centerOrder)
+                {
+                    if (board.canPlay(col) && board.isWinningMove(col))
+                    {
+                        bestMove = col;
+                        return WIN;
+                    }
+                }
+            }
+            long result = mid(board, 0, Math.min(plies, 127), INFINITY, INFINITY);
+            if (phiOf(result) == 0)
+            {
+                return WIN;
+            }
+            return deltaOf(result) == 0 ? NO_WIN : UNKNOWN;
+        }
+        finally
+        {
+            nodeLimit = limit;
+        }
+    }
+
+    /**
+     * Searches below a position until it is decided or its numbers pass the thresholds.
+     *
+     * The numbers are kept from the point of view of the player to move, as phi and delta: at
+     * the attacker's turns phi is the proof number and delta the disproof number, and at the
+     * defender's turns the other way round. A position's phi is then the smallest delta of its
+     * moves and its delta is the sum of their phis, and the move with the smallest delta is
+     * always the one searched next.
+     *
+     * @return phi and delta packed by pack().
+     */
+    private long mid(BitBoard board, int ply, int depth, int thPhi, int thDelta)
+    {
+        nodes++;
+        if (nodes > nodeLimit)
+        {
+            stopped = true;
+        }
+        boolean attacker = (ply & 1) == 0;
+        MoveList moves = moveLists[ply];
+        int count = expand(board, attacker, depth, moves);
+        if (count < 0)
+        {
+            long result = count == GOAL ? pack(0, INFINITY) : pack(INFINITY, 0);
+            store(board.canonicalKey(), attacker, depth, result, 1);
+            return result;
+        }
+        int[] phi = phis[ply];
+        int[] delta = deltas[ply];
+        for (int i = 0; i < count; i++)
+        {
+            int col = moves.get(i);
+            board.play(col);
+            long child = initial(board, ply + 1, depth - 1);
+            board.undo(col);
+            phi[i] = phiOf(child);
+            delta[i] = deltaOf(child);
+        }
+        long start = nodes;
+        int nodePhi;
+        int nodeDelta;
+        while (true)
+        {
+            nodePhi = INFINITY;
+            nodeDelta = 0;
+            int best = 0;
+            int secondDelta = INFINITY;
+            for (int i = 0; i < count; i++)
+            {
+                if (delta[i] < nodePhi)
+                {
+                    secondDelta = nodePhi;
+                    nodePhi = delta[i];
+                    best = i;
+                }
+                else if (delta[i] < secondDelta)
+                {
+                    secondDelta = delta[i];
+                }
+                if (phi[i] == INFINITY || nodeDelta == INFINITY)
+                {
+                    nodeDelta = INFINITY;
+                }
+                else
+                {
+                    nodeDelta = Math.min(INFINITY - 1, nodeDelta + phi[i]);
+                }
+            }
+            if (nodePhi >= thPhi || nodeDelta >= thDelta || stopped)
+            {
+                break;
+            }
+            // the 1 + 1/4 in the second threshold keeps the search from switching back and
+            // forth between two moves of almost equal cost
+            int childThPhi = thDelta - nodeDelta + phi[best];
+            int childThDelta = (int) Math.min(thPhi, secondDelta + (long) secondDelta / 4 + 1);
+            int col = moves.get(best);
+            board.play(col);
+            long child = mid(board, ply + 1, depth - 1, childThPhi, childThDelta);
+            board.undo(col);
+            phi[best] = phiOf(child);
+            delta[best] = deltaOf(child);
+        }
+        if (ply == 0 && nodePhi == 0)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                if (delta[i] == 0)
+                {
+                    bestMove = moves.get(i);
+                    break;
+                }
+            }
+        }
+        long result = pack(nodePhi, nodeDelta);
+        store(board.canonicalKey(), attacker, depth, result, nodes - start + 1);
+        return result;
+    }
+
+    /**
+     * Returns the numbers of a position that has just been generated: from the table if it is
+     * there, otherwise decided at once if ThreatAnalyzer can, otherwise a proof number of 1 and a
+     * disproof number of the moves to refute.
+     */
+    private long initial(BitBoard board, int ply, int depth)
+    {
+        boolean attacker = (ply & 1) == 0;
+        long stored = lookup(board.canonicalKey(), attacker, depth);
+        if (stored != -1)
+        {
+            return stored;
+        }
+        nodes++;
+        int count = expand(board, attacker, depth, moveLists[ply]);
+        if (count == GOAL)
+        {
+            return pack(0, INFINITY);
+        }
+        if (count == NO_GOAL)
+        {
+            return pack(INFINITY, 0);
+        }
+        return pack(1, count);
+    }
+
+    /**
+     * Decides a position from its threats if possible, and otherwise lists the moves worth
+     * trying. The goal of the attacker is to win within depth plies, and the goal of the
+     * defender is to stop that.
+     *
+     * @return GOAL, NO_GOAL, or the number of moves written to the list.
+     */
+    private int expand(BitBoard board, boolean attacker, int depth, MoveList moves)
+    {
+        if (attacker && depth < 1)
+        {
+            return NO_GOAL;
+        }
+        long mask = board.getMask();
+        long playable = threats.playableCells(mask);
+        if ((threats.winningCells(board.getCurrent(), mask) & playable) != 0)
+        {
+            return GOAL;
+        }
+        if (board.isFull())
+        {
+            return attacker ? NO_GOAL : GOAL;
+        }
+        // the attacker needs this move, a reply and another move; the defender only has to
+        // survive until the attacker runs out of moves
+        if (attacker ? depth < 3 : depth < 2)
+        {
+            return attacker ? NO_GOAL : GOAL;
+        }
+        long theirs = threats.winningCells(board.getOpponent(), mask);
+        long forced = theirs & playable;
+        if (Long.bitCount(forced) > 1)
+        {
+            return NO_GOAL;
+        }
+        long cells = forced != 0 ? forced : playable;
+        // dropping a token directly below an opponent's threat hands it the win
+        cells &= ~(theirs >>> 1);
+        if (cells == 0)
+        {
+            return NO_GOAL;
+        }
+        if (attacker && depth <= 4)
+        {
+            return winsInThree(board.getCurrent(), board.getOpponent(), mask, cells) ? GOAL : NO_GOAL;
+        }
+        moves.clear();
+        for (int col : centerOrder)
+        {
+            if ((cells & columnMasks[col]) != 0)
+            {
+                moves.add(col);
+            }
+        }
+        return moves.size();
+    }
+
+    /**
+     * Decides whether the attacker, to move with no playable win, can win with its next move but
+     * one, without generating the positions in between: one of its moves must leave two playable
+     * wins, or one with another win straight above it, or no move for the defender that is not
+     * directly below a win, and must not leave the defender a playable win.
+     */
+    private boolean winsInThree(long mine, long theirs, long mask, long cells)
+    {
+        while (cells != 0)
+        {
+            long cell = cells & -cells;
+            cells ^= cell;
+            long after = mask | cell;
+            long playable = threats.playableCells(after);
+            if ((threats.winningCells(theirs, after) & playable) != 0)
+            {
+                continue;
+            }
+            long wins = threats.winningCells(mine | cell, after);
+            long playableWins = wins & playable;
+            if (Long.bitCount(playableWins) > 1 || (playableWins << 1 & wins) != 0)
+            {
+                return true;
+            }
+            if (playableWins == 0 && playable != 0 && (playable & ~(wins >>> 1)) == 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks up the numbers of a position searched to a depth.
+     *
+     * @return phi and delta packed by pack(), or -1 if the table cannot answer.
+     */
+    private long lookup(long key, boolean attacker, int depth)
+    {
+        int index = index(key);
+        for (int i = index; i <= index + 1; i++)
+        {
+            if (holds(i, key, attacker))
+            {
+                int proof = proofs[i];
+                int disproof = disproofs[i];
+                int stored = depths[i];
+                if ((proof == 0 && stored <= depth) || (disproof == 0 && stored >= depth) || stored == depth)
+                {
+                    return attacker ? pack(proof, disproof) : pack(disproof, proof);
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the numbers of a position, in the entry of its pair that holds the same position,
+     * or else in the one that took less work.
+     */
+    private void store(long key, boolean attacker, int depth, long result, long nodesSpent)
+    {
+        int proof = attacker ? phiOf(result) : deltaOf(result);
+        int disproof = attacker ? deltaOf(result) : phiOf(result);
+        int cost = (int) Math.min(nodesSpent, Integer.MAX_VALUE);
+        int index = index(key);
+        int slot;
+        if (holds(index, key, attacker))
+        {
+            slot = index;
+        }
+        else if (holds(index + 1, key, attacker))
+        {
+            slot = index + 1;
+        }
+        else
+        {
+            slot = work[index] <= work[index + 1] ? index : index + 1;
+        }
+        boolean same = holds(slot, key, attacker);
+        if (same && proof != 0 && disproof != 0 && (proofs[slot] == 0 || disproofs[slot] == 0))
+        {
+            // keep a decided position over undecided numbers for another depth
+            return;
+        }
+        keys[slot] = key;
+        attackers[slot] = attacker;
+        proofs[slot] = proof;
+        disproofs[slot] = disproof;
+        depths[slot] = (byte) depth;
+        work[slot] = same ? Math.max(cost, work[slot]) : cost;
+    }
+
+    /**
+     * Checks whether an entry holds a position with the same player to move as the attacker.
+     */
+    private boolean holds(int entry, long key, boolean attacker)
+    {
+        return keys[entry] == key && attackers[entry] == attacker;
+    }
+
+    /**
+     * Returns the first entry of the pair a key belongs in.
+     */
+    private int index(long key)
+    {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 33) & indexMask & ~1;
+    }
+
+    private static long pack(int phi, int delta)
+    {
+        return ((long) phi << 32) | delta;
+    }
+
+    private static int phiOf(long packed)
+    {
+        return (int) (packed >>> 32);
+    }
+
+    private static int deltaOf(long packed)
+    {
+        return (int) packed;
+    }
+
+    /**
+     * Compares proof-number search with an alpha-beta search of the same depth on random
+     * positions, checking that both give the same answers and that every winning move found
+     * still wins, and printing the nodes and time each needed. The positions are then solved
+     * again without clearing the table in between, each after one of its children, where the
+     * other side is to move, to check that answers kept from other roots are still right.
+     *
+     * Usage: java ProofNumberSearch [positions] [plies...]
+     *
+     * @param args The number of positions (default 200) and the ply limits to try (default 7, 9,
+     * 11 and 13).
+     */
+    public static void main(String[] args)
+    {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int[] limits = {7, 9, 11, 13};
+        if (args.length > 1)
+        {
+            limits = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+            {
+                limits[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        BitBoard board = new BitBoard(7, 6);
+        ProofNumberSearch pns = new ProofNumberSearch(board, 1 << 20);
+        Searcher searcher = new Searcher(board, new ThreatAnalyzer(board), new MoveOrdering(board));
+        TranspositionTable table = new TranspositionTable(1 << 18);
+        searcher.setTranspositionTable(table);
+        for (int plies : limits)
+        {
+            Random random = new Random(plies);
+            long pnsNodes = 0, pnsNanos = 0, abNodes = 0, abNanos = 0;
+            int wins = 0, disagreements = 0, badMoves = 0, reuseErrors = 0;
+            BitBoard[] solved = new BitBoard[positions];
+            int[] answers = new int[positions];
+            for (int p = 0; p < positions; p++)
+            {
+                randomPosition(board, random);
+                solved[p] = new BitBoard(board);
+                pns.clear();
+                long start = System.nanoTime();
+                long before = pns.getNodes();
+                int answer = pns.solve(board, plies);
+                answers[p] = answer;
+                pnsNanos += System.nanoTime() - start;
+                pnsNodes += pns.getNodes() - before;
+
+                table.clear();
+                searcher.resetNodes();
+                // a win within the limit scores at least this much, see Searcher.WIN_SCORE
+                int target = Searcher.WIN_SCORE - board.getMoveCount() - plies;
+                start = System.nanoTime();
+                boolean win = searcher.search(board, plies - 1, target - 1, target, 0) >= target;
+                abNanos += System.nanoTime() - start;
+                abNodes += searcher.getNodes();
+
+                if (win)
+                {
+                    wins++;
+                }
+                if ((answer == WIN) != win)
+                {
+                    disagreements++;
+                }
+                else if (answer == WIN && !board.isWinningMove(pns.getBestMove()))
+                {
+                    int col = pns.getBestMove();
+                    board.play(col);
+                    // the opponent must not be able to score above -target
+                    if (searcher.search(board, plies - 2, -target, -target + 1, 1) > -target)
+                    {
+                        badMoves++;
+                    }
+                    board.undo(col);
+                }
+            }
+
+            pns.clear();
+            for (int p = 0; p < positions; p++)
+            {
+                BitBoard position = solved[p];
+                int col = position.randomMove(random);
+                if (!position.isWinningMove(col))
+                {
+                    position.play(col);
+                    pns.solve(position, plies - 1);
+                    position.undo(col);
+                }
+                if (pns.solve(position, plies) != answers[p])
+                {
+                    reuseErrors++;
+                }
+            }
+            System.out.printf("%2d plies: %d of %d positions won, %d disagreements, %d wrong moves, %d wrong after reuse%n",
+                plies, wins, positions, disagreements, badMoves, reuseErrors);
+            System.out.printf("  proof-number: %,12d nodes %,10.0f us/position%n", pnsNodes, pnsNanos / 1e3 / positions);
+            System.out.printf("  alpha-beta:   %,12d nodes %,10.0f us/position%n", abNodes, abNanos / 1e3 / positions);
+        }
+    }
+
+    /**
+     * Plays random moves from the empty board until reaching a position that is still open and
+     * where the player to move cannot win at once.
+     */
+    private static void randomPosition(BitBoard board, Random random)
+    {
+        while (true)
+        {
+            board.set(0, 0, true);
+            int target = 8 + random.nextInt(17);
+            boolean open = true;
+            for (int i = 0; i < target && open; i++)
+            {
+                int col = board.randomMove(random);
+                if (board.isWinningMove(col))
+                {
+                    open = false;
+                }
+                else
+                {
+                    board.play(col);
+                }
+            }
+            if (!open)
+            {
+                continue;
+            }
+            boolean immediate = false;
+            for (int col = 0; col < board.getColumnCount(); col++)
+            {
+                immediate |= board.canPlay(col) && board.isWinningMove(col);
+            }
+            if (!immediate)
+            {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * A triangular principal variation table: the best line of play found from every ply of a
+ * search, in one flat int array.
+ *
+ * Row p holds the line from ply p onwards. When a move at ply p becomes the best so far, the
+ * line is that move followed by the line already found at ply p + 1, so the root row ends up
+ * holding the whole expected continuation without any allocation during the search.
+ */
+public class PvTable
+{
+    private final int maxPly;       // the deepest ply a line can reach
+    private final int[] lines;      // row p starts at p * maxPly
+    private final int[] lengths;    // the ply at which the line of each row ends
+
+    /**
+     * Creates an empty table.
+     *
+     * @param maxPly The longest line to keep, normally the number of slots on the board.
+     */
+    public PvTable(int maxPly)
+    {
+        this.maxPly = maxPly;
+        this.lines = new int[maxPly * maxPly];
+        this.lengths = new int[maxPly + 1];
+    }
+
+    /**
+     * Empties the line of a ply. Call on entering a node, before its moves are searched.
+     *
+     * @param ply The distance from the root.
+     */
+    public void clear(int ply)
+    {
+        if (ply < maxPly)
+        {
+            lengths[ply] = ply;
+        }
+    }
+
+    /**
+     * Makes a move the best move at a ply, followed by the line found at the next ply.
+     *
+     * @param ply The distance from the root.
+     * @param move The new best column.
+     */
+    public void update(int ply, int move)
+    {
+        if (ply >= maxPly)
+        {
+            return;
+        }
+        int row = ply * maxPly;
+        lines[row + ply] = move;
+        int end = ply + 1;
+        if (ply + 1 < maxPly)
+        {
+            end = Math.max(end, lengths[ply + 1]);
+            System.arraycopy(lines, (ply + 1) * maxPly + ply + 1, lines, row + ply + 1, end - ply - 1);
+        }
+        lengths[ply] = end;
+    }
+
+    /**
+     * Get the number of moves in the line from the root.
+     *
+     * @return the length of the principal variation.
+     */
+    public int length()
+    {
+        return lengths[0];
+    }
+
+    /**
+     * Returns a move of the line from the root.
+     *
+     * @param index The position in the line, from 0 for the root move.
+     * @return the column.
+     */
+    public int get(int index)
+    {
+        if (index < 0 || index >= lengths[0])
+        {
+            throw new IndexOutOfBoundsException("Move " + index + " of a line of " + lengths[0] + ".");
+        }
+        return lines[index];
+    }
+
+    /**
+     * Copies the line from the root into a stack, replacing its contents.
+     *
+     * @param out The stack to fill.
+     */
+    public void copyTo(IntStack out)
+    {
+        out.clear();
+        for (int i = 0; i < lengths[0]; i++)
+        {
+            out.push(lines[i]);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Plays the moves chosen by an agent running in another process, reached through a
+ * RemoteAgentClient.
+ */
+public class RemoteAgent extends Agent
+{
+    /** How long move() waits for the server when no other timeout is set. */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 60000;
+
+    private RemoteAgentClient client;   // the connection to the agent server
+    private int gameId;                 // identifies this game on the shared connection
+    private long timeoutMillis;         // how long to wait for a move
+
+    /**
+     * Constructs a new agent, giving it the game, the connection to ask for moves on, and
+     * telling it whether it is Red or Yellow.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed True if the agent is Red, False if the agent is Yellow.
+     * @param theName The name of the agent.
+     * @param client The connection to the agent server, which may be shared with other games.
+     * @param gameId The id of this game on the connection.
+     */
+    public RemoteAgent(Connect4Game game, boolean iAmRed, String theName, RemoteAgentClient client, int gameId)
+    {
+        super(game, iAmRed, theName);
+        this.client = client;
+        this.gameId = gameId;
+        this.timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Sets how long move() waits for the server before playing a random move instead.
+     *
+     * @param millis The timeout in milliseconds.
+     */
+    public void setTimeout(long millis)
+    {
+        this.timeoutMillis = millis;
+    }
+
+    /**
+     * Asks the server for a move and plays it, or plays a random move if the server does not
+     * give a playable column in time or the connection fails.
+     */
+    public void move()
+    {
+        int col;
+        try
+        {
+            col = client.requestMove(gameId, new BitBoard(myGame)).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException | TimeoutException e)
+        {
+            col = -1;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            col = -1;
+        }
+        if (col < 0 || col >= myGame.getColumnCount() || myGame.getColumn(col).getIsFull())
+        {
+            col = randomMove();
+        }
+        moveOnColumn(col);
+    }
+}
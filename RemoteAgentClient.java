@@ -0,0 +1,346 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One connection to a RemoteAgentServer, shared by any number of games and threads.
+ *
+ * requestMove() never blocks: it adds the request to a pending buffer and returns a future for
+ * the column. A selector thread writes everything pending in one go, so requests from many
+ * games are pipelined and batched on the wire, and completes each future when its reply comes
+ * back.
+ */
+public class RemoteAgentClient implements Closeable
+{
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final SocketChannel channel;    // the connection to the server
+    private final Selector selector;        // watches the connection
+    private final Thread loop;              // runs the selector loop
+    private final ConcurrentHashMap<Integer, CompletableFuture<Integer>> waiting;   // futures by request id
+    private final AtomicInteger nextRequestId;
+    private final Object pendingLock;       // guards pending
+    private ByteBuffer pending;             // requests not yet handed to the selector thread
+    private ByteBuffer out;                 // requests being written, selector thread only
+    private ByteBuffer in;                  // replies being read, selector thread only
+    private volatile boolean running;       // cleared to stop the loop
+
+    /**
+     * Connects to a server.
+     *
+     * @param address The address of the server, TCP or Unix domain socket.
+     * @throws IOException if the connection fails.
+     */
+    public RemoteAgentClient(SocketAddress address) throws IOException
+    {
+        if (address instanceof UnixDomainSocketAddress)
+        {
+            this.channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+        else
+        {
+            this.channel = SocketChannel.open();
+        }
+        channel.connect(address);
+        channel.configureBlocking(false);
+        this.selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        this.waiting = new ConcurrentHashMap<>();
+        this.nextRequestId = new AtomicInteger();
+        this.pendingLock = new Object();
+        this.pending = ByteBuffer.allocate(BUFFER_BYTES);
+        this.out = ByteBuffer.allocate(BUFFER_BYTES);
+        this.in = ByteBuffer.allocate(BUFFER_BYTES);
+        this.running = true;
+        this.loop = new Thread(this::run, "remote-agent-client");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    /**
+     * Asks the server for the move to play in a position.
+     *
+     * @param gameId The game the position belongs to.
+     * @param board The position; it is encoded before this method returns.
+     * @return a future for the column to play, or -1 if the server did not choose one. The
+     * future fails if the connection breaks.
+     */
+    public CompletableFuture<Integer> requestMove(int gameId, BitBoard board)
+    {
+        CompletableFuture<Integer> reply = new CompletableFuture<>();
+        if (!running)
+        {
+            reply.completeExceptionally(new IOException("The connection is closed."));
+            return reply;
+        }
+        int requestId = nextRequestId.incrementAndGet();
+        waiting.put(requestId, reply);
+        if (!running)
+        {
+            // the loop stopped after the check above, and may already have failed the waiting
+            // requests without this one
+            if (waiting.remove(requestId) != null)
+            {
+                reply.completeExceptionally(new IOException("The connection is closed."));
+            }
+            return reply;
+        }
+        synchronized (pendingLock)
+        {
+            pending = RemoteProtocol.ensureRemaining(pending, RemoteProtocol.REQUEST_FRAME_BYTES);
+            RemoteProtocol.writeMoveRequest(pending, gameId, requestId, board);
+        }
+        selector.wakeup();
+        return reply;
+    }
+
+    /**
+     * Closes the connection. Requests still waiting for a reply fail.
+     */
+    public void close() throws IOException
+    {
+        running = false;
+        selector.wakeup();
+        try
+        {
+            loop.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        selector.close();
+        failAll(new IOException("The connection is closed."));
+    }
+
+    /**
+     * The selector loop.
+     */
+    private void run()
+    {
+        SelectionKey key = channel.keyFor(selector);
+        try
+        {
+            while (running)
+            {
+                selector.select();
+                selector.selectedKeys().clear();
+                synchronized (pendingLock)
+                {
+                    if (pending.position() > 0)
+                    {
+                        out = RemoteProtocol.ensureRemaining(out, pending.position());
+                        pending.flip();
+                        out.put(pending);
+                        pending.clear();
+                    }
+                }
+                if (out.position() > 0)
+                {
+                    out.flip();
+                    channel.write(out);
+                    out.compact();
+                }
+                key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                if (channel.read(in) < 0)
+                {
+                    throw new IOException("The server closed the connection.");
+                }
+                readReplies();
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            running = false;
+            failAll(e);
+        }
+    }
+
+    /**
+     * Completes the futures of every complete reply in the input buffer.
+     */
+    private void readReplies()
+    {
+        in.flip();
+        int length;
+        while ((length = RemoteProtocol.completeFrame(in)) > 0)
+        {
+            if (RemoteProtocol.type(in) == RemoteProtocol.MOVE_REPLY)
+            {
+                CompletableFuture<Integer> reply = waiting.remove(RemoteProtocol.requestId(in));
+                if (reply != null)
+                {
+                    reply.complete(RemoteProtocol.column(in));
+                }
+            }
+            in.position(in.position() + length);
+        }
+        in.compact();
+    }
+
+    /**
+     * Fails every request still waiting for a reply.
+     */
+    private void failAll(Exception cause)
+    {
+        for (Integer requestId : waiting.keySet())
+        {
+            CompletableFuture<Integer> reply = waiting.remove(requestId);
+            if (reply != null)
+            {
+                reply.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * Checks a client against a stand-in server in the same process, over TCP and over a Unix
+     * domain socket, and prints how long the requests took.
+     *
+     * Each run sends one request for the empty board, which the stand-in takes a second to
+     * answer, then pipelines ten rounds of moves for many games on the same connection. Every
+     * reply must be the column the stand-in picks, and the rounds must finish before the slow
+     * reply, showing that one slow search holds up no other game. A RemoteAgent then plays a
+     * whole game through the same connection, and a request made after the client is closed
+     * must fail at once.
+     *
+     * Usage: java RemoteAgentClient [games]
+     *
+     * @param args The number of games to pipeline (default 500).
+     * @throws Exception if a check fails or the connections cannot be made.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        Path directory = Files.createTempDirectory("remote-agent");
+        Path socket = directory.resolve("c4.sock");
+        SocketAddress[] addresses = {new InetSocketAddress("127.0.0.1", 0), UnixDomainSocketAddress.of(socket)};
+        for (SocketAddress address : addresses)
+        {
+            RemoteAgentServer server = new RemoteAgentServer(address, board -> {
+                    if (board.getMoveCount() == 0)
+                    {
+                        try
+                        {
+                            Thread.sleep(1000);     // a slow search
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return standIn(board);
+                }, 2);
+            RemoteAgentClient client = new RemoteAgentClient(server.getLocalAddress());
+            CompletableFuture<Integer> slow = client.requestMove(-1, new BitBoard(7, 6));
+
+            BitBoard[] boards = new BitBoard[games];
+            for (int i = 0; i < games; i++)
+            {
+                boards[i] = new BitBoard(7, 6);
+                boards[i].play(i % 7);
+            }
+            long start = System.nanoTime();
+            int moves = 0;
+            for (int round = 0; round < 10; round++)
+            {
+                List<CompletableFuture<Integer>> replies = new ArrayList<>();
+                for (int i = 0; i < games; i++)
+                {
+                    replies.add(client.requestMove(i, boards[i]));
+                }
+                for (int i = 0; i < games; i++)
+                {
+                    int col = replies.get(i).get();
+                    if (col != standIn(boards[i]))
+                    {
+                        throw new IllegalStateException("Game " + i + " got column " + col + ".");
+                    }
+                    if (col >= 0 && !boards[i].isWinningMove(col))
+                    {
+                        boards[i].play(col);
+                    }
+                    moves++;
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            if (slow.isDone())
+            {
+                throw new IllegalStateException("The other games waited for the slow search.");
+            }
+            if (slow.get() != standIn(new BitBoard(7, 6)))
+            {
+                throw new IllegalStateException("The slow search got the wrong column.");
+            }
+            System.out.printf("%s: %,d moves for %d games in %.1f ms, %d batches, slow reply not waited for%n",
+                address instanceof UnixDomainSocketAddress ? "Unix socket" : "TCP", moves, games, nanos / 1e6,
+                server.getBatches());
+
+            Connect4Game game = new Connect4Game(7, 6);
+            game.setRedPlayedFirst(true);
+            Match match = new Match(game, new RemoteAgent(game, true, "Rita Remote", client, games),
+                new RandomAgent(game, false, "Ronaldo Random"));
+            char result = match.play(true);
+            if (result == 'E')
+            {
+                throw new IllegalStateException("The remote agent made an invalid move: " + match.getError());
+            }
+            System.out.println("  a remote agent played a game of " + match.getMoveCount() + " moves, result " + result);
+
+            client.close();
+            try
+            {
+                client.requestMove(0, boards[0]).get();
+                throw new IllegalStateException("A request on a closed client did not fail.");
+            }
+            catch (ExecutionException e)
+            {
+                // expected
+            }
+            server.close();
+        }
+        Files.deleteIfExists(socket);
+        Files.delete(directory);
+    }
+
+    /**
+     * The stand-in server's move: a winning column if there is one, or else a playable column
+     * picked from the move count.
+     */
+    private static int standIn(BitBoard board)
+    {
+        int columns = board.getColumnCount();
+        for (int col = 0; col < columns; col++)
+        {
+            if (board.canPlay(col) && board.isWinningMove(col))
+            {
+                return col;
+            }
+        }
+        for (int i = 0; i < columns; i++)
+        {
+            int col = (board.getMoveCount() + i) % columns;
+            if (board.canPlay(col))
+            {
+                return col;
+            }
+        }
+        return -1;
+    }
+}
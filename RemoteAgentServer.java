@@ -0,0 +1,413 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Serves moves over the RemoteProtocol to any number of RemoteAgentClients.
+ *
+ * The server runs one non-blocking selector loop on its own thread, which only reads requests
+ * and writes replies. Moves are chosen by a function from position to column, called on a pool
+ * of search threads, so a slow search holds up no other connection and no other request; it can
+ * be a real search or a trivial stand-in for tests. The search threads queue their replies for
+ * the selector thread, which writes every reply that is ready for a connection in one go, so
+ * pipelined requests from many games are answered in batches. With one search thread, the
+ * default, the function is never called from two threads at once.
+ *
+ * The server listens on TCP for an InetSocketAddress and on a Unix domain socket for a
+ * UnixDomainSocketAddress.
+ */
+public class RemoteAgentServer implements Closeable
+{
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final ServerSocketChannel server;       // accepts connections
+    private final Selector selector;                // watches every channel
+    private final ToIntFunction<BitBoard> chooser;  // picks the column for a position
+    private final ExecutorService searches;         // calls the chooser off the selector thread
+    private final Queue<Reply> replies;             // replies ready to be written, from the search threads
+    private final Thread loop;                      // runs the selector loop
+    private volatile boolean running;               // cleared to stop the loop
+    private volatile long requests;                 // move requests answered so far
+    private volatile long batches;                  // groups of replies written together
+
+    /**
+     * One column chosen by a search thread, waiting to be written.
+     */
+    private static final class Reply
+    {
+        final SelectionKey key;     // the connection the request came on
+        final int gameId;
+        final int requestId;
+        final int column;
+
+        Reply(SelectionKey key, int gameId, int requestId, int column)
+        {
+            this.key = key;
+            this.gameId = gameId;
+            this.requestId = requestId;
+            this.column = column;
+        }
+    }
+
+    /**
+     * Starts a server with one search thread.
+     *
+     * @param address The address to listen on.
+     * @param chooser Returns the column to play in a position, or -1 for none.
+     * @throws IOException if the server cannot listen on the address.
+     */
+    public RemoteAgentServer(SocketAddress address, ToIntFunction<BitBoard> chooser) throws IOException
+    {
+        this(address, chooser, 1);
+    }
+
+    /**
+     * Starts a server.
+     *
+     * @param address The address to listen on.
+     * @param chooser Returns the column to play in a position, or -1 for none; it must be safe
+     * to call from several threads at once if there is more than one search thread.
+     * @param threads The number of search threads.
+     * @throws IOException if the server cannot listen on the address.
+     */
+    public RemoteAgentServer(SocketAddress address, ToIntFunction<BitBoard> chooser, int threads) throws IOException
+    {
+        this.chooser = chooser;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.searches = Executors.newFixedThreadPool(threads, task -> {
+                Thread thread = new Thread(task, "remote-agent-search-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.replies = new ConcurrentLinkedQueue<>();
+        this.selector = Selector.open();
+        if (address instanceof UnixDomainSocketAddress)
+        {
+            this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+        else
+        {
+            this.server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.running = true;
+        this.loop = new Thread(this::run, "remote-agent-server");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    /**
+     * Get the address the server is listening on, including the port picked for port 0.
+     *
+     * @return the local address.
+     * @throws IOException if the server is closed.
+     */
+    public SocketAddress getLocalAddress() throws IOException
+    {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * Get the number of move requests answered so far.
+     *
+     * @return the request count.
+     */
+    public long getRequests()
+    {
+        return requests;
+    }
+
+    /**
+     * Get the number of batches the requests were answered in.
+     *
+     * @return the batch count.
+     */
+    public long getBatches()
+    {
+        return batches;
+    }
+
+    /**
+     * Stops the server and closes every connection. Searches still running are interrupted and
+     * their replies dropped.
+     */
+    public void close() throws IOException
+    {
+        running = false;
+        searches.shutdownNow();
+        selector.wakeup();
+        try
+        {
+            loop.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys())
+        {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    /**
+     * The selector loop.
+     */
+    private void run()
+    {
+        while (running)
+        {
+            try
+            {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try
+                    {
+                        if (key.isAcceptable())
+                        {
+                            accept();
+                        }
+                        else
+                        {
+                            if (key.isReadable())
+                            {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable())
+                            {
+                                flush(key);
+                            }
+                        }
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        // a broken connection only affects its own games
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+                writeReplies();
+            }
+            catch (IOException e)
+            {
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * Accepts a new connection.
+     */
+    private void accept() throws IOException
+    {
+        SocketChannel channel = server.accept();
+        if (channel != null)
+        {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new ByteBuffer[] {
+                ByteBuffer.allocate(BUFFER_BYTES), ByteBuffer.allocate(BUFFER_BYTES) });
+        }
+    }
+
+    /**
+     * Reads what has arrived on a connection and hands every complete request to a search
+     * thread.
+     */
+    private void read(SelectionKey key) throws IOException
+    {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer in = ((ByteBuffer[]) key.attachment())[0];
+        if (channel.read(in) < 0)
+        {
+            key.cancel();
+            channel.close();
+            return;
+        }
+        in.flip();
+        int length;
+        while ((length = RemoteProtocol.completeFrame(in)) > 0)
+        {
+            if (RemoteProtocol.type(in) == RemoteProtocol.MOVE_REQUEST)
+            {
+                submit(key, in);
+            }
+            in.position(in.position() + length);
+        }
+        in.compact();
+    }
+
+    /**
+     * Decodes the request at the buffer's position and starts the search for it.
+     */
+    private void submit(SelectionKey key, ByteBuffer in)
+    {
+        int gameId = RemoteProtocol.gameId(in);
+        int requestId = RemoteProtocol.requestId(in);
+        BitBoard board;
+        try
+        {
+            int size = RemoteProtocol.boardSize(in);
+            board = new BitBoard(size >>> 8, size & 0xff);
+            RemoteProtocol.readPosition(in, board);
+        }
+        catch (RuntimeException e)
+        {
+            replies.add(new Reply(key, gameId, requestId, -1));
+            return;
+        }
+        try
+        {
+            searches.execute(() -> {
+                    replies.add(new Reply(key, gameId, requestId, choose(board)));
+                    selector.wakeup();
+                });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the server is closing
+        }
+    }
+
+    /**
+     * Picks the column for a position, on a search thread.
+     */
+    private int choose(BitBoard board)
+    {
+        try
+        {
+            return chooser.applyAsInt(board);
+        }
+        catch (RuntimeException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the replies the search threads have finished, all of a connection's together.
+     */
+    private void writeReplies() throws IOException
+    {
+        Set<SelectionKey> written = new HashSet<>();
+        long answered = 0;
+        Reply reply;
+        while ((reply = replies.poll()) != null)
+        {
+            if (reply.key.isValid())
+            {
+                ByteBuffer[] buffers = (ByteBuffer[]) reply.key.attachment();
+                buffers[1] = RemoteProtocol.ensureRemaining(buffers[1], RemoteProtocol.REPLY_FRAME_BYTES);
+                RemoteProtocol.writeMoveReply(buffers[1], reply.gameId, reply.requestId, reply.column);
+                written.add(reply.key);
+                answered++;
+            }
+        }
+        if (answered > 0)
+        {
+            requests += answered;
+            batches += written.size();
+        }
+        for (SelectionKey key : written)
+        {
+            try
+            {
+                flush(key);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                key.cancel();
+                key.channel().close();
+            }
+        }
+    }
+
+    /**
+     * Writes as much of a connection's pending replies as the channel takes, and watches for
+     * the channel becoming writable again if some are left.
+     */
+    private void flush(SelectionKey key) throws IOException
+    {
+        ByteBuffer out = ((ByteBuffer[]) key.attachment())[1];
+        out.flip();
+        ((SocketChannel) key.channel()).write(out);
+        out.compact();
+        key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Turns a command line address into a socket address: "unix:path" for a Unix domain socket,
+     * "host:port" or just "port" for TCP.
+     *
+     * @param text The address to parse.
+     * @return the socket address.
+     */
+    public static SocketAddress parseAddress(String text)
+    {
+        if (text.startsWith("unix:"))
+        {
+            return UnixDomainSocketAddress.of(text.substring(5));
+        }
+        int colon = text.lastIndexOf(':');
+        if (colon < 0)
+        {
+            return new InetSocketAddress(Integer.parseInt(text));
+        }
+        return new InetSocketAddress(text.substring(0, colon), Integer.parseInt(text.substring(colon + 1)));
+    }
+
+    /**
+     * Serves moves from serial alpha-beta searches, one per search thread and board size,
+     * until the process is killed.
+     *
+     * Usage: java RemoteAgentServer address [depth] [threads]
+     *
+     * @param args The address to listen on (see parseAddress), the search depth and the number
+     * of search threads (default one per processor).
+     * @throws Exception if the server cannot be started.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : SearchAgent.DEFAULT_DEPTH;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        ThreadLocal<Map<Integer, SearchStrategy>> perThread = ThreadLocal.withInitial(HashMap::new);
+        RemoteAgentServer server = new RemoteAgentServer(parseAddress(args[0]), board -> {
+                Map<Integer, SearchStrategy> searches = perThread.get();
+                SearchStrategy search = searches.get(board.getColumnCount() << 8 | board.getRowCount());
+                if (search == null)
+                {
+                    search = new SerialSearch(board, new WindowEvaluator(board), new TranspositionTable(1 << 20));
+                    searches.put(board.getColumnCount() << 8 | board.getRowCount(), search);
+                }
+                return search.bestMove(board, depth, 0);
+            }, threads);
+        System.out.println("Serving moves on " + server.getLocalAddress());
+        Thread.currentThread().join();
+    }
+}
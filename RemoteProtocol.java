@@ -0,0 +1,170 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol spoken between a RemoteAgentClient and a RemoteAgentServer.
+ *
+ * Every message is a frame: an int giving the number of bytes that follow, a type byte, the id
+ * of the game the message belongs to and the id of the request it answers. Many games share
+ * one connection, and the client may send many requests before any reply arrives; replies may
+ * come back in any order and are matched to requests by their ids.
+ *
+ * A move request carries the board size, whether red is to move, and the position as the two
+ * longs of a BitBoard: the tokens of the player to move and the mask of occupied slots. A move
+ * reply carries the column to play, or -1 if the server could not choose one.
+ *
+ * All numbers are big-endian.
+ */
+public class RemoteProtocol
+{
+    /** A request for the move to play in a position. */
+    public static final byte MOVE_REQUEST = 1;
+    /** The column chosen for a move request. */
+    public static final byte MOVE_REPLY = 2;
+
+    /** The bytes of a frame header after the length: type, game id and request id. */
+    public static final int HEADER_BYTES = 1 + 4 + 4;
+    /** The bytes of a whole move request frame, length included. */
+    public static final int REQUEST_FRAME_BYTES = 4 + HEADER_BYTES + 3 + 16;
+    /** The bytes of a whole move reply frame, length included. */
+    public static final int REPLY_FRAME_BYTES = 4 + HEADER_BYTES + 1;
+
+    /**
+     * Writes a move request frame.
+     *
+     * @param buffer The buffer to write into; it must have REQUEST_FRAME_BYTES remaining.
+     * @param gameId The game the position belongs to.
+     * @param requestId The id the reply will carry.
+     * @param board The position to move in.
+     */
+    public static void writeMoveRequest(ByteBuffer buffer, int gameId, int requestId, BitBoard board)
+    {
+        buffer.putInt(REQUEST_FRAME_BYTES - 4);
+        buffer.put(MOVE_REQUEST).putInt(gameId).putInt(requestId);
+        buffer.put((byte) board.getColumnCount()).put((byte) board.getRowCount());
+        buffer.put((byte) (board.isRedToMove() ? 1 : 0));
+        buffer.putLong(board.getCurrent()).putLong(board.getMask());
+    }
+
+    /**
+     * Writes a move reply frame.
+     *
+     * @param buffer The buffer to write into; it must have REPLY_FRAME_BYTES remaining.
+     * @param gameId The game the reply belongs to.
+     * @param requestId The id of the request being answered.
+     * @param column The column to play, or -1 if none was chosen.
+     */
+    public static void writeMoveReply(ByteBuffer buffer, int gameId, int requestId, int column)
+    {
+        buffer.putInt(REPLY_FRAME_BYTES - 4);
+        buffer.put(MOVE_REPLY).putInt(gameId).putInt(requestId);
+        buffer.put((byte) column);
+    }
+
+    /**
+     * Returns a buffer in write mode with room for at least the given number of bytes: the
+     * buffer itself if it has room, otherwise a larger copy of it.
+     *
+     * @param buffer A buffer in write mode.
+     * @param bytes The number of bytes about to be written.
+     * @return a buffer with room for them.
+     */
+    public static ByteBuffer ensureRemaining(ByteBuffer buffer, int bytes)
+    {
+        if (buffer.remaining() >= bytes)
+        {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        return larger.put(buffer);
+    }
+
+    /**
+     * Returns the length of the frame at the buffer's position, including its length field, if
+     * the whole frame has arrived.
+     *
+     * @param buffer A buffer in read mode.
+     * @return the frame length; 0 if the frame is not complete yet.
+     */
+    public static int completeFrame(ByteBuffer buffer)
+    {
+        if (buffer.remaining() < 4)
+        {
+            return 0;
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length < HEADER_BYTES || length > 1 << 16)
+        {
+            throw new IllegalStateException("Bad frame length " + length + ".");
+        }
+        return buffer.remaining() >= 4 + length ? 4 + length : 0;
+    }
+
+    /**
+     * Returns the type of the frame at the buffer's position.
+     *
+     * @param buffer A buffer positioned at a complete frame.
+     * @return the frame type.
+     */
+    public static byte type(ByteBuffer buffer)
+    {
+        return buffer.get(buffer.position() + 4);
+    }
+
+    /**
+     * Returns the game id of the frame at the buffer's position.
+     *
+     * @param buffer A buffer positioned at a complete frame.
+     * @return the game id.
+     */
+    public static int gameId(ByteBuffer buffer)
+    {
+        return buffer.getInt(buffer.position() + 5);
+    }
+
+    /**
+     * Returns the request id of the frame at the buffer's position.
+     *
+     * @param buffer A buffer positioned at a complete frame.
+     * @return the request id.
+     */
+    public static int requestId(ByteBuffer buffer)
+    {
+        return buffer.getInt(buffer.position() + 9);
+    }
+
+    /**
+     * Returns the board size of a move request, packed as columns * 256 + rows.
+     *
+     * @param buffer A buffer positioned at a complete move request.
+     * @return the packed board size.
+     */
+    public static int boardSize(ByteBuffer buffer)
+    {
+        int at = buffer.position() + 4 + HEADER_BYTES;
+        return (buffer.get(at) & 0xff) << 8 | (buffer.get(at + 1) & 0xff);
+    }
+
+    /**
+     * Reads the position of a move request into a board of the right size.
+     *
+     * @param buffer A buffer positioned at a complete move request.
+     * @param board The board to fill.
+     */
+    public static void readPosition(ByteBuffer buffer, BitBoard board)
+    {
+        int at = buffer.position() + 4 + HEADER_BYTES + 2;
+        board.set(buffer.getLong(at + 1), buffer.getLong(at + 9), buffer.get(at) != 0);
+    }
+
+    /**
+     * Returns the column of a move reply.
+     *
+     * @param buffer A buffer positioned at a complete move reply.
+     * @return the column, or -1 if the server did not choose one.
+     */
+    public static int column(ByteBuffer buffer)
+    {
+        return buffer.get(buffer.position() + 4 + HEADER_BYTES);
+    }
+}
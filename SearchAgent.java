@@ -0,0 +1,421 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays the move found by an alpha-beta search a fixed number of moves deep, optionally within
+ * a time budget. How the search runs is up to its SearchStrategy: serially, with Lazy SMP
+ * threads, or split over a ForkJoinPool.
+ *
+ * With pondering on, the agent keeps thinking while the opponent moves: after playing, it
+ * guesses the reply, and searches the position after that reply on a background thread. If
+ * the guess was right, the next move starts from that search (or skips searching altogether if
+ * it finished); if not, the background search is stopped and only its table entries remain.
+ *
+ * An endgame tablebase can be given as a file. It is not opened until the agent first moves,
+ * so a large tablebase does not slow down startup, and its pages are only read from disk once
+ * the game reaches positions it holds.
+ */
+public class SearchAgent extends Agent
+{
+    /**
+     * The default number of moves to look ahead.
+     */
+    public static final int DEFAULT_DEPTH = 8;
+
+    /**
+     * The default number of transposition table entries.
+     */
+    public static final int DEFAULT_TABLE_ENTRIES = 1 << 20;
+
+    protected int depth;                // the number of moves to look ahead
+    protected long timeBudget;          // milliseconds allowed per move, or 0 for no limit
+    protected TranspositionTable table; // positions cached between moves
+    protected SearchStrategy strategy;  // the search used to pick moves
+    protected long lastNodes;           // positions visited during the last move
+    protected ExecutorService ponderThread; // runs the background search, or null if pondering is off
+    protected Future<?> pondering;      // the background search, or null if none is running
+    protected long ponderGeneration;    // the strategy's number for the background search
+    protected BitBoard ponderBoard;     // the position after the predicted reply
+    protected volatile int ponderMove;  // the move found by the background search, or -1
+    protected volatile boolean ponderFinished;  // whether the background search ran to the end
+    protected long ponderHits;          // moves where the reply was predicted correctly
+    protected long ponderMisses;        // moves where it was not
+    protected Path tablebaseFile;       // the tablebase to open on the first move, or null
+    protected EndgameTablebase tablebase;   // the opened tablebase, or null
+
+    /**
+     * Constructs a new agent that searches DEFAULT_DEPTH moves ahead using a WindowEvaluator.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed True if the agent is Red, False if the agent is Yellow.
+     * @param theName The name of the agent.
+     */
+    public SearchAgent(Connect4Game game, boolean iAmRed, String theName)
+    {
+        this(game, iAmRed, theName, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Constructs a new agent that searches a given number of moves ahead using a
+     * WindowEvaluator.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed True if the agent is Red, False if the agent is Yellow.
+     * @param theName The name of the agent.
+     * @param depth The number of moves to look ahead.
+     */
+    public SearchAgent(Connect4Game game, boolean iAmRed, String theName, int depth)
+    {
+        this(game, iAmRed, theName, depth, 1);
+    }
+
+    /**
+     * Constructs a new agent that searches a given number of moves ahead on several threads
+     * using a WindowEvaluator. With more than one thread the agent uses a LazySmpSearch.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed True if the agent is Red, False if the agent is Yellow.
+     * @param theName The name of the agent.
+     * @param depth The number of moves to look ahead.
+     * @param threads The number of search threads.
+     */
+    public SearchAgent(Connect4Game game, boolean iAmRed, String theName, int depth, int threads)
+    {
+        super(game, iAmRed, theName);
+        BitBoard board = new BitBoard(game.getColumnCount(), game.getRowCount());
+        Evaluator evaluator = new WindowEvaluator(board);
+        this.depth = depth;
+        this.table = new TranspositionTable(DEFAULT_TABLE_ENTRIES);
+        if (threads > 1)
+        {
+            this.strategy = new LazySmpSearch(board, evaluator, threads, table);
+        }
+        else
+        {
+            this.strategy = new SerialSearch(board, evaluator, table);
+        }
+    }
+
+    /**
+     * Constructs a new agent that searches a given number of moves ahead with the given search
+     * strategy.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed True if the agent is Red, False if the agent is Yellow.
+     * @param theName The name of the agent.
+     * @param depth The number of moves to look ahead.
+     * @param strategy The search to use.
+     */
+    public SearchAgent(Connect4Game game, boolean iAmRed, String theName, int depth, SearchStrategy strategy)
+    {
+        super(game, iAmRed, theName);
+        this.depth = depth;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Sets how long the agent may think about each move. The agent plays the move of the
+     * deepest search that finished in time.
+     *
+     * @param millis The time budget in milliseconds, or 0 for no limit.
+     */
+    public void setTimeBudget(long millis)
+    {
+        this.timeBudget = millis;
+    }
+
+    /**
+     * Replaces the search used to pick moves. A background search is stopped, and the old
+     * strategy is shut down.
+     *
+     * @param strategy The search to use from now on.
+     */
+    public void setStrategy(SearchStrategy strategy)
+    {
+        stopPondering();
+        this.strategy.shutdown();
+        this.strategy = strategy;
+    }
+
+    /**
+     * Get the search used to pick moves.
+     *
+     * @return the search strategy.
+     */
+    public SearchStrategy getStrategy()
+    {
+        return strategy;
+    }
+
+    /**
+     * Gives the agent an endgame tablebase to play from once the game reaches it. The file is
+     * opened on the agent's first move.
+     *
+     * @param file A tablebase written by TablebaseGenerator for this board size, or null for none.
+     */
+    public void setTablebase(Path file)
+    {
+        this.tablebaseFile = file;
+        this.tablebase = null;
+    }
+
+    /**
+     * Turns pondering on or off. A background search that is running is stopped when pondering
+     * is turned off.
+     *
+     * @param on True to think during the opponent's turn.
+     */
+    public void setPondering(boolean on)
+    {
+        if (on && ponderThread == null)
+        {
+            ponderThread = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "ponder-" + getName());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        }
+        else if (!on && ponderThread != null)
+        {
+            stopPondering();
+            ponderThread.shutdown();
+            ponderThread = null;
+        }
+    }
+
+    /**
+     * Get the number of moves for which the opponent's reply was predicted correctly.
+     *
+     * @return the number of ponder hits.
+     */
+    public long getPonderHits()
+    {
+        return ponderHits;
+    }
+
+    /**
+     * Get the number of moves for which the opponent's reply was not predicted.
+     *
+     * @return the number of ponder misses.
+     */
+    public long getPonderMisses()
+    {
+        return ponderMisses;
+    }
+
+    /**
+     * Get the number of positions searched for the last move, over all threads.
+     *
+     * @return the node count of the last move.
+     */
+    public long getLastNodes()
+    {
+        return lastNodes;
+    }
+
+    /**
+     * Stops any background search from the last game. The transposition table is kept, since
+     * its entries are keyed by position and stay valid from one game to the next.
+     */
+    public void reset()
+    {
+        stopPondering();
+        ponderBoard = null;
+        lastNodes = 0;
+    }
+
+    /**
+     * Attaches the agent to another game of the same size.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed Whether the agent is the red player.
+     * @throws IllegalArgumentException if the game is not the size the search was built for.
+     */
+    public void rebind(Connect4Game game, boolean iAmRed)
+    {
+        if (game.getColumnCount() != myGame.getColumnCount() || game.getRowCount() != myGame.getRowCount())
+        {
+            throw new IllegalArgumentException("A search agent can only be moved to a game of the same size.");
+        }
+        super.rebind(game, iAmRed);
+    }
+
+    /**
+     * Searches the current position and plays the best column found.
+     */
+    public void move()
+    {
+        BitBoard board = new BitBoard(myGame);
+        int col = -1;
+        if (pondering != null)
+        {
+            stopPondering();
+            if (board.samePosition(ponderBoard))
+            {
+                ponderHits++;
+                if (ponderFinished)
+                {
+                    col = ponderMove;
+                }
+            }
+            else
+            {
+                ponderMisses++;
+            }
+        }
+        if (col == -1)
+        {
+            col = chooseMove(board);
+        }
+        moveOnColumn(col);
+        if (ponderThread != null)
+        {
+            board.play(col);
+            startPondering(board);
+        }
+    }
+
+    /**
+     * Guesses the opponent's reply to a position and starts searching the position after it in
+     * the background.
+     *
+     * @param board The position after this agent's move; the agent keeps it.
+     */
+    protected void startPondering(BitBoard board)
+    {
+        if (board.lastMoveWon() || board.isFull())
+        {
+            return;
+        }
+        int reply = predictReply(board);
+        if (reply == -1 || board.isWinningMove(reply))
+        {
+            return;
+        }
+        board.play(reply);
+        if (board.isFull())
+        {
+            return;
+        }
+        ponderBoard = board;
+        ponderMove = -1;
+        ponderFinished = false;
+        BitBoard searched = new BitBoard(board);
+        SearchStrategy search = strategy;
+        long budget = timeBudget;
+        ponderGeneration = search.getNextGeneration();
+        pondering = ponderThread.submit(() -> {
+                int move = search.bestMove(searched, depth, budget);
+                ponderFinished = !search.wasStopped();
+                ponderMove = move;
+            });
+    }
+
+    /**
+     * Stops the background search and waits for it to return.
+     */
+    protected void stopPondering()
+    {
+        if (pondering == null)
+        {
+            return;
+        }
+        try
+        {
+            // the search is stopped by its number, so it returns at once even if it has not
+            // started yet
+            strategy.stop(ponderGeneration);
+            pondering.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("The background search failed.", e.getCause());
+        }
+        pondering = null;
+    }
+
+    /**
+     * Guesses the opponent's reply from the best move stored in the transposition table, or
+     * the middle-most playable column if there is none.
+     *
+     * @param board The position the opponent is to move in.
+     * @return the predicted column; -1 if there is no playable column.
+     */
+    protected int predictReply(BitBoard board)
+    {
+        if (table != null)
+        {
+            long entry = table.probe(board.canonicalKey());
+            int move = entry != 0 ? TranspositionTable.moveOf(entry) : -1;
+            if (move != -1)
+            {
+                return board.isCanonicalMirrored() ? board.mirrorColumn(move) : move;
+            }
+        }
+        int columns = board.getColumnCount();
+        for (int i = 0; i < columns; i++)
+        {
+            int offset = (i + 1) / 2;
+            int col = (columns - 1) / 2 + (i % 2 == 0 ? offset : -offset);
+            if (board.canPlay(col))
+            {
+                return col;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Searches a position and returns the column to play.
+     *
+     * @param board The position to search; it is left unchanged.
+     * @return the column to play.
+     */
+    protected int chooseMove(BitBoard board)
+    {
+        EndgameTablebase endgame = getTablebase();
+        if (endgame != null && board.getColumnCount() * board.getRowCount() - board.getMoveCount() <= endgame.getMaxEmpty())
+        {
+            int col = endgame.bestMove(board);
+            if (col != -1)
+            {
+                lastNodes = 0;
+                return col;
+            }
+        }
+        int col = strategy.bestMove(board, depth, timeBudget);
+        lastNodes = strategy.getLastNodes();
+        return col != -1 ? col : randomMove();
+    }
+
+    /**
+     * Opens the tablebase file the first time it is needed. If it cannot be opened, the agent
+     * says so once and carries on without it.
+     *
+     * @return the tablebase, or null if there is none.
+     */
+    protected EndgameTablebase getTablebase()
+    {
+        if (tablebase == null && tablebaseFile != null)
+        {
+            try
+            {
+                tablebase = EndgameTablebase.load(tablebaseFile);
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not open the tablebase " + tablebaseFile + ": " + e.getMessage());
+                tablebaseFile = null;
+            }
+        }
+        return tablebase;
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Numbers the searches of a SearchStrategy so that a search can be stopped by its number, even
+ * by a stop that arrives before the search has started.
+ *
+ * A strategy calls begin() at the start of every bestMove() call, after clearing the stopped
+ * state left over from the search before, and stops at once if isStopped() says so. stop()
+ * records the highest number stopped so far and never lowers it, so a search cannot clear a
+ * stop meant for it, and a stop meant for an earlier search has no effect on a later one.
+ *
+ * begin() must only be called by one thread at a time; stop() may be called from any thread.
+ */
+public class SearchGenerations
+{
+    private volatile long current;      // the number of the running or last search, 0 before the first
+    private final AtomicLong stopped = new AtomicLong();    // the highest search number stopped
+
+    /**
+     * Starts the next search.
+     *
+     * @return its number.
+     */
+    public long begin()
+    {
+        long generation = current + 1;
+        current = generation;
+        return generation;
+    }
+
+    /**
+     * Get the number of the running search, or of the last one if none is running.
+     *
+     * @return the search number; 0 before the first search.
+     */
+    public long current()
+    {
+        return current;
+    }
+
+    /**
+     * Get the number the next search will have, so that it can be stopped before it starts,
+     * provided no other search begins first.
+     *
+     * @return the next search number.
+     */
+    public long next()
+    {
+        return current + 1;
+    }
+
+    /**
+     * Check whether a search was stopped.
+     *
+     * @param generation The search number.
+     * @return true if stop() was called for it or a later search.
+     */
+    public boolean isStopped(long generation)
+    {
+        return stopped.get() >= generation;
+    }
+
+    /**
+     * Stops a search, whether it is running or has not started yet.
+     *
+     * @param generation The search number.
+     * @return true if that search is the current one, and the caller must stop it as it runs;
+     * false if it has finished or will stop as soon as it begins.
+     */
+    public boolean stop(long generation)
+    {
+        stopped.accumulateAndGet(generation, Math::max);
+        return current == generation;
+    }
+}
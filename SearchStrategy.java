@@ -0,0 +1,71 @@
+/**
+ * A way of searching a position for the best move, which a SearchAgent can be given.
+ *
+ * The project has three: SerialSearch on the calling thread, LazySmpSearch on threads sharing
+ * a transposition table, and YbwcSearch, which splits the tree over a ForkJoinPool and gives
+ * the same answer on every run.
+ */
+public interface SearchStrategy
+{
+    /**
+     * Finds the best column for the player to move, searching until the given depth is
+     * finished or the time runs out.
+     *
+     * @param board The position to search; it is left unchanged.
+     * @param maxDepth The deepest search to run.
+     * @param timeMillis The time budget in milliseconds, or 0 for none.
+     * @return the best column found; -1 if there is no playable column.
+     */
+    int bestMove(BitBoard board, int maxDepth, long timeMillis);
+
+    /**
+     * Get the number of positions visited during the last search, over all threads.
+     *
+     * @return the node count of the last search.
+     */
+    long getLastNodes();
+
+    /**
+     * Get the depth of the deepest search that finished last time.
+     *
+     * @return the completed depth.
+     */
+    int getLastDepth();
+
+    /**
+     * Check whether the last search was cut short by stop() or its time budget. A search that
+     * ended early because the game was decided was not stopped.
+     *
+     * @return true if the last search did not run to the end.
+     */
+    boolean wasStopped();
+
+    /**
+     * Makes a bestMove() call running on another thread return as soon as possible, with the
+     * move of the deepest search it finished. Has no effect on a search that starts later.
+     */
+    void stop();
+
+    /**
+     * Get the number the next bestMove() call will have, so that stop(long) can stop it even
+     * if the stop comes before the search starts. The number only holds if no other search on
+     * the strategy begins first.
+     *
+     * @return the number of the next search.
+     */
+    long getNextGeneration();
+
+    /**
+     * Stops a search by its number: a running search returns as soon as possible, and one that
+     * has not started yet returns as soon as it does, with a playable column. Has no effect on
+     * any other search.
+     *
+     * @param generation The number from getNextGeneration().
+     */
+    void stop(long generation);
+
+    /**
+     * Releases any threads the strategy uses. The strategy cannot be used afterwards.
+     */
+    void shutdown();
+}
@@ -0,0 +1,350 @@
+/**
+ * A depth-limited negamax alpha-beta search over BitBoard positions.
+ *
+ * Leaves are scored by an Evaluator and moves are tried in the order given by a MoveOrdering,
+ * or strictly left to right when there is none, so the effect of move ordering can be measured
+ * by comparing node counts. Positions can be cached in a TranspositionTable under their
+ * canonical key, and the table may be shared with searchers on other threads. The best line
+ * found by the last root search is kept in a PvTable.
+ *
+ * A searcher belongs to a single thread, except for stop(), which any thread may call to make
+ * the search return early; the result of an interrupted search must be thrown away.
+ */
+public class Searcher
+{
+    /**
+     * The score of a position where the player to move has already won. Wins are scored as
+     * WIN_SCORE minus the number of tokens on the board, so that quicker wins score higher.
+     */
+    public static final int WIN_SCORE = 1000000;
+
+    private final Evaluator evaluator;      // scores the leaves
+    private final MoveOrdering ordering;    // orders the moves, or null for left to right
+    private final int columns;              // the number of columns on the board
+    private final MoveList[] moveLists;     // a move list for each ply, reused between nodes
+    private final PvTable pv;               // the best line from each ply
+    private TranspositionTable table;       // cached positions, or null for none
+    private long nodes;                     // positions visited since the last reset
+    private int lastScore;                  // the score of the last root search
+    private long deadline;                  // System.nanoTime() at which to stop, or 0 for none
+    private long nodeLimit = Long.MAX_VALUE;    // the node count at which to stop
+    private volatile boolean stopped;       // set to abandon the current search
+
+    /**
+     * Creates a searcher for boards of the same size as the given board.
+     *
+     * @param board A board of the size to search.
+     * @param evaluator The evaluator to score the leaves with.
+     * @param ordering The move ordering to use; null to try columns left to right.
+     */
+    public Searcher(BitBoard board, Evaluator evaluator, MoveOrdering ordering)
+    {
+        this.evaluator = evaluator;
+        this.ordering = ordering;
+        this.columns = board.getColumnCount();
+        int maxPly = columns * board.getRowCount() + 1;
+        this.moveLists = new MoveList[maxPly];
+        for (int i = 0; i < maxPly; i++)
+        {
+            moveLists[i] = new MoveList(columns);
+        }
+        this.pv = new PvTable(maxPly);
+    }
+
+    /**
+     * Get the number of positions visited since the counter was last reset.
+     *
+     * @return the node count.
+     */
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Get the score of the best move of the last root search, from the point of view of the
+     * player to move at the root.
+     *
+     * @return the root score.
+     */
+    public int getLastScore()
+    {
+        return lastScore;
+    }
+
+    /**
+     * Get the best line found by the last root search, starting with the root move. The line
+     * is only meaningful if that search was not stopped.
+     *
+     * @return the principal variation table.
+     */
+    public PvTable getPrincipalVariation()
+    {
+        return pv;
+    }
+
+    /**
+     * Sets the node counter back to zero.
+     */
+    public void resetNodes()
+    {
+        nodes = 0;
+    }
+
+    /**
+     * Sets the transposition table to cache positions in.
+     *
+     * @param table The table to use, which may be shared with other searchers; null for none.
+     */
+    public void setTranspositionTable(TranspositionTable table)
+    {
+        this.table = table;
+    }
+
+    /**
+     * Sets a time at which the search stops by itself.
+     *
+     * @param deadline The System.nanoTime() value to stop at, or 0 for no time limit.
+     */
+    public void setDeadline(long deadline)
+    {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Sets a number of nodes after which the search stops by itself, counted from the last
+     * resetNodes().
+     *
+     * @param limit The largest number of nodes to visit, or 0 for no limit.
+     */
+    public void setNodeLimit(long limit)
+    {
+        this.nodeLimit = limit > 0 ? limit : Long.MAX_VALUE;
+    }
+
+    /**
+     * Makes the current search return as soon as possible. May be called from any thread.
+     */
+    public void stop()
+    {
+        stopped = true;
+    }
+
+    /**
+     * Check whether the search was stopped before it finished.
+     *
+     * @return true if stop() was called or the deadline passed since the last reset.
+     */
+    public boolean isStopped()
+    {
+        return stopped;
+    }
+
+    /**
+     * Clears the stopped state so that the searcher can be used again.
+     */
+    public void resume()
+    {
+        stopped = false;
+    }
+
+    /**
+     * Get the move ordering used by this searcher.
+     *
+     * @return the move ordering, or null if columns are tried left to right.
+     */
+    public MoveOrdering getOrdering()
+    {
+        return ordering;
+    }
+
+    /**
+     * Finds the best column for the player to move by searching to increasing depths up to the
+     * given depth, so that the move ordering learns from each shallower search. If the search
+     * is stopped, the move of the deepest search that finished is returned.
+     *
+     * @param board The position to search; it is left unchanged.
+     * @param depth The number of moves to look ahead.
+     * @return the best column found; -1 if there is no playable column.
+     */
+    public int bestMove(BitBoard board, int depth)
+    {
+        int best = -1;
+        for (int d = 1; d <= depth && !stopped; d++)
+        {
+            int move = searchRoot(board, d, best);
+            if (!stopped || best == -1)
+            {
+                best = move;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Searches the root position to a fixed depth.
+     *
+     * @param board The position to search; it is left unchanged.
+     * @param depth The number of moves to look ahead.
+     * @param hintMove A column to try first, or -1 for none.
+     * @return the best column found; -1 if there is no playable column.
+     */
+    public int searchRoot(BitBoard board, int depth, int hintMove)
+    {
+        MoveList moves = moveLists[0];
+        int count = orderMoves(board, 0, hintMove, moves);
+        int best = count > 0 ? moves.get(0) : -1;
+        int alpha = -WIN_SCORE - 1;
+        pv.clear(0);
+        for (int i = 0; i < count && !stopped; i++)
+        {
+            int col = moves.get(i);
+            if (board.isWinningMove(col))
+            {
+                lastScore = WIN_SCORE - board.getMoveCount() - 1;
+                pv.clear(1);
+                pv.update(0, col);
+                return col;
+            }
+            board.play(col);
+            int score = -search(board, depth - 1, -WIN_SCORE - 1, -alpha, 1);
+            board.undo(col);
+            if (score > alpha)
+            {
+                alpha = score;
+                best = col;
+                pv.update(0, col);
+            }
+        }
+        if (!stopped)
+        {
+            lastScore = alpha;
+            if (table != null && best != -1)
+            {
+                boolean mirrored = board.isCanonicalMirrored();
+                table.store(board.canonicalKey(), depth, TranspositionTable.EXACT, alpha,
+                    mirrored ? board.mirrorColumn(best) : best);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Scores a position from the point of view of the player to move.
+     *
+     * @param board The position to search; it is left unchanged.
+     * @param depth The number of moves left to look ahead.
+     * @param alpha The score the player to move is already sure of.
+     * @param beta The score above which the opponent will avoid this position.
+     * @param ply The distance from the root of the search.
+     * @return the score of the position.
+     */
+    public int search(BitBoard board, int depth, int alpha, int beta, int ply)
+    {
+        nodes++;
+        pv.clear(ply);
+        if (((nodes & 1023) == 0 && deadline != 0 && System.nanoTime() > deadline) || nodes > nodeLimit)
+        {
+            stopped = true;
+        }
+        if (stopped)
+        {
+            return 0;
+        }
+        for (int col = 0; col < columns; col++)
+        {
+            if (board.canPlay(col) && board.isWinningMove(col))
+            {
+                return WIN_SCORE - board.getMoveCount() - 1;
+            }
+        }
+        if (board.isFull())
+        {
+            return 0;
+        }
+        if (depth <= 0)
+        {
+            return evaluator.evaluate(board);
+        }
+
+        long key = 0;
+        boolean mirrored = false;
+        int hintMove = -1;
+        int originalAlpha = alpha;
+        if (table != null)
+        {
+            key = board.canonicalKey();
+            mirrored = board.isCanonicalMirrored();
+            long entry = table.probe(key);
+            if (entry != 0)
+            {
+                hintMove = TranspositionTable.moveOf(entry);
+                if (mirrored && hintMove != -1)
+                {
+                    hintMove = board.mirrorColumn(hintMove);
+                }
+                if (TranspositionTable.depthOf(entry) >= depth)
+                {
+                    int score = TranspositionTable.scoreOf(entry);
+                    int flag = TranspositionTable.flagOf(entry);
+                    if (flag == TranspositionTable.EXACT
+                        || (flag == TranspositionTable.LOWER && score >= beta)
+                        || (flag == TranspositionTable.UPPER && score <= alpha))
+                    {
+                        return score;
+                    }
+                }
+            }
+        }
+
+        MoveList moves = moveLists[ply];
+        int count = orderMoves(board, ply, hintMove, moves);
+        int best = -WIN_SCORE - 1;
+        int bestMove = -1;
+        for (int i = 0; i < count; i++)
+        {
+            int col = moves.get(i);
+            board.play(col);
+            int score = -search(board, depth - 1, -beta, -alpha, ply + 1);
+            board.undo(col);
+            if (score > best)
+            {
+                best = score;
+                bestMove = col;
+                if (score > alpha)
+                {
+                    alpha = score;
+                    pv.update(ply, col);
+                    if (alpha >= beta)
+                    {
+                        if (ordering != null)
+                        {
+                            ordering.recordCutoff(board, ply, col, depth);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        if (table != null && !stopped)
+        {
+            int flag = best <= originalAlpha ? TranspositionTable.UPPER
+                : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            table.store(key, depth, flag, best, mirrored ? board.mirrorColumn(bestMove) : bestMove);
+        }
+        return best;
+    }
+
+    /**
+     * Fills a move list using the move ordering, or left to right when there is none.
+     */
+    private int orderMoves(BitBoard board, int ply, int hintMove, MoveList moves)
+    {
+        if (ordering != null)
+        {
+            moves.setSize(ordering.order(board, ply, hintMove, moves.array()));
+            return moves.size();
+        }
+        return moves.generate(board);
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * The SearchStrategy that runs a single Searcher on the calling thread.
+ */
+public class SerialSearch implements SearchStrategy
+{
+    private final Searcher searcher;    // the search itself
+    private int lastDepth;              // the deepest search that finished last time
+    private boolean lastStopped;        // whether the last search was cut short
+    private final SearchGenerations generations = new SearchGenerations();  // numbers the searches for stop(long)
+
+    /**
+     * Creates a serial search for boards of the same size as the given board.
+     *
+     * @param board A board of the size to search.
+     * @param evaluator The evaluator to score the leaves with.
+     * @param table The table to cache positions in, or null for none.
+     */
+    public SerialSearch(BitBoard board, Evaluator evaluator, TranspositionTable table)
+    {
+        this.searcher = new Searcher(board, evaluator, new MoveOrdering(board));
+        this.searcher.setTranspositionTable(table);
+    }
+
+    /**
+     * Get the searcher this strategy runs.
+     *
+     * @return the searcher.
+     */
+    public Searcher getSearcher()
+    {
+        return searcher;
+    }
+
+    public int bestMove(BitBoard board, int maxDepth, long timeMillis)
+    {
+        searcher.resetNodes();
+        searcher.resume();
+        searcher.setDeadline(timeMillis > 0 ? System.nanoTime() + timeMillis * 1000000 : 0);
+        if (generations.isStopped(generations.begin()))
+        {
+            searcher.stop();    // stopped before it started
+        }
+        int best = -1;
+        lastDepth = 0;
+        for (int d = 1; d <= maxDepth && (d == 1 || !searcher.isStopped()); d++)
+        {
+            int move = searcher.searchRoot(board, d, best);
+            if (!searcher.isStopped())
+            {
+                best = move;
+                lastDepth = d;
+            }
+            else if (best == -1)
+            {
+                best = move;    // a cut-short first iteration still gives a playable column
+            }
+        }
+        lastStopped = searcher.isStopped();
+        return best;
+    }
+
+    public long getLastNodes()
+    {
+        return searcher.getNodes();
+    }
+
+    public int getLastDepth()
+    {
+        return lastDepth;
+    }
+
+    public boolean wasStopped()
+    {
+        return lastStopped;
+    }
+
+    public void stop()
+    {
+        stop(generations.current());
+    }
+
+    public long getNextGeneration()
+    {
+        return generations.next();
+    }
+
+    public void stop(long generation)
+    {
+        if (generations.stop(generation))
+        {
+            searcher.stop();
+        }
+    }
+
+    public void shutdown()
+    {
+    }
+}
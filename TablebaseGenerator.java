@@ -0,0 +1,454 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds an EndgameTablebase by solving every position with at most a given number of empty
+ * slots below a set of root positions.
+ *
+ * Every position of a full 7x6 board with, say, a dozen empty slots is far too many to list
+ * without a root, so the generator solves the whole late-game subtree of each root it is given
+ * (for example positions from recorded games, or random ones from main). Positions are solved
+ * exactly by negamax and stored under their canonical key, so mirrored positions are solved once.
+ *
+ * A long run can be checkpointed: saveState() and loadState() copy the solved positions to and
+ * from a buffer for a Checkpointer, and main resumes from its checkpoint if it finds one.
+ *
+ * While solving, positions are kept under their full keys; write() then builds the minimal
+ * perfect hash that the tablebase file looks them up with, which takes a few bits per position.
+ */
+public class TablebaseGenerator
+{
+    /** The fingerprint bits written by write(Path): 1 wrong answer in 256 for positions not stored. */
+    public static final int DEFAULT_FINGERPRINT_BITS = 8;
+
+    private static final double GAMMA = 1.0;    // bits per key in each level of the hash; 2 is no faster to look up here
+    private static final int MAX_CAPACITY = 1 << 29;   // the most slots the key table grows to
+
+    private final int columns;      // the board size to generate for
+    private final int rows;
+    private final int maxEmpty;     // positions with at most this many empty slots are solved
+    private long[] keys;    // open-addressed canonical keys, 0 marks an empty slot
+    private byte[] values;  // the value of the position in the same slot
+    private int entries;    // the number of solved positions
+
+    /**
+     * Creates a generator for boards of the given size.
+     *
+     * @param numCols The number of columns on the board.
+     * @param numRows The number of rows on the board.
+     * @param maxEmpty The largest number of empty slots of a solved position.
+     */
+    public TablebaseGenerator(int numCols, int numRows, int maxEmpty)
+    {
+        this.columns = numCols;
+        this.rows = numRows;
+        this.maxEmpty = maxEmpty;
+        this.keys = new long[1024];
+        this.values = new byte[1024];
+    }
+
+    /**
+     * Get the number of positions solved so far.
+     *
+     * @return the number of solved positions.
+     */
+    public int size()
+    {
+        return entries;
+    }
+
+    /**
+     * Solves every position with at most maxEmpty empty slots that can be reached from a root.
+     * Roots with more empty slots are expanded move by move until they get there, so they
+     * should not be far above the limit.
+     *
+     * @param root The position to start from; it is left unchanged.
+     */
+    public void addRoot(BitBoard root)
+    {
+        if (root.lastMoveWon() || root.isFull())
+        {
+            return;
+        }
+        if (columns * rows - root.getMoveCount() <= maxEmpty)
+        {
+            solve(root);
+            return;
+        }
+        for (int col = 0; col < columns; col++)
+        {
+            if (root.canPlay(col))
+            {
+                root.play(col);
+                addRoot(root);
+                root.undo(col);
+            }
+        }
+    }
+
+    /**
+     * Solves a position that the game has not ended in, storing it and every position below.
+     *
+     * @return the value of the position for the player to move.
+     */
+    private int solve(BitBoard board)
+    {
+        if (board.isFull())
+        {
+            return EndgameTablebase.DRAW;
+        }
+        long key = board.canonicalKey();
+        int known = get(key);
+        if (known != EndgameTablebase.UNKNOWN)
+        {
+            return known;
+        }
+        int best = EndgameTablebase.LOSS;
+        for (int col = 0; col < columns && best != EndgameTablebase.WIN; col++)
+        {
+            if (board.canPlay(col) && board.isWinningMove(col))
+            {
+                best = EndgameTablebase.WIN;
+            }
+        }
+        for (int col = 0; col < columns && best != EndgameTablebase.WIN; col++)
+        {
+            if (board.canPlay(col))
+            {
+                board.play(col);
+                int value = EndgameTablebase.WIN + EndgameTablebase.LOSS - solve(board);
+                board.undo(col);
+                best = Math.max(best, value);
+            }
+        }
+        put(key, best);
+        return best;
+    }
+
+    /**
+     * Returns the stored value of a key, or UNKNOWN.
+     */
+    private int get(long key)
+    {
+        int slot = (int) EndgameTablebase.mix(key) & (keys.length - 1);
+        while (keys[slot] != 0)
+        {
+            if (keys[slot] == key)
+            {
+                return values[slot];
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return EndgameTablebase.UNKNOWN;
+    }
+
+    /**
+     * Stores the value of a key that is not stored yet, growing the table when it gets half full.
+     */
+    private void put(long key, int value)
+    {
+        if (2 * (entries + 1) > keys.length)
+        {
+            if (keys.length >= MAX_CAPACITY)
+            {
+                throw new IllegalStateException("The generator holds at most " + MAX_CAPACITY / 2 + " positions.");
+            }
+            long[] oldKeys = keys;
+            byte[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new byte[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++)
+            {
+                if (oldKeys[i] != 0)
+                {
+                    insert(keys, values, oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+        insert(keys, values, key, value);
+        entries++;
+    }
+
+    /**
+     * Inserts a key into the first free slot of its probe sequence.
+     */
+    private static int insert(long[] table, byte[] tableValues, long key, int value)
+    {
+        int slot = (int) EndgameTablebase.mix(key) & (table.length - 1);
+        while (table[slot] != 0)
+        {
+            slot = (slot + 1) & (table.length - 1);
+        }
+        table[slot] = key;
+        tableValues[slot] = (byte) value;
+        return slot;
+    }
+
+    /**
+     * Get the number of bytes saveState() writes.
+     *
+     * @return the size of the saved state.
+     * @throws IllegalStateException if the state is too big for one buffer.
+     */
+    public int stateBytes()
+    {
+        long bytes = 5 * 4 + keys.length * 9L;
+        if (bytes > Integer.MAX_VALUE - 64)
+        {
+            throw new IllegalStateException("The " + entries + " solved positions are too many to save in one buffer.");
+        }
+        return (int) bytes;
+    }
+
+    /**
+     * Copies the solved positions into a buffer, for a checkpoint.
+     *
+     * @param out The buffer to write to, with at least stateBytes() remaining.
+     */
+    public void saveState(ByteBuffer out)
+    {
+        out.putInt(columns).putInt(rows).putInt(maxEmpty).putInt(entries).putInt(keys.length);
+        out.asLongBuffer().put(keys);
+        out.position(out.position() + keys.length * 8);
+        out.put(values);
+    }
+
+    /**
+     * Replaces the solved positions with those saved by saveState().
+     *
+     * @param in The buffer to read from.
+     * @throws IllegalArgumentException if the state was saved for a different board size or
+     * empty slot limit.
+     */
+    public void loadState(ByteBuffer in)
+    {
+        if (in.getInt() != columns || in.getInt() != rows || in.getInt() != maxEmpty)
+        {
+            throw new IllegalArgumentException("The saved state is for a different board or empty slot limit.");
+        }
+        int savedEntries = in.getInt();
+        int capacity = in.getInt();
+        if (capacity <= 0 || capacity > MAX_CAPACITY || (capacity & (capacity - 1)) != 0
+            || capacity * 9L > in.remaining() || savedEntries < 0 || savedEntries > capacity / 2)
+        {
+            throw new IllegalArgumentException("The saved state is corrupt or cut short.");
+        }
+        long[] savedKeys = new long[capacity];
+        byte[] savedValues = new byte[capacity];
+        in.asLongBuffer().get(savedKeys);
+        in.position(in.position() + capacity * 8);
+        in.get(savedValues);
+        this.keys = savedKeys;
+        this.values = savedValues;
+        this.entries = savedEntries;
+    }
+
+    /**
+     * Writes the solved positions as a tablebase file, with DEFAULT_FINGERPRINT_BITS of
+     * fingerprint per position.
+     *
+     * @param file The file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(Path file) throws IOException
+    {
+        write(file, DEFAULT_FINGERPRINT_BITS);
+    }
+
+    /**
+     * Writes the solved positions as a tablebase file indexed by a minimal perfect hash.
+     *
+     * @param file The file to write.
+     * @param fingerprintBits The bits of each key kept to tell positions that are not stored
+     * apart, 0 to 8; with 0 every position within the empty slot limit gets some answer.
+     * @throws IOException if the file cannot be written.
+     * @throws IllegalStateException if the table is too big for one mapping.
+     */
+    public void write(Path file, int fingerprintBits) throws IOException
+    {
+        if (fingerprintBits < 0 || fingerprintBits > 8)
+        {
+            throw new IllegalArgumentException("Fingerprints take 0 to 8 bits.");
+        }
+        long[] stored = new long[entries];
+        byte[] storedValues = new byte[entries];
+        for (int i = 0, n = 0; i < keys.length; i++)
+        {
+            if (keys[i] != 0)
+            {
+                stored[n] = keys[i];
+                storedValues[n++] = values[i];
+            }
+        }
+
+        // place the keys level by level; the keys that collide are carried to the next level
+        List<long[]> levels = new ArrayList<>();
+        long[] pending = stored.clone();
+        int count = entries;
+        long words = 0;
+        while (count > 0)
+        {
+            if (levels.size() == EndgameTablebase.MAX_LEVELS)
+            {
+                throw new IllegalStateException("No perfect hash found in " + EndgameTablebase.MAX_LEVELS + " levels.");
+            }
+            int level = levels.size();
+            long bits = Math.max(64, ((long) Math.ceil(count * GAMMA) + 63) & ~63L);
+            long[] placed = new long[(int) (bits >>> 6)];
+            long[] collided = new long[placed.length];
+            for (int i = 0; i < count; i++)
+            {
+                long bit = EndgameTablebase.position(pending[i], level, bits);
+                int word = (int) (bit >>> 6);
+                if ((placed[word] & (1L << bit)) != 0)
+                {
+                    collided[word] |= 1L << bit;
+                }
+                placed[word] |= 1L << bit;
+            }
+            int next = 0;
+            for (int i = 0; i < count; i++)
+            {
+                long bit = EndgameTablebase.position(pending[i], level, bits);
+                if ((collided[(int) (bit >>> 6)] & (1L << bit)) != 0)
+                {
+                    pending[next++] = pending[i];
+                }
+            }
+            for (int w = 0; w < placed.length; w++)
+            {
+                placed[w] &= ~collided[w];
+            }
+            levels.add(placed);
+            words += placed.length;
+            count = next;
+        }
+
+        long[] offsets = EndgameTablebase.offsets(levels.size(), words, entries, fingerprintBits);
+        if (offsets[4] > Integer.MAX_VALUE)
+        {
+            throw new IllegalStateException("A tablebase of " + entries + " positions takes " + offsets[4]
+                + " bytes, more than one mapping can hold.");
+        }
+        ByteBuffer image = ByteBuffer.allocate((int) offsets[4]).order(ByteOrder.BIG_ENDIAN);
+        image.putInt(EndgameTablebase.MAGIC).putInt(EndgameTablebase.VERSION).putInt(columns).putInt(rows)
+            .putInt(maxEmpty).putInt(entries).putInt(fingerprintBits).putInt(levels.size());
+        for (long[] level : levels)
+        {
+            image.putInt(level.length);
+        }
+        int rank = 0;
+        int word = 0;
+        int ranksAt = (int) offsets[1];
+        for (long[] level : levels)
+        {
+            for (long bits : level)
+            {
+                if ((word & 7) == 0)
+                {
+                    image.putInt(ranksAt + (word >>> 3) * 4, rank);
+                }
+                image.putLong(bits);
+                rank += Long.bitCount(bits);
+                word++;
+            }
+        }
+
+        EndgameTablebase table = new EndgameTablebase(image);
+        for (int i = 0; i < entries; i++)
+        {
+            table.put(table.index(stored[i]), stored[i], storedValues[i]);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            image.clear();
+            while (image.hasRemaining())
+            {
+                channel.write(image);
+            }
+        }
+    }
+
+    /**
+     * Generates a tablebase for a 7x6 board from random roots.
+     *
+     * The solved positions and the number of roots done are checkpointed to file.checkpoint
+     * every minute (or as often as given), and a run started with the same arguments resumes
+     * from that checkpoint. The checkpoint is removed once the tablebase is written.
+     *
+     * Usage: java TablebaseGenerator file maxEmpty [roots] [seed] [checkpointSeconds]
+     *
+     * @param args The output file, the empty slot limit, the number of random roots to play out
+     * (default 1000), the random seed (default 1) and the time between checkpoints in seconds
+     * (default 60).
+     * @throws IOException if the file or the checkpoint cannot be written.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        Path file = Paths.get(args[0]);
+        int maxEmpty = Integer.parseInt(args[1]);
+        int roots = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        Random random = new Random(seed);
+
+        TablebaseGenerator generator = new TablebaseGenerator(7, 6, maxEmpty);
+        Checkpointer checkpoints = new Checkpointer(Paths.get(args[0] + ".checkpoint"));
+        if (args.length > 4)
+        {
+            checkpoints.setInterval(Long.parseLong(args[4]) * 1000);
+        }
+        int done = 0;   // the number of roots already solved by an earlier run
+        ByteBuffer saved = checkpoints.load();
+        if (saved != null)
+        {
+            if (saved.getLong() != seed)
+            {
+                throw new IllegalArgumentException("The checkpoint was made with a different seed.");
+            }
+            done = saved.getInt();
+            generator.loadState(saved);
+            System.out.println("Resuming after " + done + " roots with " + generator.size() + " positions.");
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < roots; i++)
+        {
+            // play random moves until the root has maxEmpty empty slots, giving up on the root if one wins
+            BitBoard board = new BitBoard(7, 6);
+            boolean over = false;
+            while (!over && 42 - board.getMoveCount() > maxEmpty)
+            {
+                int col = board.randomMove(random);
+                over = board.isWinningMove(col);
+                board.play(col);
+            }
+            if (!over && i >= done)
+            {
+                generator.addRoot(board);
+            }
+            if (checkpoints.isDue() && i + 1 < roots)
+            {
+                ByteBuffer state = ByteBuffer.allocate(12 + generator.stateBytes());
+                state.putLong(seed).putInt(i + 1);
+                generator.saveState(state);
+                checkpoints.submit(state.flip());
+            }
+        }
+        generator.write(file);
+        checkpoints.delete();
+        checkpoints.close();
+        System.out.printf("Solved %d positions in %d ms; the tablebase takes %d bytes, %.1f bits per position.%n",
+            generator.size(), (System.nanoTime() - start) / 1000000, Files.size(file),
+            Files.size(file) * 8.0 / Math.max(1, generator.size()));
+    }
+}
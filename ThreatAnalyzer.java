@@ -0,0 +1,234 @@
+/**
+ * Finds and classifies threats on a BitBoard.
+ *
+ * A threat is an empty slot that would complete four in a row for a player. Agent.worthMoving
+ * only looks at the slots a player can drop into right now; this class finds every threat on
+ * the board at once with a handful of shifts, and classifies each one by whether it is
+ * playable now and whether it sits on an odd or even row (counting the bottom row as 1).
+ *
+ * Row parity decides most Connect 4 endgames. When the columns have an even number of rows
+ * and the board fills up, the first player ends up with the odd rows and the second player
+ * with the even rows, so an odd threat is good for the first player and an even threat is good
+ * for the second. A threat is only useful if the opponent has no threat lower down in the same
+ * column, because that lower threat would be decided first.
+ *
+ * An analyzer is built for one board size and keeps no per-position state, so one instance can
+ * be shared and called at every leaf of a search, either directly or as an Evaluator.
+ */
+public class ThreatAnalyzer implements Evaluator
+{
+    private final int columns;      // the number of columns on the board
+    private final int rows;         // the number of rows on the board
+    private final int height;       // bits per column in a BitBoard
+    private final long bottomMask;  // the bottom bit of every column
+    private final long boardMask;   // every playable bit on the board
+    private final long oddRowMask;  // every slot on rows 1, 3, 5, ... from the bottom
+    private final long evenRowMask; // every slot on rows 2, 4, 6, ... from the bottom
+    private final long[] columnMasks;   // the playable bits of each column
+
+    /**
+     * Creates an analyzer for boards of the same size as the given board.
+     *
+     * @param board A board of the size to analyze.
+     */
+    public ThreatAnalyzer(BitBoard board)
+    {
+        this.columns = board.getColumnCount();
+        this.rows = board.getRowCount();
+        this.height = rows + 1;
+        this.bottomMask = board.getBottomMask();
+        this.boardMask = board.getBoardMask();
+        long oddRows = 0;
+        for (int h = 0; h < rows; h += 2)
+        {
+            oddRows |= bottomMask << h;
+        }
+        this.oddRowMask = oddRows;
+        this.evenRowMask = boardMask & ~oddRows;
+        this.columnMasks = new long[columns];
+        for (int i = 0; i < columns; i++)
+        {
+            columnMasks[i] = board.columnMask(i);
+        }
+    }
+
+    /**
+     * Returns every empty slot that would complete four in a row for a player.
+     *
+     * @param tokens The tokens of the player.
+     * @param mask Every occupied slot on the board.
+     * @return the bitboard of the player's threats.
+     */
+    public long winningCells(long tokens, long mask)
+    {
+        // vertical: three tokens directly below
+        long result = (tokens << 1) & (tokens << 2) & (tokens << 3);
+
+        // horizontal and both diagonals: every way the empty slot can complete a line of four
+        for (int shift = height - 1; shift <= height + 1; shift++)
+        {
+            long pair = (tokens << shift) & (tokens << (2 * shift));
+            result |= pair & (tokens << (3 * shift));
+            result |= pair & (tokens >>> shift);
+            pair = (tokens >>> shift) & (tokens >>> (2 * shift));
+            result |= pair & (tokens << shift);
+            result |= pair & (tokens >>> (3 * shift));
+        }
+        return result & (boardMask ^ mask);
+    }
+
+    /**
+     * Returns the slots a token can be dropped into right now.
+     *
+     * @param mask Every occupied slot on the board.
+     * @return the bitboard of the lowest empty slot of every column that is not full.
+     */
+    public long playableCells(long mask)
+    {
+        return (mask + bottomMask) & boardMask;
+    }
+
+    /**
+     * Returns every slot on an odd row, counting the bottom row as row 1.
+     *
+     * @return the odd row mask.
+     */
+    public long getOddRowMask()
+    {
+        return oddRowMask;
+    }
+
+    /**
+     * Returns every slot on an even row, counting the bottom row as row 1.
+     *
+     * @return the even row mask.
+     */
+    public long getEvenRowMask()
+    {
+        return evenRowMask;
+    }
+
+    /**
+     * Returns every slot that lies strictly above the lowest of the given slots in its column.
+     *
+     * @param cells The slots to look above.
+     * @return the slots shadowed by the given slots.
+     */
+    public long above(long cells)
+    {
+        long result = 0;
+        for (int i = 0; i < columns; i++)
+        {
+            long inColumn = cells & columnMasks[i];
+            if (inColumn != 0)
+            {
+                long lowest = inColumn & -inColumn;
+                result |= columnMasks[i] & ~((lowest << 1) - 1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the threats of a player that are not shadowed by a lower threat of the opponent
+     * in the same column.
+     *
+     * @param threats The player's threats.
+     * @param opponentThreats The opponent's threats.
+     * @return the player's useful threats.
+     */
+    public long usefulThreats(long threats, long opponentThreats)
+    {
+        return threats & ~above(opponentThreats);
+    }
+
+    /**
+     * Works out which player the row parity favours once the board fills up, using the usual
+     * rules for boards with an even number of rows: a useful odd threat of the first player
+     * beats the second player unless the second player has a useful even threat lower down in
+     * the same column, and a useful even threat of the second player wins when the first player
+     * has no useful odd threat.
+     *
+     * @param board The position to analyze.
+     * @return 1 if the parity favours the player to move, -1 if it favours the opponent, and 0 if
+     * neither player has a parity advantage or the board has an odd number of rows.
+     */
+    public int zugzwang(BitBoard board)
+    {
+        if (rows % 2 != 0)
+        {
+            return 0;
+        }
+        long mask = board.getMask();
+        return zugzwang(winningCells(board.getCurrent(), mask), winningCells(board.getOpponent(), mask),
+            board.getMoveCount() % 2 == 0);
+    }
+
+    /**
+     * Works out the zugzwang outcome from threats that have already been found.
+     */
+    private int zugzwang(long mine, long theirs, boolean moverIsFirst)
+    {
+        long first = moverIsFirst ? mine : theirs;
+        long second = moverIsFirst ? theirs : mine;
+        long firstOdd = usefulThreats(first, second) & oddRowMask;
+        long secondEven = usefulThreats(second, first) & evenRowMask;
+
+        int winner = 0;     // 1 for the first player, 2 for the second
+        if (firstOdd != 0 && secondEven == 0)
+        {
+            winner = 1;
+        }
+        else if (secondEven != 0 && firstOdd == 0)
+        {
+            winner = 2;
+        }
+        else if (firstOdd != 0)
+        {
+            // both have good threats: an odd threat wins unless an even threat sits
+            // below it in its own column
+            winner = (firstOdd & ~above(secondEven)) != 0 ? 1 : 2;
+        }
+        if (winner == 0)
+        {
+            return 0;
+        }
+        return (winner == 1) == moverIsFirst ? 1 : -1;
+    }
+
+    /**
+     * Scores a position from the point of view of the player to move using its threats: an
+     * immediate win, the opponent's double threats, useful threats weighted by whether their
+     * parity suits their owner, and the zugzwang outcome.
+     *
+     * @param board The position to score.
+     * @return a score that is positive when the player to move is better off.
+     */
+    public int evaluate(BitBoard board)
+    {
+        long mask = board.getMask();
+        long playable = playableCells(mask);
+        long mine = winningCells(board.getCurrent(), mask);
+        long theirs = winningCells(board.getOpponent(), mask);
+        if ((mine & playable) != 0)
+        {
+            return 1000;
+        }
+        if (Long.bitCount(theirs & playable) > 1)
+        {
+            return -1000;
+        }
+        boolean moverIsFirst = board.getMoveCount() % 2 == 0;
+        long myGoodRows = moverIsFirst ? oddRowMask : evenRowMask;
+        long theirGoodRows = moverIsFirst ? evenRowMask : oddRowMask;
+        long myUseful = usefulThreats(mine, theirs);
+        long theirUseful = usefulThreats(theirs, mine);
+        int score = 8 * Long.bitCount(myUseful & myGoodRows) + 3 * Long.bitCount(myUseful & ~myGoodRows)
+            - 8 * Long.bitCount(theirUseful & theirGoodRows) - 3 * Long.bitCount(theirUseful & ~theirGoodRows);
+        if (rows % 2 == 0)
+        {
+            score += 20 * zugzwang(mine, theirs, moverIsFirst);
+        }
+        return score;
+    }
+}
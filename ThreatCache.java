@@ -0,0 +1,204 @@
+import java.util.Arrays;
+
+/**
+ * Remembers the answers to every worthMoving question about a board, so that an agent asking
+ * several of them during one move scans the board once instead of once per question.
+ *
+ * A single pass looks at the slot each column would be played in and at every line of four
+ * through it, and notes for both colours how many moves each line is from a win: 1 if the other
+ * three slots are that colour, 2 if two are and one is empty, 3 if one is and two are empty, and
+ * 0 for any other line. A column is worth moving on for a colour and a threshold if any of its
+ * lines is that number of moves away, exactly as Agent.worthMovingOn decides it.
+ *
+ * The answers are kept until the board's version changes, which happens whenever a token is
+ * added to or cleared from any slot, so a cache can be asked about the same game for as long as
+ * it likes and rescans only after a move.
+ */
+public class ThreatCache
+{
+    /** The colour index of red. */
+    public static final int RED = 0;
+    /** The colour index of yellow. */
+    public static final int YELLOW = 1;
+
+    private Connect4Game game;      // the game the answers are for, or null
+    private long version;           // the version of the game the answers are for
+    private int[] thresholds;       // per column, bit t for red and bit 4 + t for yellow when a line is t moves away
+    private int[] first;            // per colour and threshold, the first column worth moving on, or -1
+    private long scans;             // board scans made
+    private long queries;           // questions answered
+
+    /**
+     * Creates an empty cache.
+     */
+    public ThreatCache()
+    {
+        this.first = new int[8];
+    }
+
+    /**
+     * Returns the colour index of a colour string.
+     *
+     * @param color "R" for red or "Y" for yellow.
+     * @return RED, YELLOW, or -1 for any other string.
+     */
+    public static int colorIndex(String color)
+    {
+        if (color.equals("R"))
+        {
+            return RED;
+        }
+        if (color.equals("Y"))
+        {
+            return YELLOW;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first column worth moving on for a colour.
+     *
+     * @param game The game to look at.
+     * @param color RED or YELLOW.
+     * @param threshold The number of moves needed to complete a win, as for Agent.worthMoving.
+     * @return the column, counted from the left; -1 if there is none.
+     */
+    public int worthMoving(Connect4Game game, int color, int threshold)
+    {
+        update(game);
+        queries++;
+        return threshold >= 0 && threshold <= 3 ? first[color * 4 + threshold] : -1;
+    }
+
+    /**
+     * Checks whether a column is worth moving on for a colour.
+     *
+     * @param game The game to look at.
+     * @param columnIndex The column to check.
+     * @param color RED or YELLOW.
+     * @param threshold The number of moves needed to complete a win, as for Agent.worthMoving.
+     * @return true if the column is not full and a move on it meets the threshold.
+     */
+    public boolean worthMovingOn(Connect4Game game, int columnIndex, int color, int threshold)
+    {
+        update(game);
+        queries++;
+        return threshold >= 0 && threshold <= 3 && (thresholds[columnIndex] & 1 << (color * 4 + threshold)) != 0;
+    }
+
+    /**
+     * Get the number of times the board has been scanned.
+     *
+     * @return the scan count.
+     */
+    public long getScans()
+    {
+        return scans;
+    }
+
+    /**
+     * Get the number of questions answered.
+     *
+     * @return the query count.
+     */
+    public long getQueries()
+    {
+        return queries;
+    }
+
+    /**
+     * Forgets the answers, so that the next question scans the board again.
+     */
+    public void clear()
+    {
+        game = null;
+    }
+
+    /**
+     * Scans the board if it has changed since the answers were worked out.
+     */
+    private void update(Connect4Game game)
+    {
+        if (game == this.game && game.getVersion() == version)
+        {
+            return;
+        }
+        int columns = game.getColumnCount();
+        int rows = game.getRowCount();
+        WinningLines lines = game.getWinningLines();
+        if (thresholds == null || thresholds.length != columns)
+        {
+            thresholds = new int[columns];
+        }
+        Arrays.fill(first, -1);
+        for (int col = 0; col < columns; col++)
+        {
+            Connect4Column column = game.getColumn(col);
+            int row = -1;
+            for (int i = 0; i < rows; i++)
+            {
+                if (!column.getSlot(i).getIsFilled())
+                {
+                    row = i;
+                }
+            }
+            int found = 0;
+            if (row != -1)
+            {
+                int cell = lines.cell(col, row);
+                int end = lines.getLinesThroughEnd(cell);
+                for (int entry = lines.getLinesThroughStart(cell); entry < end; entry++)
+                {
+                    int line = lines.getLineThrough(entry);
+                    int position = lines.getPositionThrough(entry);
+                    int red = 0;
+                    int yellow = 0;
+                    for (int i = 0; i < 4; i++)
+                    {
+                        if (i != position)
+                        {
+                            int other = lines.getCell(line, i);
+                            Connect4Slot slot = game.getColumn(lines.getColumn(other)).getSlot(lines.getRow(other));
+                            if (slot.getIsFilled())
+                            {
+                                if (slot.getIsRed())
+                                    red++;
+                                else
+                                    yellow++;
+                            }
+                        }
+                    }
+                    int empty = 3 - red - yellow;
+                    found |= 1 << movesToWin(red, empty);
+                    found |= 1 << (4 + movesToWin(yellow, empty));
+                }
+            }
+            thresholds[col] = found;
+            for (int bit = 0; bit < 8; bit++)
+            {
+                if ((found & 1 << bit) != 0 && first[bit] == -1)
+                {
+                    first[bit] = col;
+                }
+            }
+        }
+        this.game = game;
+        this.version = game.getVersion();
+        scans++;
+    }
+
+    /**
+     * Returns how many moves a line is from a win for a colour, given the colour's tokens and
+     * the empty slots among the line's other three slots, as Agent.leftToConnect counts it.
+     */
+    private static int movesToWin(int own, int empty)
+    {
+        if (own == 3)
+            return 1;
+        if (own == 2 && empty == 1)
+            return 2;
+        if (own == 1 && empty == 2)
+            return 3;
+        return 0;
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**
+ * A fixed-size transposition table that any number of search threads can share without locks.
+ *
+ * Each entry is two longs in one long[]: the data, and the key XOR the data. Threads read and
+ * write both words without synchronisation; if two writes to the same entry interleave, the
+ * stored key no longer XORs back to the probed key, so a torn entry simply reads as a miss
+ * instead of returning another position's data. The data packs the score, the depth it was
+ * searched to, whether the score is exact or a bound, and the best column.
+ *
+ * Keys are expected to be canonical position keys; the stored column is in the orientation of
+ * the canonical position.
+ */
+public class TranspositionTable
+{
+    /** The stored score is the exact score of the position. */
+    public static final int EXACT = 1;
+    /** The stored score is a lower bound: the search failed high. */
+    public static final int LOWER = 2;
+    /** The stored score is an upper bound: the search failed low. */
+    public static final int UPPER = 3;
+
+    private final long[] table;     // key ^ data followed by data for every entry
+    private final int mask;         // the number of entries minus one
+
+    /**
+     * Creates a table with room for at least the given number of entries, rounded up to a power
+     * of two.
+     *
+     * @param entries The number of entries to hold.
+     */
+    public TranspositionTable(int entries)
+    {
+        int size = 1;
+        while (size < entries && size < (1 << 29))
+        {
+            size <<= 1;
+        }
+        this.table = new long[size * 2];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get the number of entries the table can hold.
+     *
+     * @return the number of entries.
+     */
+    public int capacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Empties the table. This must not run while a search is using it.
+     */
+    public void clear()
+    {
+        Arrays.fill(table, 0);
+    }
+
+    /**
+     * Looks up a position.
+     *
+     * @param key The position key.
+     * @return the packed data of the position, or 0 if it is not stored.
+     */
+    public long probe(long key)
+    {
+        int index = index(key);
+        long data = table[index + 1];
+        long check = table[index];
+        return (check ^ data) == key ? data : 0;
+    }
+
+    /**
+     * Stores a position, replacing the entry in its slot unless that entry holds the same
+     * position searched deeper.
+     *
+     * @param key The position key.
+     * @param depth The depth the position was searched to.
+     * @param flag EXACT, LOWER or UPPER.
+     * @param score The score of the position.
+     * @param move The best column, or -1 for none.
+     */
+    public void store(long key, int depth, int flag, int score, int move)
+    {
+        int index = index(key);
+        long old = table[index + 1];
+        if ((table[index] ^ old) == key && depthOf(old) > depth)
+        {
+            return;
+        }
+        long data = (score & 0xffffffffL) | ((long) (depth & 0xff) << 32) | ((long) flag << 40) | ((long) (move + 1 & 0x3f) << 42);
+        table[index + 1] = data;
+        table[index] = key ^ data;
+    }
+
+    /**
+     * Returns the score packed in an entry.
+     *
+     * @param data The packed data returned by probe().
+     * @return the score.
+     */
+    public static int scoreOf(long data)
+    {
+        return (int) data;
+    }
+
+    /**
+     * Returns the search depth packed in an entry.
+     *
+     * @param data The packed data returned by probe().
+     * @return the depth.
+     */
+    public static int depthOf(long data)
+    {
+        return (int) (data >>> 32) & 0xff;
+    }
+
+    /**
+     * Returns the bound type packed in an entry.
+     *
+     * @param data The packed data returned by probe().
+     * @return EXACT, LOWER or UPPER.
+     */
+    public static int flagOf(long data)
+    {
+        return (int) (data >>> 40) & 3;
+    }
+
+    /**
+     * Returns the best column packed in an entry.
+     *
+     * @param data The packed data returned by probe().
+     * @return the column, or -1 for none.
+     */
+    public static int moveOf(long data)
+    {
+        return ((int) (data >>> 42) & 0x3f) - 1;
+    }
+
+    /**
+     * Returns the array index of the entry for a key.
+     */
+    private int index(long key)
+    {
+        return ((int) EndgameTablebase.mix(key) & mask) << 1;
+    }
+}
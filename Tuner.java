@@ -0,0 +1,277 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tunes the weights of a WeightedAgent by self-play on every core.
+ *
+ * Tuning uses SPSA (simultaneous perturbation stochastic approximation): every iteration nudges
+ * all weights at once by a random +c or -c, plays the two nudged agents against each other, and
+ * moves the weights towards whichever side won, by an amount that shrinks as tuning goes on.
+ * The result can then be checked against a baseline with a sequential probability ratio test
+ * (SPRT), which plays batches of games only until the evidence is strong enough either way.
+ *
+ * Batches are split across a fixed pool of threads. Each thread plays its share of games on its
+ * own board with its own agents, taken from an AgentPool so that they are built once per thread
+ * rather than once per batch, and colours and first moves alternate so that neither side is
+ * favoured.
+ */
+public class Tuner
+{
+    private final ExecutorService pool; // plays the games
+    private final int threads;          // the number of threads in the pool
+    private final Random random;        // picks the SPSA perturbations
+    private double noise;               // the random tie-breaking amount given to the agents
+    private long gamesPlayed;           // games played since the tuner was created
+    private final AgentPool<WeightedAgent> sideA;   // the agents playing the first set of weights
+    private final AgentPool<WeightedAgent> sideB;   // the agents playing the second set of weights
+    private final ThreadLocal<Match> matches;       // each thread's board and match
+
+    /**
+     * Creates a tuner.
+     *
+     * @param threads The number of threads to play games on.
+     * @param seed The seed for the SPSA perturbations.
+     */
+    public Tuner(int threads, long seed)
+    {
+        this.threads = Math.max(1, threads);
+        this.pool = Executors.newFixedThreadPool(this.threads, runnable -> {
+                Thread thread = new Thread(runnable, "tuner");
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.random = new Random(seed);
+        this.noise = 0.5;
+        this.sideA = new AgentPool<>((game, iAmRed) -> new WeightedAgent(game, iAmRed, "A", WeightedAgent.DEFAULT_WEIGHTS, noise));
+        this.sideB = new AgentPool<>((game, iAmRed) -> new WeightedAgent(game, iAmRed, "B", WeightedAgent.DEFAULT_WEIGHTS, noise));
+        this.matches = ThreadLocal.withInitial(() -> {
+                Connect4Game game = new Connect4Game(7, 6);
+                return new Match(game, sideA.acquire(game, true), sideB.acquire(game, false));
+            });
+    }
+
+    /**
+     * Get the number of games played since the tuner was created.
+     *
+     * @return the game count.
+     */
+    public long getGamesPlayed()
+    {
+        return gamesPlayed;
+    }
+
+    /**
+     * Plays a batch of games between two sets of weights.
+     *
+     * @param a The weights of the first agent.
+     * @param b The weights of the second agent.
+     * @param games The number of games to play.
+     * @return the wins of a, the draws and the wins of b.
+     */
+    public long[] playBatch(double[] a, double[] b, int games)
+    {
+        List<Future<long[]>> shares = new ArrayList<>();
+        for (int t = 0; t < threads; t++)
+        {
+            int share = games / threads + (t < games % threads ? 1 : 0);
+            if (share > 0)
+            {
+                shares.add(pool.submit(() -> playShare(a, b, share)));
+            }
+        }
+        long[] results = new long[3];
+        for (Future<long[]> share : shares)
+        {
+            try
+            {
+                long[] counts = share.get();
+                for (int i = 0; i < 3; i++)
+                {
+                    results[i] += counts[i];
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while playing games.", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new IllegalStateException("A game failed.", e.getCause());
+            }
+        }
+        gamesPlayed += games;
+        return results;
+    }
+
+    /**
+     * Plays one thread's share of a batch.
+     */
+    private long[] playShare(double[] a, double[] b, int games)
+    {
+        Match match = matches.get();
+        Connect4Game game = match.getGame();
+        long[] results = new long[3];
+        for (int i = 0; i < games; i++)
+        {
+            boolean aIsRed = i % 2 == 0;
+            WeightedAgent agentA = sideA.acquire(game, aIsRed);
+            WeightedAgent agentB = sideB.acquire(game, !aIsRed);
+            agentA.setWeights(a);
+            agentB.setWeights(b);
+            match.setPlayers(aIsRed ? agentA : agentB, aIsRed ? agentB : agentA);
+            char result = match.play((i / 2) % 2 == 0);
+            if (result == 'D' || result == 'E')
+            {
+                results[1]++;
+            }
+            else
+            {
+                results[(result == 'R') == aIsRed ? 0 : 2]++;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Tunes weights with SPSA.
+     *
+     * @param start The weights to start from.
+     * @param iterations The number of SPSA iterations.
+     * @param gamesPerIteration The number of games between the two nudged agents each iteration.
+     * @param step The starting step size.
+     * @param nudge The starting size of the nudge given to each weight.
+     * @return the tuned weights.
+     */
+    public double[] spsa(double[] start, int iterations, int gamesPerIteration, double step, double nudge)
+    {
+        double[] theta = start.clone();
+        double[] plus = new double[theta.length];
+        double[] minus = new double[theta.length];
+        int[] delta = new int[theta.length];
+        double stability = iterations / 10.0;   // keeps early steps from being too large
+        for (int k = 0; k < iterations; k++)
+        {
+            double a = step / Math.pow(k + 1 + stability, 0.602);
+            double c = nudge / Math.pow(k + 1, 0.101);
+            for (int i = 0; i < theta.length; i++)
+            {
+                delta[i] = random.nextBoolean() ? 1 : -1;
+                plus[i] = theta[i] + c * delta[i];
+                minus[i] = theta[i] - c * delta[i];
+            }
+            long[] results = playBatch(plus, minus, gamesPerIteration);
+            // the score difference between the two sides, from -1 to 1
+            double difference = (double) (results[0] - results[2]) / gamesPerIteration;
+            for (int i = 0; i < theta.length; i++)
+            {
+                theta[i] += a * difference / (2 * c * delta[i]);
+            }
+        }
+        return theta;
+    }
+
+    /**
+     * Plays a candidate against a baseline until a sequential probability ratio test decides
+     * whether the candidate is stronger.
+     *
+     * @param candidate The weights to test.
+     * @param baseline The weights to compare with.
+     * @param elo0 The Elo difference of the null hypothesis, usually 0.
+     * @param elo1 The Elo difference of the alternative hypothesis, for example 10.
+     * @param alpha The accepted chance of a false positive.
+     * @param beta The accepted chance of a false negative.
+     * @param batchGames The number of games played between checks.
+     * @param maxGames The number of games after which the test gives up.
+     * @return 1 if the candidate is stronger, -1 if it is not, 0 if maxGames was reached first.
+     */
+    public int sprt(double[] candidate, double[] baseline, double elo0, double elo1, double alpha, double beta,
+        int batchGames, int maxGames)
+    {
+        double lower = Math.log(beta / (1 - alpha));
+        double upper = Math.log((1 - beta) / alpha);
+        long wins = 0, draws = 0, losses = 0;
+        while (wins + draws + losses < maxGames)
+        {
+            long[] results = playBatch(candidate, baseline, batchGames);
+            wins += results[0];
+            draws += results[1];
+            losses += results[2];
+            double llr = logLikelihoodRatio(wins, draws, losses, elo0, elo1);
+            if (llr >= upper)
+            {
+                return 1;
+            }
+            if (llr <= lower)
+            {
+                return -1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the log likelihood ratio of two Elo differences given a set of results, using the
+     * normal approximation to the game score.
+     *
+     * @param wins The games won.
+     * @param draws The games drawn.
+     * @param losses The games lost.
+     * @param elo0 The Elo difference of the null hypothesis.
+     * @param elo1 The Elo difference of the alternative hypothesis.
+     * @return the log likelihood ratio; 0 until both wins and losses have been seen.
+     */
+    public static double logLikelihoodRatio(long wins, long draws, long losses, double elo0, double elo1)
+    {
+        long games = wins + draws + losses;
+        if (wins == 0 || losses == 0)
+        {
+            return 0;
+        }
+        double score = (wins + draws / 2.0) / games;
+        double variance = (wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2)
+            + losses * Math.pow(score, 2)) / games;
+        double score0 = 1 / (1 + Math.pow(10, -elo0 / 400));
+        double score1 = 1 / (1 + Math.pow(10, -elo1 / 400));
+        return (score1 - score0) * (2 * score - score0 - score1) * games / (2 * variance);
+    }
+
+    /**
+     * Stops the game threads.
+     */
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Tunes WeightedAgent from its default weights on every core, then tests the result
+     * against the defaults.
+     *
+     * Usage: java Tuner [iterations] [gamesPerIteration]
+     *
+     * @param args The number of SPSA iterations (default 200) and games per iteration
+     * (default 200).
+     */
+    public static void main(String[] args)
+    {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        Tuner tuner = new Tuner(Runtime.getRuntime().availableProcessors(), 1);
+        long start = System.nanoTime();
+        double[] tuned = tuner.spsa(WeightedAgent.DEFAULT_WEIGHTS, iterations, games, 32, 4);
+        System.out.println("Tuned weights: " + Arrays.toString(tuned));
+        int verdict = tuner.sprt(tuned, WeightedAgent.DEFAULT_WEIGHTS, 0, 10, 0.05, 0.05, 200, 100000);
+        System.out.println(verdict > 0 ? "The tuned weights are stronger."
+            : verdict < 0 ? "The tuned weights are not stronger." : "The test was inconclusive.");
+        long seconds = Math.max(1, (System.nanoTime() - start) / 1000000000);
+        System.out.println(tuner.getGamesPlayed() + " games in " + seconds + " s (" + tuner.getGamesPlayed() / seconds + " games/s).");
+        tuner.shutdown();
+    }
+}
@@ -0,0 +1,138 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Gets the engine up to speed while the window opens, and reports how long the first move took.
+ *
+ * A fresh JVM runs the search in the interpreter until the JIT compiler has seen enough of it,
+ * so the first moves of a SearchAgent are far slower than later ones. begin() starts a
+ * low-priority background thread that searches random positions on its own boards and tables
+ * for a short time, which loads and compiles the hot loops of BitBoard, Searcher and the
+ * evaluators before the player presses a button. Nothing it builds is shared with the agents
+ * playing the game; only the compiled code is.
+ *
+ * Class loading can be cut further with an AppCDS archive. train() runs every agent and search
+ * headless and returns, so running it once with the classes in a jar,
+ *
+ *     java -XX:ArchiveClassesAtExit=connect4.jsa -cp connect4.jar Main --train
+ *
+ * writes an archive of every class the program uses, and later runs started with
+ *
+ *     java -XX:SharedArchiveFile=connect4.jsa -cp connect4.jar Main --warm
+ *
+ * map those classes in instead of loading and verifying them one by one.
+ */
+public class WarmStart
+{
+    /**
+     * The default time the background warm-up runs for, in milliseconds.
+     */
+    public static final long DEFAULT_WARMUP_MILLIS = 2000;
+
+    private static final AtomicBoolean firstMoveReported = new AtomicBoolean();
+
+    /**
+     * Starts warming up the engine on a low-priority daemon thread.
+     *
+     * @param columns The number of columns of the boards to search.
+     * @param rows The number of rows of the boards to search.
+     * @param millis How long to keep searching, in milliseconds.
+     * @return the warm-up thread, already started.
+     */
+    public static Thread begin(int columns, int rows, long millis)
+    {
+        Thread thread = new Thread(() -> warmUp(columns, rows, millis), "warm-up");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Searches random positions until the time is up.
+     *
+     * @param columns The number of columns of the boards to search.
+     * @param rows The number of rows of the boards to search.
+     * @param millis How long to keep searching, in milliseconds.
+     * @return the number of positions searched.
+     */
+    public static int warmUp(int columns, int rows, long millis)
+    {
+        long deadline = System.nanoTime() + millis * 1000000;
+        BitBoard board = new BitBoard(columns, rows);
+        SearchStrategy search = new SerialSearch(board, new WindowEvaluator(board), new TranspositionTable(1 << 16));
+        ThreatAnalyzer threats = new ThreatAnalyzer(board);
+        Random random = new Random(1);
+        int searched = 0;
+        while (System.nanoTime() < deadline)
+        {
+            randomPosition(board, random, random.nextInt(columns * rows / 2));
+            threats.evaluate(board);
+            search.bestMove(board, SearchAgent.DEFAULT_DEPTH, Math.max(1, (deadline - System.nanoTime()) / 1000000));
+            searched++;
+        }
+        search.shutdown();
+        return searched;
+    }
+
+    /**
+     * Replaces a board's position with one reached by random moves that do not end the game.
+     */
+    private static void randomPosition(BitBoard board, Random random, int moves)
+    {
+        board.set(0, 0, true);
+        for (int i = 0; i < moves; i++)
+        {
+            int col = board.randomMove(random);
+            if (col == -1 || board.isWinningMove(col))
+            {
+                return;
+            }
+            board.play(col);
+        }
+    }
+
+    /**
+     * Runs every agent, search and evaluator once without a window, so that a run with
+     * -XX:ArchiveClassesAtExit records all of their classes.
+     *
+     * @param columns The number of columns of the board.
+     * @param rows The number of rows of the board.
+     */
+    public static void train(int columns, int rows)
+    {
+        Connect4Game game = new Connect4Game(columns, rows);
+        String[] kinds = {"random", "beginner", "intermediate", "my", "search"};
+        for (String kind : kinds)
+        {
+            Match match = new Match(game, Match.createAgent(kind, game, true), Match.createAgent("intermediate", game, false));
+            match.play();
+        }
+        BitBoard board = new BitBoard(columns, rows);
+        SearchStrategy lazySmp = new LazySmpSearch(board, new WindowEvaluator(board), 2, new TranspositionTable(1 << 16));
+        lazySmp.bestMove(board, 6, 0);
+        lazySmp.shutdown();
+        SearchStrategy ybwc = new YbwcSearch(board, new WindowEvaluator(board), 2);
+        ybwc.bestMove(board, 6, 0);
+        ybwc.shutdown();
+        warmUp(columns, rows, 500);
+    }
+
+    /**
+     * Prints how long the first move of the program took and how long after the JVM started it
+     * was played. Later calls do nothing.
+     *
+     * @param player The agent that moved.
+     * @param moveNanos How long the move took, in nanoseconds.
+     */
+    public static void firstMove(Agent player, long moveNanos)
+    {
+        if (firstMoveReported.compareAndSet(false, true))
+        {
+            long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+            System.out.println("First move by " + player + " took " + moveNanos / 1000000 + " ms, "
+                + uptime + " ms after startup.");
+        }
+    }
+}
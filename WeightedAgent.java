@@ -0,0 +1,135 @@
+/**
+ * Plays the same strategy as MyAgent, expressed as weights instead of a fixed order so that
+ * they can be tuned.
+ *
+ * Every playable column is scored by adding up the weights of the strategies it satisfies:
+ * winning, blocking a win, moves that lead to a win within two or three moves for the agent
+ * or for the opponent, the middle column and an empty column. The highest scoring column is
+ * played, the leftmost on a tie; if no column scores, a random move is made. With the default
+ * weights each strategy outweighs all of the ones after it together, which gives MyAgent's
+ * order.
+ */
+public class WeightedAgent extends Agent
+{
+    /** Index of the weight for a move that wins. */
+    public static final int WIN = 0;
+    /** Index of the weight for a move that blocks the opponent's win. */
+    public static final int BLOCK = 1;
+    /** Index of the weight for a move that could win within two moves. */
+    public static final int OWN_TWO = 2;
+    /** Index of the weight for a move that stops the opponent winning within two moves. */
+    public static final int BLOCK_TWO = 3;
+    /** Index of the weight for a move that could win within three moves. */
+    public static final int OWN_THREE = 4;
+    /** Index of the weight for a move that stops the opponent winning within three moves. */
+    public static final int BLOCK_THREE = 5;
+    /** Index of the weight for a move on the empty middle column. */
+    public static final int MIDDLE = 6;
+    /** Index of the weight for a move on an empty column. */
+    public static final int EMPTY = 7;
+    /** The number of weights. */
+    public static final int WEIGHT_COUNT = 8;
+
+    /**
+     * Weights that give MyAgent's order of strategies.
+     */
+    public static final double[] DEFAULT_WEIGHTS = {128, 64, 32, 16, 8, 4, 2, 1};
+
+    private double[] weights;   // the weight of each strategy
+    private double noise;       // the largest random amount added to each score
+
+    /**
+     * Constructs a new agent with the default weights, giving it the game and telling it
+     * whether it is Red or Yellow.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed True if the agent is Red, False if the agent is Yellow.
+     * @param theName The name of the agent.
+     */
+    public WeightedAgent(Connect4Game game, boolean iAmRed, String theName)
+    {
+        this(game, iAmRed, theName, DEFAULT_WEIGHTS, 0);
+    }
+
+    /**
+     * Constructs a new agent with the given weights, giving it the game and telling it
+     * whether it is Red or Yellow.
+     *
+     * @param game The game the agent will be playing.
+     * @param iAmRed True if the agent is Red, False if the agent is Yellow.
+     * @param theName The name of the agent.
+     * @param weights The weight of each strategy, indexed by WIN, BLOCK and so on.
+     * @param noise The largest random amount added to each column's score, which varies the
+     * agent's play between equally scored columns when it is below the smallest weight.
+     */
+    public WeightedAgent(Connect4Game game, boolean iAmRed, String theName, double[] weights, double noise)
+    {
+        super(game, iAmRed, theName);
+        setWeights(weights);
+        this.noise = noise;
+    }
+
+    /**
+     * Replaces the weights of the strategies.
+     *
+     * @param weights The weight of each strategy, indexed by WIN, BLOCK and so on.
+     */
+    public void setWeights(double[] weights)
+    {
+        if (weights.length != WEIGHT_COUNT)
+        {
+            throw new IllegalArgumentException("Expected " + WEIGHT_COUNT + " weights but got " + weights.length + ".");
+        }
+        this.weights = weights.clone();
+    }
+
+    /**
+     * Makes the move on the column with the highest total weight.
+     */
+    public void move()
+    {
+        String mine = iAmRed ? "R" : "Y";
+        String theirs = iAmRed ? "Y" : "R";
+        int middle = myGame.getColumnCount() / 2;
+        int bottom = myGame.getRowCount() - 1;
+        int bestColumn = -1;
+        double bestScore = 0;
+        for (int col = 0; col < myGame.getColumnCount(); col++)
+        {
+            Connect4Column column = myGame.getColumn(col);
+            if (!column.getIsFull())
+            {
+                double score = 0;
+                if (worthMovingOn(col, mine, 1))
+                    score += weights[WIN];
+                if (worthMovingOn(col, theirs, 1))
+                    score += weights[BLOCK];
+                if (worthMovingOn(col, mine, 2))
+                    score += weights[OWN_TWO];
+                if (worthMovingOn(col, theirs, 2))
+                    score += weights[BLOCK_TWO];
+                if (worthMovingOn(col, mine, 3))
+                    score += weights[OWN_THREE];
+                if (worthMovingOn(col, theirs, 3))
+                    score += weights[BLOCK_THREE];
+                if (!column.getSlot(bottom).getIsFilled())
+                {
+                    score += weights[EMPTY];
+                    if (col == middle)
+                        score += weights[MIDDLE];
+                }
+                if (score > 0 && noise > 0)
+                    score += r.nextDouble() * noise;
+                if (score > bestScore)
+                {
+                    bestScore = score;
+                    bestColumn = col;
+                }
+            }
+        }
+        if (bestColumn != -1)
+            moveOnColumn(bestColumn);
+        else
+            moveOnColumn(randomMove());
+    }
+}
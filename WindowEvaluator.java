@@ -0,0 +1,89 @@
+/**
+ * The default Evaluator, which scores every window of four slots that could still make a line.
+ *
+ * Every horizontal, vertical and diagonal window of four slots, as listed by WinningLines, is
+ * turned into a bitmask once, when the evaluator is built (there are 69 of them on a 7x6
+ * board). Scoring a position is then a single pass over that array: a window that holds only
+ * one player's tokens is worth weights[n] to that player, where n is the number of tokens in
+ * it, counted with Long.bitCount.
+ * Windows holding tokens of both players can never be completed and are worth nothing.
+ */
+public class WindowEvaluator implements Evaluator
+{
+    /**
+     * The weights used when none are given: a window with one, two or three tokens, or a
+     * completed line.
+     */
+    public static final int[] DEFAULT_WEIGHTS = {0, 1, 4, 32, 512};
+
+    private final long[] windows;   // the bitmask of every window of four slots
+    private final int[] weights;    // the value of a window by the number of tokens in it
+    private final long centerMask;  // the middle column, or the two middle columns on even boards
+    private final int centerWeight; // the value of each token in the middle
+
+    /**
+     * Creates an evaluator with the default weights for boards of the same size as the given
+     * board.
+     *
+     * @param board A board of the size to score.
+     */
+    public WindowEvaluator(BitBoard board)
+    {
+        this(board, DEFAULT_WEIGHTS, 2);
+    }
+
+    /**
+     * Creates an evaluator with custom weights for boards of the same size as the given board.
+     *
+     * @param board A board of the size to score.
+     * @param weights The value of a window holding 0, 1, 2, 3 and 4 tokens of one player.
+     * @param centerWeight The value of each token in the middle column.
+     */
+    public WindowEvaluator(BitBoard board, int[] weights, int centerWeight)
+    {
+        if (weights.length != 5)
+        {
+            throw new IllegalArgumentException("Expected 5 window weights but got " + weights.length + ".");
+        }
+        this.weights = weights.clone();
+        this.centerWeight = centerWeight;
+        this.windows = WinningLines.forSize(board.getColumnCount(), board.getRowCount()).masks(board);
+        int columns = board.getColumnCount();
+        long center = board.columnMask(columns / 2);
+        if (columns % 2 == 0)
+        {
+            center |= board.columnMask(columns / 2 - 1);
+        }
+        this.centerMask = center;
+    }
+
+    /**
+     * Returns the number of windows of four slots on the board.
+     *
+     * @return the number of windows.
+     */
+    public int getWindowCount()
+    {
+        return windows.length;
+    }
+
+    /**
+     * Scores a position from the point of view of the player to move.
+     *
+     * @param board The position to score.
+     * @return the window score of the player to move minus that of the opponent.
+     */
+    public int evaluate(BitBoard board)
+    {
+        long mine = board.getCurrent();
+        long theirs = board.getOpponent();
+        int score = 0;
+        for (long window : windows)
+        {
+            int own = Long.bitCount(window & mine);
+            int other = Long.bitCount(window & theirs);
+            score += (other == 0 ? weights[own] : 0) - (own == 0 ? weights[other] : 0);
+        }
+        return score + centerWeight * (Long.bitCount(mine & centerMask) - Long.bitCount(theirs & centerMask));
+    }
+}
@@ -0,0 +1,242 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The geometry of every line of four slots on a board of a given size: the cells of each line,
+ * and the lines through each cell, worked out once and kept in flat int arrays.
+ *
+ * A cell is a slot numbered column by column, col * rows + row, with row 0 at the top as in
+ * Connect4Game. Lines are numbered in the order Connect4Game.gameWon() looks for a win: by the
+ * cell they start from, column by column, then downwards, rightwards, down to the right and
+ * down to the left. There are 69 of them on a 7x6 board.
+ *
+ * The lines through a cell are the entries from getLinesThroughStart(cell) up to
+ * getLinesThroughEnd(cell), each with the line and the position of the cell in it, 0 to 3.
+ * Position 0 is the slot missing in □●●●, position 3 the slot missing in ●●●□.
+ *
+ * Tables are shared: forSize() builds each board size once and hands the same tables to every
+ * game, agent and thread, which is safe because they never change after they are built.
+ */
+public final class WinningLines
+{
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {-1, 1}};   // column and row steps of each line
+    private static final ConcurrentHashMap<Long, WinningLines> SIZES = new ConcurrentHashMap<>();  // the tables of each size built so far
+
+    private final int columns;          // the number of columns on the board
+    private final int rows;             // the number of rows on the board
+    private final int[] cellColumns;    // the column of each cell
+    private final int[] cellRows;       // the row of each cell
+    private final int[] lineCells;      // the four cells of each line, in order along the line
+    private final int[] throughStarts;  // per cell, the first entry of its lines; one more entry than cells
+    private final int[] throughLines;   // the lines through each cell, grouped by cell
+    private final int[] throughPositions;   // the position of the cell in each of those lines
+
+    /**
+     * Returns the tables for a board size, building them the first time the size is asked for.
+     *
+     * @param numCols The number of columns on the board.
+     * @param numRows The number of rows on the board.
+     * @return the shared tables.
+     */
+    public static WinningLines forSize(int numCols, int numRows)
+    {
+        return SIZES.computeIfAbsent(((long) numCols << 32) | numRows, k -> new WinningLines(numCols, numRows));
+    }
+
+    /**
+     * Builds the tables for a board size.
+     */
+    private WinningLines(int numCols, int numRows)
+    {
+        this.columns = numCols;
+        this.rows = numRows;
+        int cells = numCols * numRows;
+        cellColumns = new int[cells];
+        cellRows = new int[cells];
+        for (int cell = 0; cell < cells; cell++)
+        {
+            cellColumns[cell] = cell / numRows;
+            cellRows[cell] = cell % numRows;
+        }
+
+        int[] found = new int[cells * DIRECTIONS.length * 4];
+        int lines = 0;
+        for (int col = 0; col < numCols; col++)
+        {
+            for (int row = 0; row < numRows; row++)
+            {
+                for (int[] direction : DIRECTIONS)
+                {
+                    int lastCol = col + 3 * direction[0];
+                    int lastRow = row + 3 * direction[1];
+                    if (lastCol >= 0 && lastCol < numCols && lastRow < numRows)
+                    {
+                        for (int k = 0; k < 4; k++)
+                        {
+                            found[lines * 4 + k] = cell(col + k * direction[0], row + k * direction[1]);
+                        }
+                        lines++;
+                    }
+                }
+            }
+        }
+        lineCells = Arrays.copyOf(found, lines * 4);
+
+        // counting sort of the line entries by cell
+        throughStarts = new int[cells + 1];
+        for (int cell : lineCells)
+        {
+            throughStarts[cell + 1]++;
+        }
+        for (int cell = 0; cell < cells; cell++)
+        {
+            throughStarts[cell + 1] += throughStarts[cell];
+        }
+        throughLines = new int[lineCells.length];
+        throughPositions = new int[lineCells.length];
+        int[] next = Arrays.copyOf(throughStarts, cells);
+        for (int i = 0; i < lineCells.length; i++)
+        {
+            int entry = next[lineCells[i]]++;
+            throughLines[entry] = i / 4;
+            throughPositions[entry] = i % 4;
+        }
+    }
+
+    /**
+     * Get the number of columns of the board.
+     *
+     * @return the number of columns.
+     */
+    public int getColumnCount()
+    {
+        return columns;
+    }
+
+    /**
+     * Get the number of rows of the board.
+     *
+     * @return the number of rows.
+     */
+    public int getRowCount()
+    {
+        return rows;
+    }
+
+    /**
+     * Get the number of lines of four on the board.
+     *
+     * @return the number of lines.
+     */
+    public int getLineCount()
+    {
+        return lineCells.length / 4;
+    }
+
+    /**
+     * Returns the cell of a slot.
+     *
+     * @param col The column of the slot.
+     * @param row The row of the slot, from 0 at the top.
+     * @return the cell index.
+     */
+    public int cell(int col, int row)
+    {
+        return col * rows + row;
+    }
+
+    /**
+     * Returns the column of a cell.
+     *
+     * @param cell The cell index.
+     * @return the column.
+     */
+    public int getColumn(int cell)
+    {
+        return cellColumns[cell];
+    }
+
+    /**
+     * Returns the row of a cell.
+     *
+     * @param cell The cell index.
+     * @return the row, from 0 at the top.
+     */
+    public int getRow(int cell)
+    {
+        return cellRows[cell];
+    }
+
+    /**
+     * Returns one of the cells of a line.
+     *
+     * @param line The line index.
+     * @param position The position along the line, 0 to 3.
+     * @return the cell index.
+     */
+    public int getCell(int line, int position)
+    {
+        return lineCells[line * 4 + position];
+    }
+
+    /**
+     * Returns the first entry of the lines through a cell.
+     *
+     * @param cell The cell index.
+     * @return the index to pass to getLineThrough and getPositionThrough.
+     */
+    public int getLinesThroughStart(int cell)
+    {
+        return throughStarts[cell];
+    }
+
+    /**
+     * Returns the entry after the last of the lines through a cell.
+     *
+     * @param cell The cell index.
+     * @return the end of the cell's entries.
+     */
+    public int getLinesThroughEnd(int cell)
+    {
+        return throughStarts[cell + 1];
+    }
+
+    /**
+     * Returns the line of an entry of the lines through a cell.
+     *
+     * @param entry An index from getLinesThroughStart(cell) to before getLinesThroughEnd(cell).
+     * @return the line index.
+     */
+    public int getLineThrough(int entry)
+    {
+        return throughLines[entry];
+    }
+
+    /**
+     * Returns where the cell sits in the line of an entry of the lines through it.
+     *
+     * @param entry An index from getLinesThroughStart(cell) to before getLinesThroughEnd(cell).
+     * @return the position along the line, 0 to 3.
+     */
+    public int getPositionThrough(int entry)
+    {
+        return throughPositions[entry];
+    }
+
+    /**
+     * Returns the bitmask of every line on a BitBoard of this size, in line order.
+     *
+     * @param board A board of the size of the tables.
+     * @return a new array with one mask per line.
+     */
+    public long[] masks(BitBoard board)
+    {
+        long[] masks = new long[getLineCount()];
+        for (int i = 0; i < lineCells.length; i++)
+        {
+            int cell = lineCells[i];
+            masks[i / 4] |= board.bit(cellColumns[cell], cellRows[cell]);
+        }
+        return masks;
+    }
+}
@@ -0,0 +1,450 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A parallel alpha-beta search that splits the tree over a ForkJoinPool using the Young
+ * Brothers Wait rule.
+ *
+ * At every node deep enough to be worth splitting, the first (eldest) child is searched on its
+ * own to establish a bound; the remaining children are then forked as RecursiveTasks that all
+ * search with that same bound and are joined in order. When one of them causes a cutoff, the
+ * siblings still running are told to abort, and every task checks its ancestors for an abort
+ * as it goes.
+ *
+ * Moves are tried middle-out and nothing is shared between tasks apart from the evaluator, so
+ * the move and score do not depend on how the work was scheduled: every run of the same search
+ * gives the same answer, which makes this the strategy to use for reproducible analysis. The
+ * number of positions each worker thread visited, and how many it visited per second, are
+ * reported after every search.
+ */
+public class YbwcSearch implements SearchStrategy
+{
+    /**
+     * The shallowest remaining depth at which a node is split; shallower subtrees are searched
+     * serially by the task that reaches them.
+     */
+    public static final int DEFAULT_SPLIT_DEPTH = 4;
+
+    private static final int PAD = 8;   // longs in each per-thread counter, to keep counters off the same cache line
+
+    private final ForkJoinPool pool;        // runs the tasks
+    private final Evaluator evaluator;      // scores the leaves, shared by every task
+    private final int[] centerOrder;        // the columns from the middle outwards
+    private final int splitDepth;           // the shallowest depth that is split
+    private final List<WorkerNodes> workers = new CopyOnWriteArrayList<>();    // the counter of every thread that has searched
+    private final ThreadLocal<WorkerNodes> workerNodes = ThreadLocal.withInitial(this::addWorker);  // the calling thread's counter
+    private final SearchGenerations generations = new SearchGenerations();     // numbers the searches for stop(long)
+    private volatile long deadline;         // System.nanoTime() at which to stop, or 0 for none
+    private volatile boolean timedOut;      // set once the deadline has passed or the search is stopped
+    private long lastNodes;                 // positions visited during the last search
+    private long lastNanos;                 // how long the last search took
+    private int lastDepth;                  // the deepest search that finished last time
+    private int lastScore;                  // the root score of that search
+
+    /**
+     * Creates a parallel search for boards of the same size as the given board.
+     *
+     * @param board A board of the size to search.
+     * @param evaluator The evaluator to score the leaves with, shared by every thread.
+     * @param threads The number of worker threads.
+     */
+    public YbwcSearch(BitBoard board, Evaluator evaluator, int threads)
+    {
+        this(board, evaluator, threads, DEFAULT_SPLIT_DEPTH);
+    }
+
+    /**
+     * Creates a parallel search for boards of the same size as the given board.
+     *
+     * @param board A board of the size to search.
+     * @param evaluator The evaluator to score the leaves with, shared by every thread.
+     * @param threads The number of worker threads.
+     * @param splitDepth The shallowest remaining depth at which a node is split.
+     */
+    public YbwcSearch(BitBoard board, Evaluator evaluator, int threads, int splitDepth)
+    {
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+        this.evaluator = evaluator;
+        this.centerOrder = new MoveOrdering(board).getCenterOrder().clone();
+        this.splitDepth = Math.max(1, splitDepth);
+    }
+
+    public int bestMove(BitBoard board, int maxDepth, long timeMillis)
+    {
+        long start = System.nanoTime();
+        deadline = timeMillis > 0 ? start + timeMillis * 1000000 : 0;
+        timedOut = false;
+        workers.removeIf(worker -> !worker.thread.isAlive());
+        for (WorkerNodes worker : workers)
+        {
+            worker.nodes[0] = 0;
+        }
+        if (generations.isStopped(generations.begin()))
+        {
+            timedOut = true;    // stopped before it started
+        }
+        int best = -1;
+        lastDepth = 0;
+        for (int d = 1; d <= maxDepth && !timedOut; d++)
+        {
+            Node root = new Node(null, new BitBoard(board), d, -Searcher.WIN_SCORE - 1, Searcher.WIN_SCORE + 1);
+            int score = pool.invoke(root);
+            if (!timedOut)
+            {
+                best = root.bestMove;
+                lastScore = score;
+                lastDepth = d;
+            }
+            else if (best == -1)
+            {
+                best = root.bestMove;   // a cut-short first iteration still gives a playable column
+            }
+            if (root.bestMove == -1 || Math.abs(score) >= Searcher.WIN_SCORE - board.getColumnCount() * board.getRowCount())
+            {
+                break;  // no moves, or the game is decided: searching deeper changes nothing
+            }
+        }
+        for (int i = 0; i < centerOrder.length && best == -1; i++)
+        {
+            if (board.canPlay(centerOrder[i]))
+            {
+                best = centerOrder[i];  // stopped before the first iteration gave a column
+            }
+        }
+        lastNodes = 0;
+        for (WorkerNodes worker : workers)
+        {
+            lastNodes += worker.nodes[0];
+        }
+        lastNanos = System.nanoTime() - start;
+        return best;
+    }
+
+    public long getLastNodes()
+    {
+        return lastNodes;
+    }
+
+    public int getLastDepth()
+    {
+        return lastDepth;
+    }
+
+    /**
+     * Get the root score of the deepest search that finished last time.
+     *
+     * @return the score from the point of view of the player to move.
+     */
+    public int getLastScore()
+    {
+        return lastScore;
+    }
+
+    /**
+     * Get the number of positions each thread visited during the last search. Every thread the
+     * pool has run is counted on its own, including those it adds to stand in for workers that
+     * wait in a join.
+     *
+     * @return the node counts, one per thread in the order they first searched.
+     */
+    public long[] getNodesPerThread()
+    {
+        WorkerNodes[] counted = workers.toArray(new WorkerNodes[0]);
+        long[] nodes = new long[counted.length];
+        for (int i = 0; i < nodes.length; i++)
+        {
+            nodes[i] = counted[i].nodes[0];
+        }
+        return nodes;
+    }
+
+    /**
+     * Get the node throughput of each worker thread during the last search: the positions it
+     * visited divided by the time the whole search took.
+     *
+     * @return the positions per second, in the order of getNodesPerThread().
+     */
+    public double[] getNodesPerSecondPerThread()
+    {
+        long[] nodes = getNodesPerThread();
+        double[] rates = new double[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+        {
+            rates[i] = lastNanos > 0 ? nodes[i] * 1e9 / lastNanos : 0;
+        }
+        return rates;
+    }
+
+    public boolean wasStopped()
+    {
+        return timedOut;
+    }
+
+    public void stop()
+    {
+        stop(generations.current());
+    }
+
+    public long getNextGeneration()
+    {
+        return generations.next();
+    }
+
+    public void stop(long generation)
+    {
+        if (generations.stop(generation))
+        {
+            timedOut = true;
+        }
+    }
+
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Adds to the node count of the calling thread.
+     */
+    private void countNodes(long nodes)
+    {
+        workerNodes.get().nodes[0] += nodes;
+    }
+
+    /**
+     * Makes a counter for a thread that searches for the first time.
+     */
+    private WorkerNodes addWorker()
+    {
+        WorkerNodes worker = new WorkerNodes(Thread.currentThread());
+        workers.add(worker);
+        return worker;
+    }
+
+    /**
+     * The node counter of one thread.
+     */
+    private static final class WorkerNodes
+    {
+        final Thread thread;                    // the thread counted
+        final long[] nodes = new long[PAD];     // the count in nodes[0]; the rest is padding
+
+        WorkerNodes(Thread thread)
+        {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * The search of one position, forked as a task of its own.
+     */
+    private final class Node extends RecursiveTask<Integer>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Node parent;      // the task that forked this one, or null at the root
+        private final BitBoard board;   // this task's own copy of the position
+        private final int depth;        // the number of moves left to look ahead
+        private final int alpha;        // the window to search with
+        private final int beta;
+        private volatile boolean aborted;   // set when a sibling caused a cutoff
+        private long nodes;             // positions visited by this task itself
+        int bestMove = -1;              // the best column found
+
+        Node(Node parent, BitBoard board, int depth, int alpha, int beta)
+        {
+            this.parent = parent;
+            this.board = board;
+            this.depth = depth;
+            this.alpha = alpha;
+            this.beta = beta;
+        }
+
+        protected Integer compute()
+        {
+            int score = split();
+            countNodes(nodes);
+            return score;
+        }
+
+        /**
+         * Searches the eldest child here, then forks the younger brothers.
+         */
+        private int split()
+        {
+            nodes++;
+            if (isAborted())
+            {
+                return 0;
+            }
+            int win = immediateWin(board);
+            if (win != -1)
+            {
+                bestMove = win;
+                return Searcher.WIN_SCORE - board.getMoveCount() - 1;
+            }
+            if (board.isFull())
+            {
+                return 0;
+            }
+            if (depth < splitDepth)
+            {
+                return serial(board, depth, alpha, beta);
+            }
+
+            // each split node keeps its own list, since a worker may run other tasks while it
+            // waits to join the brothers; only nodes at splitDepth or deeper get here
+            MoveList moves = new MoveList(centerOrder.length);
+            for (int col : centerOrder)
+            {
+                if (board.canPlay(col))
+                {
+                    moves.add(col);
+                }
+            }
+            int count = moves.size();
+            int a = alpha;
+
+            // the eldest brother is searched first to get a bound for the others
+            board.play(moves.get(0));
+            Node eldest = new Node(this, new BitBoard(board), depth - 1, -beta, -a);
+            board.undo(moves.get(0));
+            int best = -eldest.compute();
+            bestMove = moves.get(0);
+            if (best > a)
+            {
+                a = best;
+            }
+            if (a >= beta || count == 1 || isAborted())
+            {
+                return best;
+            }
+
+            // the young brothers all search with the same bound, so the result does not depend
+            // on the order they finish in
+            Node[] brothers = new Node[count];
+            for (int i = 1; i < count; i++)
+            {
+                board.play(moves.get(i));
+                brothers[i] = new Node(this, new BitBoard(board), depth - 1, -beta, -a);
+                board.undo(moves.get(i));
+            }
+            for (int i = count - 1; i >= 1; i--)
+            {
+                brothers[i].fork();
+            }
+            boolean cutoff = false;
+            for (int i = 1; i < count; i++)
+            {
+                int score = -brothers[i].join();
+                if (!cutoff && score > best)
+                {
+                    best = score;
+                    bestMove = moves.get(i);
+                    if (score >= beta)
+                    {
+                        cutoff = true;
+                        for (int j = i + 1; j < count; j++)
+                        {
+                            brothers[j].aborted = true;
+                        }
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * A plain negamax search of a subtree too small to split.
+         */
+        private int serial(BitBoard position, int remaining, int a, int b)
+        {
+            nodes++;
+            if ((nodes & 1023) == 0 && isAborted())
+            {
+                return 0;
+            }
+            if (immediateWin(position) != -1)
+            {
+                return Searcher.WIN_SCORE - position.getMoveCount() - 1;
+            }
+            if (position.isFull())
+            {
+                return 0;
+            }
+            if (remaining <= 0)
+            {
+                return evaluator.evaluate(position);
+            }
+            int best = -Searcher.WIN_SCORE - 1;
+            for (int col : centerOrder)
+            {
+                if (position.canPlay(col))
+                {
+                    position.play(col);
+                    int score = -serial(position, remaining - 1, -b, -a);
+                    position.undo(col);
+                    if (score > best)
+                    {
+                        best = score;
+                        if (position == board && remaining == depth)
+                        {
+                            bestMove = col;
+                        }
+                        if (score > a)
+                        {
+                            a = score;
+                            if (a >= b)
+                            {
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Check whether this task or any of its ancestors was told to abort, or time ran out.
+         */
+        private boolean isAborted()
+        {
+            if (timedOut)
+            {
+                return true;
+            }
+            long stopAt = deadline;
+            if (stopAt != 0 && System.nanoTime() > stopAt)
+            {
+                timedOut = true;
+                return true;
+            }
+            for (Node node = this; node != null; node = node.parent)
+            {
+                if (node.aborted)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns a column that wins at once for the player to move, or -1.
+     */
+    private int immediateWin(BitBoard board)
+    {
+        for (int col : centerOrder)
+        {
+            if (board.canPlay(col) && board.isWinningMove(col))
+            {
+                return col;
+            }
+        }
+        return -1;
+    }
+}
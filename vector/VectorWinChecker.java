@@ -0,0 +1,89 @@
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A BatchWinChecker that checks several boards per instruction with the Vector API.
+ *
+ * Each lane of a vector holds one board, so the shift-and-AND test for every direction runs on
+ * all the lanes together, and a compare at the end gives a mask of the boards that contain a
+ * line of four. Boards left over at the end of a batch are checked one at a time.
+ *
+ * This class needs the jdk.incubator.vector module at compile and run time, so it is kept out
+ * of the main source directory and compiled in a separate step, as shown in BatchWinChecker;
+ * use BatchWinChecker.create() to fall back to the scalar checker when it is missing.
+ */
+public class VectorWinChecker extends BatchWinChecker
+{
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    /**
+     * Creates a vector checker for boards of the given size.
+     *
+     * @param columns The number of columns of the boards.
+     * @param rows The number of rows of the boards.
+     */
+    public VectorWinChecker(int columns, int rows)
+    {
+        super(columns, rows);
+    }
+
+    /**
+     * Check whether this checker uses the Vector API.
+     *
+     * @return true.
+     */
+    public boolean isVectorized()
+    {
+        return true;
+    }
+
+    /**
+     * Checks a batch of boards for a winner, as BatchWinChecker.check does.
+     *
+     * @param red The red tokens of each board.
+     * @param yellow The yellow tokens of each board.
+     * @param count The number of boards to check, from index 0.
+     * @param redWins Receives one bit per board for red; needs (count + 63) / 64 words.
+     * @param yellowWins Receives one bit per board for yellow.
+     * @return the number of boards with a winner.
+     */
+    public int check(long[] red, long[] yellow, int count, long[] redWins, long[] yellowWins)
+    {
+        clear(redWins, yellowWins, count);
+        int lanes = SPECIES.length();
+        int bound = SPECIES.loopBound(count);
+        int won = 0;
+        for (int i = 0; i < bound; i += lanes)
+        {
+            // the lane count is a power of two no larger than 64, so the lanes of one vector
+            // never straddle two result words
+            long redBits = connected(LongVector.fromArray(SPECIES, red, i)).toLong();
+            long yellowBits = connected(LongVector.fromArray(SPECIES, yellow, i)).toLong();
+            redWins[i >>> 6] |= redBits << i;
+            yellowWins[i >>> 6] |= yellowBits << i;
+            won += Long.bitCount(redBits | yellowBits);
+        }
+        return won + checkRange(red, yellow, bound, count, redWins, yellowWins);
+    }
+
+    /**
+     * Returns a mask of the lanes whose tokens contain four in a row in any direction.
+     */
+    private VectorMask<Long> connected(LongVector tokens)
+    {
+        LongVector lines = aligned(tokens, 1).or(aligned(tokens, height)).or(aligned(tokens, height - 1))
+            .or(aligned(tokens, height + 1));
+        return lines.compare(VectorOperators.NE, 0);
+    }
+
+    /**
+     * Returns, in each lane, the first slot of every line of four along one direction.
+     */
+    private static LongVector aligned(LongVector tokens, int shift)
+    {
+        LongVector pairs = tokens.and(tokens.lanewise(VectorOperators.LSHR, shift));
+        return pairs.and(pairs.lanewise(VectorOperators.LSHR, 2 * shift));
+    }
+}